@@ -0,0 +1,33 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A {@link BatchJobSink} gets the printer jobs collected by a {@link BatchingJobListener} in batches,
+ * so it can persist many printer jobs in a single transaction.
+ */
+public interface BatchJobSink {
+
+    /**
+     * Delivers a batch of printer jobs. The {@link ReceivedJob}s are closed by the {@link BatchingJobListener}
+     * when this method returns. If an {@link IOException} is thrown, the whole batch is considered as failed.
+     */
+    void deliver(final List<ReceivedJob> jobs) throws IOException;
+}
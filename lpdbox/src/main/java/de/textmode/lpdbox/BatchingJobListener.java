@@ -0,0 +1,281 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link BatchingJobListener} collects the printer jobs completed by all connections and delivers them
+ * to a {@link BatchJobSink} in batches. A batch is delivered as soon as it contains <code>maxBatchSize</code>
+ * printer jobs or <code>maxLatencyInMillis</code> after its first printer job has been added. The batches are
+ * delivered one after another by a background thread. Pass the {@link BatchingJobListener} as
+ * {@link ReceivedJobListener} to a {@link JobAssemblerFactory}.
+ *
+ * <p>If <code>waitForCommit</code> is <code>true</code>, the connection waits until the batch of its printer job
+ * has been delivered before the last file of the printer job is acknowledged. If the delivery fails, the
+ * connection gets closed without the acknowledgement, so the client sends the printer job again. Otherwise
+ * the printer job is acknowledged at once and failed deliveries are only logged.</p>
+ */
+public final class BatchingJobListener implements ReceivedJobListener, Closeable {
+
+    private final BatchJobSink sink;
+    private final int maxBatchSize;
+    private final long maxLatencyInMillis;
+    private final boolean waitForCommit;
+    private final Logger logger;
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong jobCount = new AtomicLong();
+
+    private final List<Batch> pending = new ArrayList<>();
+
+    private Batch current = new Batch();
+    private boolean isClosed;
+
+    /**
+     * Constructor.
+     */
+    public BatchingJobListener(
+            final BatchJobSink sink,
+            final int maxBatchSize,
+            final long maxLatencyInMillis,
+            final boolean waitForCommit) {
+
+        this(sink, maxBatchSize, maxLatencyInMillis, waitForCommit, LoggerFactory.getLogger(BatchingJobListener.class));
+    }
+
+    /**
+     * Constructor with the {@link Logger} failed deliveries are logged to.
+     */
+    public BatchingJobListener(
+            final BatchJobSink sink,
+            final int maxBatchSize,
+            final long maxLatencyInMillis,
+            final boolean waitForCommit,
+            final Logger logger) {
+
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatchSize);
+        }
+
+        this.sink = sink;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyInMillis = maxLatencyInMillis;
+        this.waitForCommit = waitForCommit;
+        this.logger = logger;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "lpdbox-batch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // On close the pending batches are delivered by the closing thread, so waiting for them is not necessary...
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Returns the number of batches delivered.
+     */
+    public long getBatchCount() {
+        return this.batchCount.get();
+    }
+
+    /**
+     * Returns the number of printer jobs delivered.
+     */
+    public long getJobCount() {
+        return this.jobCount.get();
+    }
+
+    @Override
+    public void jobReceived(final ReceivedJob job) throws IOException {
+        final Batch batch;
+        synchronized (this) {
+            if (this.isClosed) {
+                job.close();
+                throw new IOException("The BatchingJobListener has been closed");
+            }
+
+            batch = this.current;
+            batch.jobs.add(job);
+            if (batch.jobs.size() == 1) {
+                this.pending.add(batch);
+            }
+
+            if (batch.jobs.size() >= this.maxBatchSize) {
+                this.current = new Batch();
+                this.submit(batch, 0);
+            } else if (batch.jobs.size() == 1) {
+                this.submit(batch, this.maxLatencyInMillis);
+            }
+        }
+
+        if (this.waitForCommit) {
+            batch.await();
+        }
+    }
+
+    /**
+     * Schedules the delivery of the given batch after the given delay.
+     */
+    private void submit(final Batch batch, final long delayInMillis) {
+        try {
+            this.executor.schedule(batch, delayInMillis, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            this.logger.warn("Failed to schedule the delivery of a batch: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Seals the given batch (so no more printer jobs are added) and returns <code>true</code> if it has not
+     * been sealed before.
+     */
+    private synchronized boolean seal(final Batch batch) {
+        if (batch.isSealed) {
+            return false;
+        }
+
+        batch.isSealed = true;
+        this.pending.remove(batch);
+        if (this.current == batch) {
+            this.current = new Batch();
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting printer jobs and stops the background thread. The batches that have not been delivered
+     * yet (including full batches still waiting for the background thread) are delivered by the calling thread
+     * in the order they have been started.
+     */
+    @Override
+    public void close() throws IOException {
+        final List<Batch> toDeliver;
+        synchronized (this) {
+            if (this.isClosed) {
+                return;
+            }
+            this.isClosed = true;
+            toDeliver = new ArrayList<>(this.pending);
+        }
+
+        // The scheduled deliveries are cancelled, only a delivery already running is completed...
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException failure =
+                    new InterruptedIOException("Interrupted while waiting for the delivery of the batches");
+
+            // The connections waiting for the pending batches must not wait forever...
+            for (final Batch batch : toDeliver) {
+                batch.discard(failure);
+            }
+            throw failure;
+        }
+
+        for (final Batch batch : toDeliver) {
+            batch.run();
+        }
+    }
+
+    /**
+     * A batch of printer jobs.
+     */
+    private final class Batch implements Runnable {
+
+        private final List<ReceivedJob> jobs = new ArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private boolean isSealed;
+        private volatile IOException failure;
+
+        /**
+         * Waits until the batch has been delivered. Throws an {@link IOException} if the delivery failed.
+         */
+        void await() throws IOException {
+            try {
+                this.done.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the delivery of the batch");
+            }
+
+            if (this.failure != null) {
+                throw new IOException("Failed to deliver the batch: " + this.failure.getMessage(), this.failure);
+            }
+        }
+
+        /**
+         * Discards the batch without delivering it, so the waiting connections get the given failure.
+         */
+        void discard(final IOException e) {
+            if (!BatchingJobListener.this.seal(this)) {
+                return;
+            }
+
+            this.failure = e;
+            for (final ReceivedJob job : this.jobs) {
+                Util.closeQuietly(job);
+            }
+            this.done.countDown();
+        }
+
+        @Override
+        public void run() {
+            if (!BatchingJobListener.this.seal(this)) {
+                return;
+            }
+
+            try {
+                if (!this.jobs.isEmpty()) {
+                    BatchingJobListener.this.sink.deliver(Collections.unmodifiableList(this.jobs));
+                    BatchingJobListener.this.batchCount.incrementAndGet();
+                    BatchingJobListener.this.jobCount.addAndGet(this.jobs.size());
+                }
+            } catch (final IOException | RuntimeException e) {
+                this.failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                BatchingJobListener.this.logger.error(
+                        "Failed to deliver a batch of " + this.jobs.size() + " jobs: " + e.getMessage());
+            } finally {
+                for (final ReceivedJob job : this.jobs) {
+                    Util.closeQuietly(job);
+                }
+                this.done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@link ByteBufferPool} hands out direct (off-heap) {@link ByteBuffer}s and takes them back
+ * for reuse, so transferring data does neither produce garbage nor copy data between the heap
+ * and native memory.
+ *
+ * <p>The buffers are organized in size classes (powers of two from 4 KiB up to 1 MiB). Every
+ * thread keeps one released buffer per size class in a thread local cache, so a thread that
+ * handles one connection after another reuses its buffers without any synchronization. Other
+ * released buffers are kept in lock free queues shared by all threads. The total number of bytes
+ * of direct buffers is limited; if the limit is reached (or a buffer larger than 1 MiB is
+ * requested), a heap buffer is handed out instead that is not pooled.</p>
+ *
+ * <p>The {@link LinePrinterDaemon} owns a {@link ByteBufferPool} (see {@link LinePrinterDaemon#getBufferPool()})
+ * that is used for reading the data sent by the clients and that can be used by the
+ * {@link DaemonCommandHandler}s as well.</p>
+ */
+public final class ByteBufferPool {
+
+    private static final int MIN_SIZE_SHIFT = 12;
+    private static final int MAX_SIZE_SHIFT = 20;
+    private static final int SIZE_CLASSES = MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1;
+
+    private final long capacity;
+    private final AtomicLong allocated = new AtomicLong();
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder allocations = new LongAdder();
+
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> sharedBuffers;
+    private final ThreadLocal<ByteBuffer[]> localBuffers = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[SIZE_CLASSES];
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param capacity  maximum number of bytes of all direct buffers allocated by the {@link ByteBufferPool}
+     */
+    public ByteBufferPool(final long capacity) {
+        this.capacity = capacity;
+        this.sharedBuffers = new ArrayList<>(SIZE_CLASSES);
+        for (int ix = 0; ix < SIZE_CLASSES; ++ix) {
+            this.sharedBuffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+    }
+
+    /**
+     * Returns the index of the smallest size class that holds the given number of bytes
+     * or -1 if the size is larger than the largest size class.
+     */
+    private static int getSizeClass(final int size) {
+        if (size <= 1 << MIN_SIZE_SHIFT) {
+            return 0;
+        }
+
+        final int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_SIZE_SHIFT ? -1 : shift - MIN_SIZE_SHIFT;
+    }
+
+    /**
+     * Returns a cleared {@link ByteBuffer} with a capacity of at least the given number of bytes.
+     * The {@link ByteBuffer} should be returned using {@link #release(ByteBuffer)} when it is not
+     * needed anymore.
+     */
+    public ByteBuffer acquire(final int minCapacity) {
+        this.acquired.increment();
+
+        final int sizeClass = getSizeClass(minCapacity);
+        if (sizeClass < 0) {
+            return ByteBuffer.allocate(minCapacity);
+        }
+
+        final ByteBuffer[] local = this.localBuffers.get();
+        ByteBuffer buffer = local[sizeClass];
+        if (buffer != null) {
+            local[sizeClass] = null;
+        } else {
+            buffer = this.sharedBuffers.get(sizeClass).poll();
+        }
+
+        if (buffer == null) {
+            buffer = this.allocate(1 << (sizeClass + MIN_SIZE_SHIFT));
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Allocates a new direct {@link ByteBuffer} if the capacity of the {@link ByteBufferPool} allows
+     * it. Otherwise a heap {@link ByteBuffer} is returned.
+     */
+    private ByteBuffer allocate(final int size) {
+        this.allocations.increment();
+        while (true) {
+            final long current = this.allocated.get();
+            if (current + size > this.capacity) {
+                return ByteBuffer.allocate(size);
+            }
+            if (this.allocated.compareAndSet(current, current + size)) {
+                return ByteBuffer.allocateDirect(size);
+            }
+        }
+    }
+
+    /**
+     * Returns the given {@link ByteBuffer} to the {@link ByteBufferPool}. Buffers that have not been
+     * handed out by the {@link ByteBufferPool} as a direct buffer are ignored.
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        final int sizeClass = getSizeClass(buffer.capacity());
+        if (sizeClass < 0 || buffer.capacity() != 1 << (sizeClass + MIN_SIZE_SHIFT)) {
+            return;
+        }
+
+        final ByteBuffer[] local = this.localBuffers.get();
+        if (local[sizeClass] == null) {
+            local[sizeClass] = buffer;
+        } else {
+            this.sharedBuffers.get(sizeClass).offer(buffer);
+        }
+    }
+
+    /**
+     * Returns the maximum number of bytes of all direct buffers.
+     */
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of bytes of all direct buffers allocated so far.
+     */
+    public long getAllocatedBytes() {
+        return this.allocated.get();
+    }
+
+    /**
+     * Returns the number of buffers handed out so far.
+     */
+    public long getAcquireCount() {
+        return this.acquired.sum();
+    }
+
+    /**
+     * Returns the number of buffers that had to be allocated (direct or heap) because no
+     * pooled buffer was available.
+     */
+    public long getAllocationCount() {
+        return this.allocations.sum();
+    }
+}
@@ -0,0 +1,130 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TransportConnection} that is based on a (blocking) {@link SocketChannel}. Because
+ * every read on a channel is a system call, the {@link InputStream} is buffered. The
+ * {@link LinePrinterDaemon} reads from the {@link SocketChannel} directly using a pooled buffer,
+ * so the {@link InputStream} is created on demand only.
+ */
+final class ChannelTransportConnection implements TransportConnection {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int DRAIN_BUFFER_SIZE = 512;
+
+    private final SocketChannel channel;
+    private InputStream inputStream;
+    private final OutputStream outputStream;
+    private final String client;
+
+    /**
+     * Constructor.
+     */
+    ChannelTransportConnection(final SocketChannel channel, final String defaultClient) {
+        this.channel = channel;
+        this.outputStream = Channels.newOutputStream(channel);
+
+        String remote = null;
+        try {
+            final SocketAddress address = channel.getRemoteAddress();
+            remote = address == null ? null : address.toString();
+        } catch (final IOException e) {
+            remote = null;
+        }
+
+        this.client = remote == null || remote.isEmpty() ? defaultClient : remote;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() {
+        if (this.inputStream == null) {
+            this.inputStream = new BufferedInputStream(Channels.newInputStream(this.channel), BUFFER_SIZE);
+        }
+        return this.inputStream;
+    }
+
+    @Override
+    public ReadableByteChannel getChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.outputStream;
+    }
+
+    @Override
+    public String getClient() {
+        return this.client;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    @Override
+    public boolean isGracefulCloseSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean closeGracefully(final long timeoutInMillis) throws IOException {
+        try {
+            this.channel.shutdownOutput();
+
+            // A blocking channel has no read timeout, so the channel is switched to non-blocking mode
+            // and everything the client still sends is discarded until it closes its side...
+            this.channel.configureBlocking(false);
+            try (final Selector selector = Selector.open()) {
+                this.channel.register(selector, SelectionKey.OP_READ);
+
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+                final ByteBuffer buffer = ByteBuffer.allocate(DRAIN_BUFFER_SIZE);
+
+                long remaining = timeoutInMillis;
+                while (remaining > 0) {
+                    if (selector.select(remaining) > 0) {
+                        selector.selectedKeys().clear();
+                        buffer.clear();
+                        if (this.channel.read(buffer) == -1) {
+                            return true;
+                        }
+                    }
+                    remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                }
+                return false;
+            }
+        } finally {
+            this.channel.close();
+        }
+    }
+}
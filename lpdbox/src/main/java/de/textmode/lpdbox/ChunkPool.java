@@ -0,0 +1,83 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@link ChunkPool} hands out byte arrays of a fixed size (chunks) and takes them back for
+ * reuse. The total number of chunks (handed out and pooled) is limited, so the memory used by
+ * the {@link ChunkPool} is bounded.
+ */
+final class ChunkPool {
+
+    private final int chunkSize;
+    private final int maxChunks;
+
+    private final ConcurrentLinkedQueue<byte[]> freeChunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocatedChunks = new AtomicInteger();
+
+    /**
+     * Constructor.
+     */
+    ChunkPool(final int chunkSize, final int maxChunks) {
+        this.chunkSize = chunkSize;
+        this.maxChunks = maxChunks;
+    }
+
+    /**
+     * Returns the size of a chunk.
+     */
+    int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Returns a chunk or <code>null</code> if the maximum number of chunks has been handed out.
+     */
+    byte[] acquire() {
+        final byte[] chunk = this.freeChunks.poll();
+        if (chunk != null) {
+            return chunk;
+        }
+
+        while (true) {
+            final int allocated = this.allocatedChunks.get();
+            if (allocated >= this.maxChunks) {
+                return null;
+            }
+            if (this.allocatedChunks.compareAndSet(allocated, allocated + 1)) {
+                return new byte[this.chunkSize];
+            }
+        }
+    }
+
+    /**
+     * Returns a chunk to the pool.
+     */
+    void release(final byte[] chunk) {
+        this.freeChunks.offer(chunk);
+    }
+
+    /**
+     * Returns the number of chunks that have been allocated so far.
+     */
+    int getAllocatedChunks() {
+        return this.allocatedChunks.get();
+    }
+}
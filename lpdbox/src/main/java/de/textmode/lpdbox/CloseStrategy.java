@@ -0,0 +1,42 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The {@link CloseStrategy} determines how the {@link LinePrinterDaemon} closes a client connection
+ * after the command has been handled. The side of a TCP connection that closes first keeps the
+ * connection in the TIME_WAIT state for a while. At high connection rates these connections can
+ * exhaust the resources of the server, so it can be preferable to let the client close first.
+ *
+ * <p>The strategy applies to connections that support a half-close (see
+ * {@link TransportConnection#isGracefulCloseSupported()}), i. e. TCP and Unix domain sockets. The
+ * connections of other transports are closed immediately.</p>
+ */
+public enum CloseStrategy {
+
+    /**
+     * The connection is closed immediately. This is the default.
+     */
+    IMMEDIATE,
+
+    /**
+     * The connection is half-closed (no more data is sent to the client) and the
+     * {@link LinePrinterDaemon} waits until the client has closed the connection (but not longer
+     * than the close timeout, see {@link LinePrinterDaemonBuilder#closeTimeout(long)}).
+     */
+    WAIT_FOR_CLIENT
+}
@@ -0,0 +1,47 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+/**
+ * The {@link CoalescingDaemonCommandHandler} is the {@link DaemonCommandHandler} created by the
+ * {@link PrintJobsCoalescer}. It passes the daemon command "Print any waiting jobs" to the
+ * {@link PrintJobsCoalescer} and all other calls to the wrapped {@link DaemonCommandHandler}.
+ */
+final class CoalescingDaemonCommandHandler extends ForwardingDaemonCommandHandler {
+
+    private final PrintJobsCoalescer coalescer;
+
+    /**
+     * Constructor.
+     */
+    CoalescingDaemonCommandHandler(final DaemonCommandHandler handler, final PrintJobsCoalescer coalescer) {
+        super(handler);
+        this.coalescer = coalescer;
+    }
+
+    @Override
+    public void printJobs(final String queueName) {
+        this.coalescer.trigger(queueName);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.getDelegate().close();
+    }
+}
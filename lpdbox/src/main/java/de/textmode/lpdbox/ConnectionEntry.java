@@ -0,0 +1,311 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@link ConnectionEntry} holds the live state of a client connection that is registered
+ * in the {@link ConnectionRegistry}. The state is written by the thread handling the connection
+ * and read by any thread that takes a snapshot.
+ */
+final class ConnectionEntry {
+
+    /**
+     * Minimum interval (in milliseconds) between two samples used to calculate the receive rate.
+     */
+    private static final long MIN_SAMPLE_INTERVAL = 1000L;
+
+    private final long id;
+    private final String client;
+    private final long startTime;
+    private final TransportConnection connection;
+
+    private volatile CountingInputStream inputStream;
+    private volatile int commandCode;
+    private volatile String queueName;
+    private volatile ConnectionPhase phase;
+    private volatile boolean isAborted;
+    private volatile boolean isRejected;
+
+    private final Object handlerLock = new Object();
+    private volatile Thread handlerThread;
+    private volatile long handlerCallStart;
+    private volatile String handlerMethod;
+    private volatile long handlerCallId;
+    private final AtomicBoolean isStuckReported = new AtomicBoolean();
+    private long progressBytes;
+
+    private long lastSampleTime;
+    private long lastSampleBytes;
+    private long bytesPerSecond;
+
+    /**
+     * Constructor.
+     */
+    ConnectionEntry(final long id, final TransportConnection connection) {
+        this.id = id;
+        this.connection = connection;
+        this.client = connection.getClient();
+        this.startTime = System.currentTimeMillis();
+
+        this.commandCode = -1;
+        this.phase = ConnectionPhase.QUEUED;
+
+        this.lastSampleTime = this.startTime;
+    }
+
+    /**
+     * Returns the unique id of the connection.
+     */
+    long getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the address of the client.
+     */
+    String getClient() {
+        return this.client;
+    }
+
+    /**
+     * Returns the time (in milliseconds since the epoch) the connection has been accepted.
+     */
+    long getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * Wraps the given {@link InputStream} of the connection, so the received bytes get counted.
+     */
+    InputStream countBytes(final InputStream is) {
+        final CountingInputStream result = new CountingInputStream(is);
+        this.inputStream = result;
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes received from the client so far.
+     */
+    long getBytesReceived() {
+        final CountingInputStream is = this.inputStream;
+        return is == null ? 0 : is.getCount();
+    }
+
+    /**
+     * Returns the command code sent by the client or -1 if not known yet.
+     */
+    int getCommandCode() {
+        return this.commandCode;
+    }
+
+    /**
+     * Sets the command code sent by the client.
+     */
+    void setCommandCode(final int value) {
+        this.commandCode = value;
+    }
+
+    /**
+     * Returns the queue name sent by the client or <code>null</code> if not known yet.
+     */
+    String getQueueName() {
+        return this.queueName;
+    }
+
+    /**
+     * Sets the queue name sent by the client.
+     */
+    void setQueueName(final String value) {
+        this.queueName = value;
+    }
+
+    /**
+     * Returns the current {@link ConnectionPhase}.
+     */
+    ConnectionPhase getPhase() {
+        return this.phase;
+    }
+
+    /**
+     * Sets the current {@link ConnectionPhase}.
+     */
+    void setPhase(final ConnectionPhase value) {
+        this.phase = value;
+    }
+
+    /**
+     * Gets called when the thread handling the connection calls the given method of the
+     * {@link DaemonCommandHandler}.
+     */
+    void enterHandler(final String method) {
+        synchronized (this.handlerLock) {
+            ++this.handlerCallId;
+            this.handlerThread = Thread.currentThread();
+            this.handlerCallStart = System.nanoTime();
+            this.isStuckReported.set(false);
+            this.handlerMethod = method;
+        }
+    }
+
+    /**
+     * Gets called when the call to the {@link DaemonCommandHandler} has returned.
+     */
+    void exitHandler() {
+        synchronized (this.handlerLock) {
+            this.handlerMethod = null;
+            ++this.handlerCallId;
+        }
+    }
+
+    /**
+     * Returns the id of the current handler call, which changes whenever a handler call is entered or
+     * exited.
+     */
+    long getHandlerCallId() {
+        return this.handlerCallId;
+    }
+
+    /**
+     * Interrupts the thread of the handler call with the given id and aborts the connection. Does nothing
+     * and returns <code>false</code> if that call has already returned, so the thread (which might
+     * already handle another connection) is not interrupted.
+     */
+    boolean interruptHandlerCall(final long callId) {
+        synchronized (this.handlerLock) {
+            if (this.handlerCallId != callId || this.handlerMethod == null) {
+                return false;
+            }
+            this.isAborted = true;
+            this.handlerThread.interrupt();
+        }
+
+        this.abort();
+        return true;
+    }
+
+    /**
+     * Returns the name of the {@link DaemonCommandHandler} method currently being called
+     * or <code>null</code> if the connection is not inside a handler call.
+     */
+    String getHandlerMethod() {
+        return this.handlerMethod;
+    }
+
+    /**
+     * Returns the time (see {@link System#nanoTime()}) the current handler call has been started.
+     */
+    long getHandlerCallStart() {
+        return this.handlerCallStart;
+    }
+
+    /**
+     * While a file is being received, a handler call is not considered stuck as long as bytes
+     * are flowing. So if bytes have been received since the last invocation of this method,
+     * the start time of the current handler call is moved to the given time. This method must
+     * only be called by the {@link HandlerWatchdog}.
+     */
+    void refreshProgress(final long now) {
+        final long bytes = this.getBytesReceived();
+        final ConnectionPhase current = this.phase;
+
+        final boolean isReceiving = current == ConnectionPhase.RECEIVING_CONTROL_FILE
+                || current == ConnectionPhase.RECEIVING_DATA_FILE;
+
+        if (isReceiving && bytes != this.progressBytes) {
+            this.handlerCallStart = now;
+        }
+
+        this.progressBytes = bytes;
+    }
+
+    /**
+     * Returns the {@link Thread} that calls (or called) the {@link DaemonCommandHandler}.
+     */
+    Thread getHandlerThread() {
+        return this.handlerThread;
+    }
+
+    /**
+     * Marks the current handler call as reported. Returns <code>false</code> if it has already
+     * been reported.
+     */
+    boolean markStuckReported() {
+        return this.isStuckReported.compareAndSet(false, true);
+    }
+
+    /**
+     * Returns <code>true</code> if the connection has been aborted forcibly.
+     */
+    boolean isAborted() {
+        return this.isAborted;
+    }
+
+    /**
+     * Marks the connection as rejected (i. e. a printer job has been refused).
+     */
+    void markRejected() {
+        this.isRejected = true;
+    }
+
+    /**
+     * Returns <code>true</code> if the connection has been rejected.
+     */
+    boolean isRejected() {
+        return this.isRejected;
+    }
+
+    /**
+     * Aborts the connection forcibly by closing the underlying {@link TransportConnection}. The thread
+     * handling the connection will get an exception on its next read or write.
+     */
+    void abort() {
+        this.isAborted = true;
+        Util.closeQuietly(this.connection);
+    }
+
+    /**
+     * Returns the current state of the connection with the receive rate of the latest snapshot. Unlike
+     * {@link #snapshot()}, no new sample is taken, so the receive rate seen by others is not affected.
+     */
+    synchronized ConnectionInfo peek() {
+        return new ConnectionInfo(this, this.getBytesReceived(), this.bytesPerSecond);
+    }
+
+    /**
+     * Takes a snapshot of the connection. The receive rate is calculated from the bytes received
+     * since the previous snapshot (if that is at least one second ago).
+     */
+    synchronized ConnectionInfo snapshot() {
+        final long now = System.currentTimeMillis();
+        final long bytes = this.getBytesReceived();
+        final long elapsed = now - this.lastSampleTime;
+
+        if (elapsed >= MIN_SAMPLE_INTERVAL) {
+            this.bytesPerSecond = (bytes - this.lastSampleBytes) * 1000L / elapsed;
+            this.lastSampleTime = now;
+            this.lastSampleBytes = bytes;
+        } else if (this.lastSampleTime == this.startTime && now > this.startTime) {
+            // First snapshot within the first second - use the average rate...
+            this.bytesPerSecond = bytes * 1000L / (now - this.startTime);
+        }
+
+        return new ConnectionInfo(this, bytes, this.bytesPerSecond);
+    }
+}
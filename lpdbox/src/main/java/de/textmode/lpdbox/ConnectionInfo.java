@@ -0,0 +1,115 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The {@link ConnectionInfo} is an immutable snapshot of a client connection that is currently
+ * handled (or waiting to be handled) by the {@link LinePrinterDaemon}.
+ */
+public final class ConnectionInfo {
+
+    private final long id;
+    private final String client;
+    private final long startTime;
+    private final int commandCode;
+    private final String queueName;
+    private final ConnectionPhase phase;
+    private final long bytesReceived;
+    private final long bytesPerSecond;
+
+    /**
+     * Constructor.
+     */
+    ConnectionInfo(final ConnectionEntry entry, final long bytesReceived, final long bytesPerSecond) {
+        this.id = entry.getId();
+        this.client = entry.getClient();
+        this.startTime = entry.getStartTime();
+        this.commandCode = entry.getCommandCode();
+        this.queueName = entry.getQueueName();
+        this.phase = entry.getPhase();
+        this.bytesReceived = bytesReceived;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Returns the unique id of the connection. The id can be passed to
+     * {@link LinePrinterDaemon#abortConnection(long)}.
+     */
+    public long getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the address of the client.
+     */
+    public String getClient() {
+        return this.client;
+    }
+
+    /**
+     * Returns the time (in milliseconds since the epoch) the connection has been accepted.
+     */
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * Returns the command code sent by the client or -1 if the client has not sent a command code yet.
+     */
+    public int getCommandCode() {
+        return this.commandCode;
+    }
+
+    /**
+     * Returns the queue name sent by the client or <code>null</code> if it is not known yet.
+     */
+    public String getQueueName() {
+        return this.queueName;
+    }
+
+    /**
+     * Returns the {@link ConnectionPhase} the connection was in when the snapshot was taken.
+     */
+    public ConnectionPhase getPhase() {
+        return this.phase;
+    }
+
+    /**
+     * Returns the number of bytes received from the client so far.
+     */
+    public long getBytesReceived() {
+        return this.bytesReceived;
+    }
+
+    /**
+     * Returns the current receive rate (in bytes per second).
+     */
+    public long getBytesPerSecond() {
+        return this.bytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "Connection " + this.id
+                + " from " + this.client
+                + " (command " + this.commandCode
+                + ", queue " + this.queueName
+                + ", phase " + this.phase
+                + ", " + this.bytesReceived + " bytes received"
+                + ", " + this.bytesPerSecond + " bytes/s)";
+    }
+}
@@ -0,0 +1,58 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The {@link ConnectionPhase} describes what a client connection is currently doing.
+ */
+public enum ConnectionPhase {
+
+    /**
+     * The connection has been accepted and waits for a free thread.
+     */
+    QUEUED,
+
+    /**
+     * The daemon waits for the client to send the command code.
+     */
+    WAITING_FOR_COMMAND,
+
+    /**
+     * The daemon reads the operands of a command or exchanges acknowledgements with the client.
+     */
+    PROCESSING_COMMAND,
+
+    /**
+     * The {@link DaemonCommandHandler} is processing a call.
+     */
+    HANDLER_CALL,
+
+    /**
+     * The {@link DaemonCommandHandler} is receiving a control file.
+     */
+    RECEIVING_CONTROL_FILE,
+
+    /**
+     * The {@link DaemonCommandHandler} is receiving a data file.
+     */
+    RECEIVING_DATA_FILE,
+
+    /**
+     * The command has been processed and the connection is being closed.
+     */
+    CLOSING
+}
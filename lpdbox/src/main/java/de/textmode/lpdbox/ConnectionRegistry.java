@@ -0,0 +1,165 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+/**
+ * The {@link ConnectionRegistry} keeps track of all client connections that are currently
+ * handled (or waiting to be handled) by the {@link LinePrinterDaemon}.
+ */
+final class ConnectionRegistry implements LinePrinterDaemonConnectionsMXBean {
+
+    private static final String[] ITEM_NAMES = new String[] {
+        "id", "client", "startTime", "commandCode", "queueName", "phase", "bytesReceived", "bytesPerSecond",
+    };
+
+    private static final String[] ITEM_DESCRIPTIONS = new String[] {
+        "Unique id of the connection",
+        "Address of the client",
+        "Time the connection has been accepted (milliseconds since the epoch)",
+        "Command code sent by the client (-1 if not known yet)",
+        "Queue name sent by the client",
+        "Current phase of the connection",
+        "Bytes received from the client so far",
+        "Current receive rate in bytes per second",
+    };
+
+    private static final OpenType<?>[] ITEM_TYPES = new OpenType<?>[] {
+        SimpleType.LONG,
+        SimpleType.STRING,
+        SimpleType.LONG,
+        SimpleType.INTEGER,
+        SimpleType.STRING,
+        SimpleType.STRING,
+        SimpleType.LONG,
+        SimpleType.LONG,
+    };
+
+    private final ConcurrentMap<Long, ConnectionEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    /**
+     * Creates and registers a {@link ConnectionEntry} for the given {@link TransportConnection}.
+     */
+    ConnectionEntry register(final TransportConnection connection) {
+        final ConnectionEntry entry = new ConnectionEntry(this.nextId.incrementAndGet(), connection);
+        this.entries.put(entry.getId(), entry);
+        return entry;
+    }
+
+    /**
+     * Removes the given {@link ConnectionEntry} from the registry.
+     */
+    void unregister(final ConnectionEntry entry) {
+        this.entries.remove(entry.getId());
+    }
+
+    /**
+     * Returns a (weakly consistent) view of all registered {@link ConnectionEntry} objects.
+     */
+    Collection<ConnectionEntry> getEntries() {
+        return this.entries.values();
+    }
+
+    /**
+     * Returns a snapshot of all registered connections, sorted by their id.
+     */
+    List<ConnectionInfo> snapshot() {
+        final ArrayList<ConnectionInfo> result = new ArrayList<>(this.entries.size());
+        for (final ConnectionEntry entry : this.entries.values()) {
+            result.add(entry.snapshot());
+        }
+
+        Collections.sort(result, new Comparator<ConnectionInfo>() {
+            @Override
+            public int compare(final ConnectionInfo o1, final ConnectionInfo o2) {
+                return Long.compare(o1.getId(), o2.getId());
+            }
+        });
+
+        return result;
+    }
+
+    @Override
+    public int getConnectionCount() {
+        return this.entries.size();
+    }
+
+    @Override
+    public TabularData getConnections() {
+        try {
+            final CompositeType rowType = new CompositeType(
+                    "Connection",
+                    "A client connection of the line printer daemon",
+                    ITEM_NAMES,
+                    ITEM_DESCRIPTIONS,
+                    ITEM_TYPES);
+
+            final TabularDataSupport result = new TabularDataSupport(new TabularType(
+                    "Connections",
+                    "Client connections of the line printer daemon",
+                    rowType,
+                    new String[] {"id"}));
+
+            for (final ConnectionInfo info : this.snapshot()) {
+                result.put(new CompositeDataSupport(rowType, ITEM_NAMES, new Object[] {
+                    info.getId(),
+                    info.getClient(),
+                    info.getStartTime(),
+                    info.getCommandCode(),
+                    info.getQueueName() == null ? "" : info.getQueueName(),
+                    info.getPhase().name(),
+                    info.getBytesReceived(),
+                    info.getBytesPerSecond(),
+                }));
+            }
+
+            return result;
+        } catch (final OpenDataException e) {
+            // Can only happen if the types above do not match the values...
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean abortConnection(final long id) {
+        final ConnectionEntry entry = this.entries.get(id);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.abort();
+        return true;
+    }
+}
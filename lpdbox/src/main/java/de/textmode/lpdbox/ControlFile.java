@@ -0,0 +1,180 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link ControlFile} is the parsed content of a control file as specified by RFC 1179. Use the
+ * {@link ControlFileParser} to parse the control file within your
+ * {@link DaemonCommandHandler#receiveControlFile(java.io.InputStream, int, String)}.
+ */
+public final class ControlFile {
+
+    private String host;
+    private String user;
+    private String jobName;
+    private String bannerClass;
+    private String bannerUser;
+    private String mailUser;
+
+    private final List<PrintDirective> printDirectives = new ArrayList<>();
+    private final List<String> unlinkFileNames = new ArrayList<>();
+
+    /**
+     * Constructor.
+     */
+    ControlFile() {
+    }
+
+    /**
+     * Returns the name of the host the printer job has been sent from ("H" line) or <code>null</code>.
+     */
+    public String getHost() {
+        return this.host;
+    }
+
+    /**
+     * Sets the name of the host.
+     */
+    void setHost(final String value) {
+        this.host = value;
+    }
+
+    /**
+     * Returns the user identification ("P" line) or <code>null</code>.
+     */
+    public String getUser() {
+        return this.user;
+    }
+
+    /**
+     * Sets the user identification.
+     */
+    void setUser(final String value) {
+        this.user = value;
+    }
+
+    /**
+     * Returns the job name for the banner page ("J" line) or <code>null</code>.
+     */
+    public String getJobName() {
+        return this.jobName;
+    }
+
+    /**
+     * Sets the job name.
+     */
+    void setJobName(final String value) {
+        this.jobName = value;
+    }
+
+    /**
+     * Returns the class for the banner page ("C" line) or <code>null</code>.
+     */
+    public String getBannerClass() {
+        return this.bannerClass;
+    }
+
+    /**
+     * Sets the class for the banner page.
+     */
+    void setBannerClass(final String value) {
+        this.bannerClass = value;
+    }
+
+    /**
+     * Returns the user name to print on the banner page ("L" line) or <code>null</code> if no
+     * banner page has been requested.
+     */
+    public String getBannerUser() {
+        return this.bannerUser;
+    }
+
+    /**
+     * Sets the user name to print on the banner page.
+     */
+    void setBannerUser(final String value) {
+        this.bannerUser = value;
+    }
+
+    /**
+     * Returns <code>true</code> if a banner page has been requested ("L" line).
+     */
+    public boolean isBannerRequested() {
+        return this.bannerUser != null;
+    }
+
+    /**
+     * Returns the user to send a mail to when the printer job has been printed ("M" line) or
+     * <code>null</code>.
+     */
+    public String getMailUser() {
+        return this.mailUser;
+    }
+
+    /**
+     * Sets the user to send a mail to.
+     */
+    void setMailUser(final String value) {
+        this.mailUser = value;
+    }
+
+    /**
+     * Returns the {@link PrintDirective}s in the order they appear in the control file.
+     */
+    public List<PrintDirective> getPrintDirectives() {
+        return Collections.unmodifiableList(this.printDirectives);
+    }
+
+    /**
+     * Adds a {@link PrintDirective}.
+     */
+    void addPrintDirective(final PrintDirective directive) {
+        this.printDirectives.add(directive);
+    }
+
+    /**
+     * Returns the names of the data files to print (without duplicates) in the order they appear
+     * in the control file.
+     */
+    public List<String> getDataFileNames() {
+        final Set<String> result = new LinkedHashSet<>();
+        for (final PrintDirective directive : this.printDirectives) {
+            result.add(directive.getFileName());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Returns the names of the data files to remove after printing ("U" lines).
+     */
+    public List<String> getUnlinkFileNames() {
+        return Collections.unmodifiableList(this.unlinkFileNames);
+    }
+
+    /**
+     * Adds the name of a data file to remove after printing.
+     */
+    void addUnlinkFileName(final String value) {
+        this.unlinkFileNames.add(value);
+    }
+}
@@ -0,0 +1,252 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@link ControlFileParser} parses a control file as specified by RFC 1179 into a {@link ControlFile}.
+ * The control file is parsed in one pass while it is read from the {@link InputStream}, so it can be used
+ * within {@link DaemonCommandHandler#receiveControlFile(InputStream, int, String)}. Lines with unknown
+ * or unused commands (i. e. "S" or the troff fonts) are skipped without being buffered.
+ */
+public final class ControlFileParser {
+
+    /**
+     * Maximum length of a line of the control file.
+     */
+    static final int MAX_LINE_LENGTH = 65536;
+
+    private static final int LINE_FEED = 0x0A;
+    private static final int CARRIAGE_RETURN = 0x0D;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int INITIAL_LINE_SIZE = 128;
+    private static final int MAX_NUMBER_LENGTH = 9;
+
+    /**
+     * The commands of the lines that request to print a data file.
+     */
+    private static final String PRINT_COMMANDS = "cdfglnoprtv";
+
+    /**
+     * The commands of the lines that are parsed (all others are skipped).
+     */
+    private static final String KNOWN_COMMANDS = "HPJCLMNTUIW" + PRINT_COMMANDS;
+
+    private final ControlFile controlFile = new ControlFile();
+
+    private byte[] line = new byte[INITIAL_LINE_SIZE];
+    private int lineLength;
+    private int command = -1;
+    private boolean isSkipping;
+
+    private String title;
+    private int indent;
+    private int width = -1;
+    private String pendingSourceFileName;
+
+    /**
+     * Constructor.
+     */
+    private ControlFileParser() {
+    }
+
+    /**
+     * Reads exactly <code>fileLength</code> bytes from the given {@link InputStream} and returns the
+     * parsed {@link ControlFile}. Throws an {@link IOException} if the stream ends prematurely or if a
+     * line is longer than 64 KiB.
+     */
+    public static ControlFile parse(final InputStream is, final int fileLength) throws IOException {
+        final ControlFileParser parser = new ControlFileParser();
+        final byte[] buffer = new byte[Math.max(1, Math.min(BUFFER_SIZE, fileLength))];
+
+        int remaining = fileLength;
+        while (remaining > 0) {
+            final int read = is.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException(Util.ERROR_END_OF_STREAM);
+            }
+
+            parser.process(buffer, read);
+            remaining -= read;
+        }
+
+        // The last line might not be terminated by a line feed...
+        parser.endLine();
+        return parser.controlFile;
+    }
+
+    /**
+     * Parses the given content of a control file.
+     */
+    public static ControlFile parse(final byte[] content) throws IOException {
+        return parse(new ByteArrayInputStream(content), content.length);
+    }
+
+    /**
+     * Processes the given number of bytes of the buffer.
+     */
+    private void process(final byte[] buffer, final int length) throws IOException {
+        for (int ix = 0; ix < length; ++ix) {
+            final int value = buffer[ix] & 0xFF;
+            if (value == LINE_FEED) {
+                this.endLine();
+            } else if (this.command == -1) {
+                this.command = value;
+                this.isSkipping = KNOWN_COMMANDS.indexOf(value) == -1;
+            } else if (!this.isSkipping) {
+                this.append(buffer[ix]);
+            }
+        }
+    }
+
+    /**
+     * Appends a byte to the current line.
+     */
+    private void append(final byte value) throws IOException {
+        if (this.lineLength == this.line.length) {
+            if (this.lineLength >= MAX_LINE_LENGTH) {
+                throw new IOException("A line of the control file exceeds the maximum length of "
+                        + MAX_LINE_LENGTH + " bytes");
+            }
+            this.line = Arrays.copyOf(this.line, this.line.length * 2);
+        }
+        this.line[this.lineLength++] = value;
+    }
+
+    /**
+     * Returns the operand of the current line.
+     */
+    private String getOperand() {
+        int length = this.lineLength;
+        if (length > 0 && this.line[length - 1] == CARRIAGE_RETURN) {
+            --length;
+        }
+        return new String(this.line, 0, length, Util.ISO_8859_1);
+    }
+
+    /**
+     * Returns the operand of the current line as a number or the given default value if the operand
+     * is not a valid number.
+     */
+    private int getNumber(final int defaultValue) {
+        final String operand = this.getOperand();
+        if (operand.isEmpty() || operand.length() > MAX_NUMBER_LENGTH) {
+            return defaultValue;
+        }
+
+        int result = 0;
+        for (int ix = 0; ix < operand.length(); ++ix) {
+            final char digit = operand.charAt(ix);
+            if (digit < '0' || digit > '9') {
+                return defaultValue;
+            }
+            result = result * 10 + digit - '0';
+        }
+        return result;
+    }
+
+    /**
+     * Handles the end of a line.
+     */
+    private void endLine() {
+        if (this.command != -1 && !this.isSkipping) {
+            this.handleLine((char) this.command);
+        }
+
+        this.command = -1;
+        this.lineLength = 0;
+    }
+
+    /**
+     * Handles a line with a known command.
+     */
+    private void handleLine(final char lineCommand) {
+        switch (lineCommand) {
+        case 'H':
+            this.controlFile.setHost(this.getOperand());
+            break;
+        case 'P':
+            this.controlFile.setUser(this.getOperand());
+            break;
+        case 'J':
+            this.controlFile.setJobName(this.getOperand());
+            break;
+        case 'C':
+            this.controlFile.setBannerClass(this.getOperand());
+            break;
+        case 'L':
+            this.controlFile.setBannerUser(this.getOperand());
+            break;
+        case 'M':
+            this.controlFile.setMailUser(this.getOperand());
+            break;
+        case 'N':
+            this.handleSourceFileName(this.getOperand());
+            break;
+        case 'T':
+            this.title = this.getOperand();
+            break;
+        case 'U':
+            this.controlFile.addUnlinkFileName(this.getOperand());
+            break;
+        case 'I':
+            this.indent = this.getNumber(this.indent);
+            break;
+        case 'W':
+            this.width = this.getNumber(this.width);
+            break;
+        default:
+            final PrintDirective directive =
+                    new PrintDirective(lineCommand, this.getOperand(), this.title, this.indent, this.width);
+
+            directive.setSourceFileName(this.pendingSourceFileName);
+            this.pendingSourceFileName = null;
+            this.controlFile.addPrintDirective(directive);
+            break;
+        }
+    }
+
+    /**
+     * Handles a "N" line. BSD lpr and LPRng send the "N" line after the print directives of a data
+     * file, whereas other clients send it before. So the name is assigned to the preceding print
+     * directives of the same data file or, if there are none, to the next print directive.
+     */
+    private void handleSourceFileName(final String value) {
+        final List<PrintDirective> directives = this.controlFile.getPrintDirectives();
+        boolean isAssigned = false;
+
+        for (int ix = directives.size() - 1; ix >= 0; --ix) {
+            final PrintDirective directive = directives.get(ix);
+            if (directive.getSourceFileName() != null
+                    || !directive.getFileName().equals(directives.get(directives.size() - 1).getFileName())) {
+                break;
+            }
+
+            directive.setSourceFileName(value);
+            isAssigned = true;
+        }
+
+        if (!isAssigned) {
+            this.pendingSourceFileName = value;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link CountingInputStream} counts the bytes read from the underlying {@link InputStream}.
+ * The counter is written by the thread that reads from the stream only, but may be read
+ * from any thread.
+ */
+final class CountingInputStream extends FilterInputStream {
+
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Constructor.
+     */
+    CountingInputStream(final InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Returns the number of bytes read so far.
+     */
+    long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Adds the given number of bytes to the counter. Because there is only one writer, a cheap
+     * ordered write is sufficient.
+     */
+    private void add(final long bytes) {
+        this.count.lazySet(this.count.get() + bytes);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int result = this.in.read();
+        if (result != -1) {
+            this.add(1);
+        }
+        return result;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int result = this.in.read(b, off, len);
+        if (result > 0) {
+            this.add(result);
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long result = this.in.skip(n);
+        if (result > 0) {
+            this.add(result);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
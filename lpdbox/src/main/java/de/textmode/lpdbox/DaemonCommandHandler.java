@@ -28,6 +28,15 @@ import java.util.List;
  */
 public interface DaemonCommandHandler extends Closeable {
 
+    /**
+     * The file length passed to {@link #isDataFileAcceptable(long, String)} and
+     * {@link #receiveDataFile(InputStream, long, String)} if the client announced a data file of
+     * unknown length (see {@link LinePrinterDaemonBuilder#unknownLengthDataFiles(boolean)}). The
+     * data file ends when the client closes the connection, so the handler has to read the
+     * {@link InputStream} until its end.
+     */
+    long UNKNOWN_FILE_LENGTH = -1L;
+
     /**
      * Handles the daemon command "Print any waiting jobs".
      */
@@ -99,4 +108,29 @@ public interface DaemonCommandHandler extends Closeable {
      * returned. Note that every line of the textual description must end with an line feed.
      */
     String sendQueueStateShort(final String queueName, final List<String> jobs) throws IOException;
+
+    /**
+     * Handles the daemon command "Send queue state (long)" by appending the textual description
+     * of the print queue to the given {@link Appendable}, which sends it to the client while it is
+     * written. Override this method if your queues are long, so the description does not have to
+     * be built as a whole in memory. By default the result of {@link #sendQueueStateLong(String, List)}
+     * is appended.
+     */
+    default void sendQueueStateLong(final String queueName, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        out.append(this.sendQueueStateLong(queueName, jobs));
+    }
+
+    /**
+     * Handles the daemon command "Send queue state (short)" by appending the textual description
+     * of the print queue to the given {@link Appendable}. See
+     * {@link #sendQueueStateLong(String, List, Appendable)}. By default the result of
+     * {@link #sendQueueStateShort(String, List)} is appended.
+     */
+    default void sendQueueStateShort(final String queueName, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        out.append(this.sendQueueStateShort(queueName, jobs));
+    }
 }
@@ -0,0 +1,104 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link DiskSpaceReservation} keeps track of the disk space on the spool volume that has been
+ * promised to data files currently being received. Before a data file is acknowledged positively,
+ * its declared length is reserved. The reservation fails if the usable space of the spool volume
+ * minus all outstanding reservations would fall below the configured minimum, so a full disk is
+ * detected before the client streams the file. While the file is received, its reservation is released
+ * as its bytes are passed on, because the bytes written reduce the usable space themselves. The
+ * reservations are tracked lock free, so all connections can share a single {@link DiskSpaceReservation}.
+ */
+final class DiskSpaceReservation {
+
+    private final Path spoolDirectory;
+    private final long minFreeSpace;
+    private final AtomicLong reserved = new AtomicLong();
+
+    private volatile FileStore fileStore;
+
+    /**
+     * Constructor.
+     *
+     * @param spoolDirectory    a directory on the spool volume
+     * @param minFreeSpace      number of bytes that must remain free on the spool volume
+     */
+    DiskSpaceReservation(final Path spoolDirectory, final long minFreeSpace) {
+        this.spoolDirectory = spoolDirectory;
+        this.minFreeSpace = minFreeSpace;
+    }
+
+    /**
+     * Returns the {@link FileStore} of the spool volume.
+     */
+    private FileStore getFileStore() throws IOException {
+        FileStore store = this.fileStore;
+        if (store == null) {
+            store = Files.getFileStore(this.spoolDirectory);
+            this.fileStore = store;
+        }
+        return store;
+    }
+
+    /**
+     * Returns the usable space (in bytes) of the spool volume.
+     */
+    long getUsableSpace() throws IOException {
+        return this.getFileStore().getUsableSpace();
+    }
+
+    /**
+     * Reserves the given number of bytes. Returns <code>false</code> if there is not enough room
+     * on the spool volume.
+     */
+    boolean reserve(final long bytes) throws IOException {
+        final long usable = this.getUsableSpace();
+        while (true) {
+            final long current = this.reserved.get();
+            if (usable - current - bytes < this.minFreeSpace) {
+                return false;
+            }
+            if (this.reserved.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases the given number of bytes that have been reserved before.
+     */
+    void release(final long bytes) {
+        if (bytes > 0) {
+            this.reserved.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently reserved.
+     */
+    long getReserved() {
+        return this.reserved.get();
+    }
+}
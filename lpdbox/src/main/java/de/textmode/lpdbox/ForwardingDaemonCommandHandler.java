@@ -0,0 +1,123 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The {@link ForwardingDaemonCommandHandler} forwards all calls to another {@link DaemonCommandHandler},
+ * except {@link #close()} which is up to the concrete implementation. Subclasses override only the calls
+ * they change.
+ */
+abstract class ForwardingDaemonCommandHandler implements DaemonCommandHandler {
+
+    private final DaemonCommandHandler handler;
+
+    /**
+     * Constructor.
+     */
+    ForwardingDaemonCommandHandler(final DaemonCommandHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the {@link DaemonCommandHandler} all calls are forwarded to.
+     */
+    final DaemonCommandHandler getDelegate() {
+        return this.handler;
+    }
+
+    @Override
+    public void printJobs(final String queueName) throws IOException {
+        this.handler.printJobs(queueName);
+    }
+
+    @Override
+    public boolean startPrinterJob(final String queueName) throws IOException {
+        return this.handler.startPrinterJob(queueName);
+    }
+
+    @Override
+    public boolean isControlFileAcceptable(final int fileLength, final String fileName) throws IOException {
+        return this.handler.isControlFileAcceptable(fileLength, fileName);
+    }
+
+    @Override
+    public void receiveControlFile(final InputStream is, final int fileLength, final String fileName)
+            throws IOException {
+
+        this.handler.receiveControlFile(is, fileLength, fileName);
+    }
+
+    @Override
+    public boolean isDataFileAcceptable(final long fileLength, final String fileName) throws IOException {
+        return this.handler.isDataFileAcceptable(fileLength, fileName);
+    }
+
+    @Override
+    public void receiveDataFile(final InputStream is, final long fileLength, final String fileName)
+            throws IOException {
+
+        this.handler.receiveDataFile(is, fileLength, fileName);
+    }
+
+    @Override
+    public void abortPrinterJob() throws IOException {
+        this.handler.abortPrinterJob();
+    }
+
+    @Override
+    public void endPrinterJob() throws IOException {
+        this.handler.endPrinterJob();
+    }
+
+    @Override
+    public void removeJobs(final String queueName, final String agent, final List<String> jobs)
+            throws IOException {
+
+        this.handler.removeJobs(queueName, agent, jobs);
+    }
+
+    @Override
+    public String sendQueueStateLong(final String queueName, final List<String> jobs) throws IOException {
+        return this.handler.sendQueueStateLong(queueName, jobs);
+    }
+
+    @Override
+    public String sendQueueStateShort(final String queueName, final List<String> jobs) throws IOException {
+        return this.handler.sendQueueStateShort(queueName, jobs);
+    }
+
+    @Override
+    public void sendQueueStateLong(final String queueName, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        this.handler.sendQueueStateLong(queueName, jobs, out);
+    }
+
+    @Override
+    public void sendQueueStateShort(final String queueName, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        this.handler.sendQueueStateShort(queueName, jobs, out);
+    }
+
+    @Override
+    public abstract void close() throws IOException;
+}
@@ -0,0 +1,150 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+/**
+ * The {@link HandlerWatchdog} periodically checks how long the registered connections are inside
+ * a call to their {@link DaemonCommandHandler}. If a call takes longer than the threshold, the
+ * stack trace of the thread is captured and reported. Optionally the thread gets interrupted
+ * and the connection (and so the printer job) gets aborted.
+ */
+final class HandlerWatchdog implements Runnable {
+
+    private static final long MIN_CHECK_INTERVAL = 10L;
+    private static final long MAX_CHECK_INTERVAL = 1000L;
+
+    private final Logger logger;
+    private final ConnectionRegistry registry;
+    private final long thresholdInNanos;
+    private final long checkIntervalInMillis;
+    private final boolean interruptStuckHandlers;
+    private final StuckHandlerListener listener;
+
+    private volatile boolean isStopRequested;
+
+    /**
+     * Constructor.
+     */
+    HandlerWatchdog(
+            final Logger logger,
+            final ConnectionRegistry registry,
+            final long thresholdInMillis,
+            final boolean interruptStuckHandlers,
+            final StuckHandlerListener listener) {
+
+        this.logger = logger;
+        this.registry = registry;
+        this.thresholdInNanos = TimeUnit.MILLISECONDS.toNanos(thresholdInMillis);
+        this.checkIntervalInMillis = Math.max(MIN_CHECK_INTERVAL, Math.min(thresholdInMillis / 2, MAX_CHECK_INTERVAL));
+        this.interruptStuckHandlers = interruptStuckHandlers;
+        this.listener = listener;
+    }
+
+    /**
+     * Checks the registered connections until {@link #stop()} gets called.
+     */
+    @Override
+    public void run() {
+        while (!this.isStopRequested) {
+            try {
+                this.check(System.nanoTime());
+                Thread.sleep(this.checkIntervalInMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final RuntimeException e) {
+                this.logger.error("The handler watchdog failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Requests the {@link HandlerWatchdog} to stop.
+     */
+    void stop() {
+        this.isStopRequested = true;
+    }
+
+    /**
+     * Checks all registered connections once.
+     */
+    void check(final long now) {
+        for (final ConnectionEntry entry : this.registry.getEntries()) {
+            entry.refreshProgress(now);
+
+            // Read first, so a call that returns while being checked is not interrupted below...
+            final long callId = entry.getHandlerCallId();
+            final Thread thread = entry.getHandlerThread();
+            final String method = entry.getHandlerMethod();
+            final long duration = now - entry.getHandlerCallStart();
+
+            if (thread == null || method == null || duration < this.thresholdInNanos || !entry.markStuckReported()) {
+                continue;
+            }
+
+            final long durationInMillis = TimeUnit.NANOSECONDS.toMillis(duration);
+            final StackTraceElement[] stackTrace = thread.getStackTrace();
+            final ConnectionInfo info = entry.peek();
+
+            this.logger.warn(this.describe(info, method, durationInMillis, stackTrace));
+
+            if (this.listener != null) {
+                try {
+                    this.listener.stuckHandlerDetected(info, method, durationInMillis, stackTrace);
+                } catch (final RuntimeException e) {
+                    this.logger.error("The stuck handler listener failed: " + e.getMessage());
+                }
+            }
+
+            if (this.interruptStuckHandlers) {
+                if (entry.interruptHandlerCall(callId)) {
+                    this.logger.warn(
+                            "Interrupted thread " + thread.getName() + " and aborted connection " + info.getId());
+                } else {
+                    this.logger.debug("The call of DaemonCommandHandler." + method + " for connection "
+                            + info.getId() + " has returned before it could be interrupted");
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the log message for a stuck handler call.
+     */
+    private String describe(
+            final ConnectionInfo info,
+            final String method,
+            final long durationInMillis,
+            final StackTraceElement[] stackTrace) {
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("The call of DaemonCommandHandler.").append(method)
+            .append(" for connection ").append(info.getId())
+            .append(" from ").append(info.getClient())
+            .append(" is running for ").append(durationInMillis).append(" ms:");
+
+        for (final StackTraceElement element : stackTrace) {
+            sb.append(System.lineSeparator()).append("\tat ").append(element);
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * One side of a connection created by {@link InMemoryTransport#connect()}. The client side is
+ * returned to the caller of {@link InMemoryTransport#connect()}, the server side is returned by
+ * {@link InMemoryTransport#accept()}.
+ */
+public final class InMemoryConnection implements TransportConnection {
+
+    private final InMemoryPipe in;
+    private final InMemoryPipe out;
+    private final String client;
+
+    /**
+     * Constructor.
+     */
+    InMemoryConnection(final InMemoryPipe in, final InMemoryPipe out, final String client) {
+        this.in = in;
+        this.out = out;
+        this.client = client;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.in.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.out.getOutputStream();
+    }
+
+    @Override
+    public String getClient() {
+        return this.client;
+    }
+
+    /**
+     * Closes the sending direction only (like a TCP half-close). The peer reads the remaining
+     * bytes and then the end of the stream, but this side can still read.
+     */
+    public void shutdownOutput() {
+        this.out.closeWrite();
+    }
+
+    /**
+     * Simulates a lost connection. All pending and further reads and writes of both sides fail.
+     */
+    public void disconnect() {
+        this.in.reset();
+        this.out.reset();
+    }
+
+    /**
+     * Closes the connection gracefully. The peer reads the remaining bytes and then the end of
+     * the stream. Further writes of the peer fail.
+     */
+    @Override
+    public void close() {
+        this.out.closeWrite();
+        this.in.closeRead();
+    }
+}
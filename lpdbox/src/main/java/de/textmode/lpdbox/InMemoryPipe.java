@@ -0,0 +1,327 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@link InMemoryPipe} is a bounded, unidirectional byte pipe between two threads. Unlike
+ * {@link java.io.PipedInputStream} it does not poll, supports a simulated latency, a maximum
+ * number of bytes returned per read (chunking) and an abrupt reset (disconnect).
+ */
+final class InMemoryPipe {
+
+    private static final String ERROR_RESET = "Connection reset";
+    private static final String ERROR_CLOSED = "Broken pipe";
+
+    private final byte[] buffer;
+    private final long latencyInNanos;
+    private final int chunkSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Condition notFull = this.lock.newCondition();
+
+    private int readPos;
+    private int count;
+    private boolean isWriteClosed;
+    private boolean isReadClosed;
+    private boolean isReset;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            return InMemoryPipe.this.read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return InMemoryPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return InMemoryPipe.this.available();
+        }
+
+        @Override
+        public void close() {
+            InMemoryPipe.this.closeRead();
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(final int b) throws IOException {
+            InMemoryPipe.this.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            InMemoryPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            InMemoryPipe.this.closeWrite();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param capacity number of bytes the pipe can hold before the writer blocks
+     * @param latencyInNanos time every write is delayed before the bytes become readable
+     * @param chunkSize maximum number of bytes returned by a single read
+     */
+    InMemoryPipe(final int capacity, final long latencyInNanos, final int chunkSize) {
+        this.buffer = new byte[capacity];
+        this.latencyInNanos = latencyInNanos;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the {@link InputStream} of the reading side.
+     */
+    InputStream getInputStream() {
+        return this.inputStream;
+    }
+
+    /**
+     * Returns the {@link OutputStream} of the writing side.
+     */
+    OutputStream getOutputStream() {
+        return this.outputStream;
+    }
+
+    /**
+     * Waits until at least one byte is available. Returns <code>false</code> if the writing side
+     * has been closed and all bytes have been read. Must be called while holding the lock.
+     */
+    private boolean awaitData() throws IOException {
+        try {
+            while (this.count == 0) {
+                if (this.isReset || this.isReadClosed) {
+                    throw new IOException(this.isReset ? ERROR_RESET : ERROR_CLOSED);
+                }
+                if (this.isWriteClosed) {
+                    return false;
+                }
+                this.notEmpty.await();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading");
+        }
+
+        if (this.isReset) {
+            throw new IOException(ERROR_RESET);
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads a single byte. Blocks until the byte is available, the writing side has been
+     * closed (returns -1) or the pipe has been reset.
+     */
+    private int read() throws IOException {
+        this.lock.lock();
+        try {
+            if (!this.awaitData()) {
+                return -1;
+            }
+
+            final int result = this.buffer[this.readPos] & 0xFF;
+            this.readPos = (this.readPos + 1) % this.buffer.length;
+            --this.count;
+            this.notFull.signalAll();
+
+            return result;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Reads up to the given number of bytes. Blocks until at least one byte is available,
+     * the writing side has been closed (returns -1) or the pipe has been reset.
+     */
+    private int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        this.lock.lock();
+        try {
+            if (!this.awaitData()) {
+                return -1;
+            }
+
+            final int toRead = Math.min(Math.min(len, this.count), this.chunkSize);
+            final int first = Math.min(toRead, this.buffer.length - this.readPos);
+            System.arraycopy(this.buffer, this.readPos, b, off, first);
+            System.arraycopy(this.buffer, 0, b, off + first, toRead - first);
+
+            this.readPos = (this.readPos + toRead) % this.buffer.length;
+            this.count -= toRead;
+            this.notFull.signalAll();
+
+            return toRead;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Delays the writer by the configured latency.
+     */
+    private void delay() throws IOException {
+        if (this.latencyInNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(this.latencyInNanos);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing");
+            }
+        }
+    }
+
+    /**
+     * Waits until there is space for at least one byte. Must be called while holding the lock.
+     */
+    private void awaitSpace() throws IOException {
+        try {
+            while (true) {
+                if (this.isReset || this.isReadClosed || this.isWriteClosed) {
+                    throw new IOException(this.isReset ? ERROR_RESET : ERROR_CLOSED);
+                }
+                if (this.count < this.buffer.length) {
+                    return;
+                }
+                this.notFull.await();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing");
+        }
+    }
+
+    /**
+     * Writes a single byte. Blocks while the pipe is full.
+     */
+    private void write(final int b) throws IOException {
+        this.delay();
+
+        this.lock.lock();
+        try {
+            this.awaitSpace();
+            this.buffer[(this.readPos + this.count) % this.buffer.length] = (byte) b;
+            ++this.count;
+            this.notEmpty.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the given bytes. Blocks while the pipe is full.
+     */
+    private void write(final byte[] b, final int off, final int len) throws IOException {
+        this.delay();
+
+        int written = 0;
+        this.lock.lock();
+        try {
+            while (written < len) {
+                this.awaitSpace();
+
+                final int writePos = (this.readPos + this.count) % this.buffer.length;
+                final int toWrite = Math.min(len - written,
+                        Math.min(this.buffer.length - this.count, this.buffer.length - writePos));
+
+                System.arraycopy(b, off + written, this.buffer, writePos, toWrite);
+                this.count += toWrite;
+                written += toWrite;
+                this.notEmpty.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes that can be read without blocking.
+     */
+    private int available() {
+        this.lock.lock();
+        try {
+            return Math.min(this.count, this.chunkSize);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the writing side. The reader reads the remaining bytes and then the end of the stream.
+     */
+    void closeWrite() {
+        this.lock.lock();
+        try {
+            this.isWriteClosed = true;
+            this.notEmpty.signalAll();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the reading side. Further writes fail.
+     */
+    void closeRead() {
+        this.lock.lock();
+        try {
+            this.isReadClosed = true;
+            this.count = 0;
+            this.notEmpty.signalAll();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Resets the pipe (simulates a lost connection). All pending and further reads and writes fail.
+     */
+    void reset() {
+        this.lock.lock();
+        try {
+            this.isReset = true;
+            this.notEmpty.signalAll();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
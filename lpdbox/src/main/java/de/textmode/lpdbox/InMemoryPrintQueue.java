@@ -0,0 +1,374 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link InMemoryPrintQueue} holds the printer jobs of a queue of the {@link InMemoryPrintQueueFactory}.
+ * The printer jobs are kept in the order of their job numbers and are indexed by their user, so removing
+ * printer jobs by number or user does not require a scan of the queue. All methods are thread safe
+ * without locking the whole queue.
+ */
+final class InMemoryPrintQueue {
+
+    /**
+     * The user that may remove all printer jobs.
+     */
+    static final String SUPER_USER = "root";
+
+    /**
+     * The queue state of an empty queue.
+     */
+    static final String NO_ENTRIES = "no entries\n";
+
+    private static final String HEADER_SHORT =
+            "Rank   Owner      Job  Files                                 Total Size\n";
+
+    private static final int WIDTH_RANK = 7;
+    private static final int WIDTH_OWNER = 11;
+    private static final int WIDTH_JOB = 5;
+    private static final int WIDTH_FILES = 38;
+    private static final int WIDTH_LONG_HEADER = 41;
+    private static final int WIDTH_LONG_FILE = 35;
+    private static final int INDENT_LONG_FILE = 8;
+
+    private final AtomicLong nextJobNumber = new AtomicLong(1);
+    private final ConcurrentSkipListMap<Long, QueuedJob> jobs = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, NavigableSet<Long>> jobsByUser = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the {@link ReceivedJob} to the end of the queue and returns its job number.
+     */
+    long add(final ReceivedJob job) {
+        final long number = this.nextJobNumber.getAndIncrement();
+        final QueuedJob queued = new QueuedJob(number, job);
+
+        NavigableSet<Long> numbers = this.jobsByUser.get(queued.user);
+        if (numbers == null) {
+            final NavigableSet<Long> created = new ConcurrentSkipListSet<>();
+            final NavigableSet<Long> existing = this.jobsByUser.putIfAbsent(queued.user, created);
+            numbers = existing == null ? created : existing;
+        }
+
+        numbers.add(number);
+        this.jobs.put(number, queued);
+        return number;
+    }
+
+    /**
+     * Returns the number of printer jobs in the queue.
+     */
+    int size() {
+        return this.jobs.size();
+    }
+
+    /**
+     * Removes the first {@link ReceivedJob} of the queue and returns it (or <code>null</code> if the queue
+     * is empty). The caller takes the ownership of the {@link ReceivedJob}.
+     */
+    ReceivedJob poll() {
+        final Map.Entry<Long, QueuedJob> entry = this.jobs.pollFirstEntry();
+        if (entry == null) {
+            return null;
+        }
+
+        this.unindex(entry.getValue());
+        return entry.getValue().job;
+    }
+
+    /**
+     * Removes the printer job with the given number and returns it (or <code>null</code> if there is no
+     * such printer job). The caller takes the ownership of the {@link ReceivedJob}.
+     */
+    ReceivedJob remove(final long number) {
+        final QueuedJob queued = this.jobs.remove(number);
+        if (queued == null) {
+            return null;
+        }
+
+        this.unindex(queued);
+        return queued.job;
+    }
+
+    /**
+     * Removes the printer job from the index of its user.
+     */
+    private void unindex(final QueuedJob queued) {
+        final NavigableSet<Long> numbers = this.jobsByUser.get(queued.user);
+        if (numbers != null) {
+            numbers.remove(queued.number);
+        }
+    }
+
+    /**
+     * Removes the printer jobs as requested by the daemon command "Remove jobs" and returns them. The
+     * list contains user names and job numbers. If it is empty, all printer jobs of the agent are removed.
+     * Only the super user may remove printer jobs of other users.
+     */
+    List<ReceivedJob> remove(final String agent, final List<String> selection) {
+        final boolean isSuperUser = SUPER_USER.equals(agent);
+        final List<ReceivedJob> result = new ArrayList<>();
+
+        final List<String> users = new ArrayList<>();
+        final List<Long> numbers = new ArrayList<>();
+        parseSelection(selection.isEmpty() ? Collections.singletonList(agent) : selection, users, numbers);
+
+        for (final String user : users) {
+            if (!isSuperUser && !user.equals(agent)) {
+                continue;
+            }
+
+            final NavigableSet<Long> userJobs = this.jobsByUser.get(user);
+            if (userJobs != null) {
+                for (final Long number : new ArrayList<>(userJobs)) {
+                    this.removeTo(number, result);
+                }
+            }
+        }
+
+        for (final Long number : numbers) {
+            final QueuedJob queued = this.jobs.get(number);
+            if (queued != null && (isSuperUser || queued.user.equals(agent))) {
+                this.removeTo(number, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes the printer job with the given number and adds it to the given {@link List}.
+     */
+    private void removeTo(final long number, final List<ReceivedJob> result) {
+        final ReceivedJob job = this.remove(number);
+        if (job != null) {
+            result.add(job);
+        }
+    }
+
+    /**
+     * Splits the selection of the client into user names and job numbers.
+     */
+    private static void parseSelection(
+            final List<String> selection,
+            final Collection<String> users,
+            final Collection<Long> numbers) {
+
+        for (final String value : selection) {
+            if (isNumber(value)) {
+                numbers.add(Long.valueOf(value));
+            } else {
+                users.add(value);
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given value consists of (at most 18) digits.
+     */
+    private static boolean isNumber(final String value) {
+        if (value.isEmpty() || value.length() > 18) {
+            return false;
+        }
+        for (int ix = 0; ix < value.length(); ++ix) {
+            if (!Character.isDigit(value.charAt(ix))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders the queue state in the short format (one line per printer job).
+     */
+    void renderShort(final List<String> selection, final Appendable out) throws IOException {
+        this.render(selection, out, false);
+    }
+
+    /**
+     * Renders the queue state in the long format (a block per printer job that lists all files).
+     */
+    void renderLong(final List<String> selection, final Appendable out) throws IOException {
+        this.render(selection, out, true);
+    }
+
+    /**
+     * Renders the printer jobs selected by the client (all if the selection is empty). The printer
+     * jobs are appended one by one while the queue is traversed.
+     */
+    private void render(final List<String> selection, final Appendable out, final boolean isLong)
+            throws IOException {
+
+        final Set<String> users = new HashSet<>();
+        final Set<Long> numbers = new HashSet<>();
+        parseSelection(selection, users, numbers);
+
+        int rank = 0;
+        boolean isEmpty = true;
+        for (final QueuedJob queued : this.jobs.values()) {
+            ++rank;
+            if (!selection.isEmpty() && !users.contains(queued.user) && !numbers.contains(queued.number)) {
+                continue;
+            }
+
+            if (isLong) {
+                renderLong(queued, rank, out);
+            } else {
+                if (isEmpty) {
+                    out.append(HEADER_SHORT);
+                }
+                renderShort(queued, rank, out);
+            }
+            isEmpty = false;
+        }
+
+        if (isEmpty) {
+            out.append(NO_ENTRIES);
+        }
+    }
+
+    /**
+     * Renders a printer job in the short format.
+     */
+    private static void renderShort(final QueuedJob queued, final int rank, final Appendable out)
+            throws IOException {
+
+        pad(out, getRankText(rank), WIDTH_RANK);
+        pad(out, queued.user, WIDTH_OWNER);
+        pad(out, Long.toString(queued.number), WIDTH_JOB);
+        pad(out, queued.getFileNames(), WIDTH_FILES);
+        out.append(Long.toString(queued.totalSize)).append(" bytes\n");
+    }
+
+    /**
+     * Renders a printer job in the long format.
+     */
+    private static void renderLong(final QueuedJob queued, final int rank, final Appendable out)
+            throws IOException {
+
+        out.append('\n');
+        pad(out, queued.user + ": " + getRankText(rank), WIDTH_LONG_HEADER);
+        out.append("[job ").append(Long.toString(queued.number)).append(' ').append(queued.host).append("]\n");
+
+        for (final Map.Entry<String, Payload> entry : queued.job.getDataFiles().entrySet()) {
+            for (int ix = 0; ix < INDENT_LONG_FILE; ++ix) {
+                out.append(' ');
+            }
+            pad(out, getDisplayName(queued.job, entry.getKey()), WIDTH_LONG_FILE);
+            out.append(Long.toString(entry.getValue().getLength())).append(" bytes\n");
+        }
+    }
+
+    /**
+     * Appends the value (truncated if necessary) and pads it with blanks to the given width.
+     */
+    private static void pad(final Appendable out, final String value, final int width) throws IOException {
+        final int length = Math.min(value.length(), width - 1);
+        out.append(value, 0, length);
+        for (int ix = length; ix < width; ++ix) {
+            out.append(' ');
+        }
+    }
+
+    /**
+     * Returns the rank as text (i. e. "1st", "2nd", "3rd", "4th" or "11th").
+     */
+    static String getRankText(final int rank) {
+        final int lastTwo = rank % 100;
+        final int last = rank % 10;
+        if (lastTwo < 11 || lastTwo > 13) {
+            if (last == 1) {
+                return rank + "st";
+            } else if (last == 2) {
+                return rank + "nd";
+            } else if (last == 3) {
+                return rank + "rd";
+            }
+        }
+        return rank + "th";
+    }
+
+    /**
+     * Returns the name of the source file of the given data file or the name of the data file if the
+     * source file is not known.
+     */
+    private static String getDisplayName(final ReceivedJob job, final String dataFileName) {
+        for (final PrintDirective directive : job.getControlFile().getPrintDirectives()) {
+            if (directive.getFileName().equals(dataFileName) && directive.getSourceFileName() != null) {
+                return directive.getSourceFileName();
+            }
+        }
+        return dataFileName;
+    }
+
+    /**
+     * A printer job in the queue with the values needed to render the queue state.
+     */
+    private static final class QueuedJob {
+
+        private final long number;
+        private final ReceivedJob job;
+        private final String user;
+        private final String host;
+        private final long totalSize;
+
+        /**
+         * Constructor.
+         */
+        QueuedJob(final long number, final ReceivedJob job) {
+            this.number = number;
+            this.job = job;
+
+            final ControlFile controlFile = job.getControlFile();
+            this.user = controlFile.getUser() == null ? "" : controlFile.getUser();
+            this.host = controlFile.getHost() == null ? "" : controlFile.getHost();
+
+            long size = 0;
+            for (final Payload payload : job.getDataFiles().values()) {
+                size += payload.getLength();
+            }
+            this.totalSize = size;
+        }
+
+        /**
+         * Returns the names of the files of the printer job, separated by a comma.
+         */
+        String getFileNames() {
+            final StringBuilder sb = new StringBuilder();
+            for (final String fileName : this.job.getDataFiles().keySet()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(getDisplayName(this.job, fileName));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link InMemoryPrintQueueFactory} is a ready to use {@link DaemonCommandHandlerFactory} that keeps
+ * the received printer jobs in in-memory queues. The queues are created as soon as a printer job is sent
+ * to them. The files are received by a {@link JobAssemblerFactory} into the given {@link PayloadSink}, so
+ * large data files are kept in temporary files.
+ *
+ * <p>Every printer job gets a job number that is unique within its queue. The daemon commands "Send queue
+ * state" and "Remove jobs" select printer jobs by job number or user name (see the "P" line of the control
+ * file). Only the user "root" may remove printer jobs of other users. Your application takes the printer
+ * jobs out of the queues with {@link #poll(String)}; the daemon command "Print any waiting jobs" is
+ * ignored.</p>
+ *
+ * <p>The queues are lock-free: concurrent connections add, list and remove printer jobs without blocking
+ * each other, and removing a printer job by number or user does not scan the queue, so a queue may hold
+ * hundreds of thousands of printer jobs.</p>
+ */
+public final class InMemoryPrintQueueFactory implements DaemonCommandHandlerFactory, Closeable {
+
+    private final ConcurrentHashMap<String, InMemoryPrintQueue> queues = new ConcurrentHashMap<>();
+    private final JobAssemblerFactory assemblerFactory;
+
+    /**
+     * Constructor.
+     */
+    public InMemoryPrintQueueFactory(final PayloadSink sink) {
+        final InMemoryPrintQueueHandler handler = new InMemoryPrintQueueHandler(this);
+        this.assemblerFactory = new JobAssemblerFactoryBuilder(
+                new DaemonCommandHandlerFactory() {
+                    @Override
+                    public DaemonCommandHandler create() {
+                        return handler;
+                    }
+                },
+                sink)
+                .listener(handler)
+                .build();
+    }
+
+    @Override
+    public DaemonCommandHandler create() {
+        return this.assemblerFactory.create();
+    }
+
+    /**
+     * Returns the queue with the given name, which is created if necessary.
+     */
+    InMemoryPrintQueue getQueue(final String queueName) {
+        InMemoryPrintQueue queue = this.queues.get(queueName);
+        if (queue == null) {
+            final InMemoryPrintQueue created = new InMemoryPrintQueue();
+            final InMemoryPrintQueue existing = this.queues.putIfAbsent(queueName, created);
+            queue = existing == null ? created : existing;
+        }
+        return queue;
+    }
+
+    /**
+     * Returns the queue with the given name or <code>null</code> if no printer job has been sent to it yet.
+     */
+    InMemoryPrintQueue findQueue(final String queueName) {
+        return this.queues.get(queueName);
+    }
+
+    /**
+     * Removes the first printer job from the queue with the given name and returns it (or <code>null</code>
+     * if the queue is empty). The caller takes the ownership of the {@link ReceivedJob} and must close it.
+     */
+    public ReceivedJob poll(final String queueName) {
+        final InMemoryPrintQueue queue = this.findQueue(queueName);
+        return queue == null ? null : queue.poll();
+    }
+
+    /**
+     * Returns the number of printer jobs in the queue with the given name.
+     */
+    public int getJobCount(final String queueName) {
+        final InMemoryPrintQueue queue = this.findQueue(queueName);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Discards all printer jobs of all queues.
+     */
+    @Override
+    public void close() {
+        for (final Map.Entry<String, InMemoryPrintQueue> entry : this.queues.entrySet()) {
+            ReceivedJob job = entry.getValue().poll();
+            while (job != null) {
+                Util.closeQuietly(job);
+                job = entry.getValue().poll();
+            }
+        }
+    }
+}
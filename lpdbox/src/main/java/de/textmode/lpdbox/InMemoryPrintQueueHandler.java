@@ -0,0 +1,141 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The {@link InMemoryPrintQueueHandler} handles the daemon commands for the {@link InMemoryPrintQueueFactory}.
+ * It is wrapped by a {@link JobAssembler}, which receives the files and passes the completed printer jobs
+ * back to the {@link InMemoryPrintQueueHandler}. It does not keep any state, so a single instance is shared
+ * by all connections.
+ */
+final class InMemoryPrintQueueHandler implements DaemonCommandHandler, ReceivedJobListener {
+
+    private final InMemoryPrintQueueFactory factory;
+
+    /**
+     * Constructor.
+     */
+    InMemoryPrintQueueHandler(final InMemoryPrintQueueFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public void jobReceived(final ReceivedJob job) {
+        this.factory.getQueue(job.getQueueName()).add(job);
+    }
+
+    @Override
+    public void printJobs(final String queueName) {
+        // The printer jobs are taken out of the queues by the application...
+    }
+
+    @Override
+    public boolean startPrinterJob(final String queueName) {
+        return true;
+    }
+
+    @Override
+    public boolean isControlFileAcceptable(final int fileLength, final String fileName) {
+        return true;
+    }
+
+    @Override
+    public void receiveControlFile(final InputStream is, final int fileLength, final String fileName)
+            throws IOException {
+
+        throw new IOException("The control file is received by the JobAssembler");
+    }
+
+    @Override
+    public boolean isDataFileAcceptable(final long fileLength, final String fileName) {
+        return true;
+    }
+
+    @Override
+    public void receiveDataFile(final InputStream is, final long fileLength, final String fileName)
+            throws IOException {
+
+        throw new IOException("The data file is received by the JobAssembler");
+    }
+
+    @Override
+    public void abortPrinterJob() {
+        // The JobAssembler discards the files of the printer job...
+    }
+
+    @Override
+    public void endPrinterJob() {
+        // The completed printer jobs have already been passed to jobReceived()...
+    }
+
+    @Override
+    public void removeJobs(final String queueName, final String agent, final List<String> jobs) {
+        final InMemoryPrintQueue queue = this.factory.findQueue(queueName);
+        if (queue != null) {
+            for (final ReceivedJob job : queue.remove(agent, jobs)) {
+                Util.closeQuietly(job);
+            }
+        }
+    }
+
+    @Override
+    public String sendQueueStateLong(final String queueName, final List<String> jobs) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        this.sendQueueStateLong(queueName, jobs, sb);
+        return sb.toString();
+    }
+
+    @Override
+    public String sendQueueStateShort(final String queueName, final List<String> jobs) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        this.sendQueueStateShort(queueName, jobs, sb);
+        return sb.toString();
+    }
+
+    @Override
+    public void sendQueueStateLong(final String queueName, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        final InMemoryPrintQueue queue = this.factory.findQueue(queueName);
+        if (queue == null) {
+            out.append(InMemoryPrintQueue.NO_ENTRIES);
+        } else {
+            queue.renderLong(jobs, out);
+        }
+    }
+
+    @Override
+    public void sendQueueStateShort(final String queueName, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        final InMemoryPrintQueue queue = this.factory.findQueue(queueName);
+        if (queue == null) {
+            out.append(InMemoryPrintQueue.NO_ENTRIES);
+        } else {
+            queue.renderShort(jobs, out);
+        }
+    }
+
+    @Override
+    public void close() {
+        // The handler is shared by all connections...
+    }
+}
@@ -0,0 +1,135 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link InMemoryTransport} connects clients directly to a {@link LinePrinterDaemon} without
+ * any sockets. It is intended for fast and deterministic tests and for benchmarks of the protocol
+ * stack without the noise of the network stack. A latency, a chunk size (the maximum number of
+ * bytes returned by a single read) and the buffer size of each direction can be configured.
+ * A lost connection can be simulated using {@link InMemoryConnection#disconnect()}.
+ */
+public final class InMemoryTransport implements Transport {
+
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    /**
+     * Time (in milliseconds) {@link #accept()} waits for a connection before it returns <code>null</code>.
+     */
+    private static final long ACCEPT_TIMEOUT = 100L;
+
+    private final BlockingQueue<InMemoryConnection> pending = new LinkedBlockingQueue<>();
+    private final AtomicLong connectionCount = new AtomicLong();
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private long latencyInNanos;
+    private int chunkSize = Integer.MAX_VALUE;
+
+    private volatile boolean isBound;
+    private volatile boolean isClosed;
+
+    /**
+     * Sets the number of bytes each direction of a connection can hold before the writer blocks.
+     * Affects only connections created afterwards.
+     */
+    public InMemoryTransport bufferSize(final int value) {
+        this.bufferSize = value;
+        return this;
+    }
+
+    /**
+     * Sets the latency every write is delayed by. Affects only connections created afterwards.
+     */
+    public InMemoryTransport latency(final long value, final TimeUnit unit) {
+        this.latencyInNanos = unit.toNanos(value);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes returned by a single read, so the parsers see the data
+     * in small fragments. Affects only connections created afterwards.
+     */
+    public InMemoryTransport chunkSize(final int value) {
+        this.chunkSize = value;
+        return this;
+    }
+
+    /**
+     * Creates a new connection to the {@link LinePrinterDaemon} and returns the client side of it.
+     */
+    public InMemoryConnection connect() throws IOException {
+        if (!this.isBound()) {
+            throw new IOException("Connection refused");
+        }
+
+        final InMemoryPipe toServer = new InMemoryPipe(this.bufferSize, this.latencyInNanos, this.chunkSize);
+        final InMemoryPipe toClient = new InMemoryPipe(this.bufferSize, this.latencyInNanos, this.chunkSize);
+
+        final String client = "memory:" + this.connectionCount.incrementAndGet();
+        this.pending.add(new InMemoryConnection(toServer, toClient, client));
+
+        return new InMemoryConnection(toClient, toServer, client);
+    }
+
+    @Override
+    public void bind() {
+        this.isBound = true;
+    }
+
+    @Override
+    public boolean isBound() {
+        return this.isBound && !this.isClosed;
+    }
+
+    @Override
+    public TransportConnection accept() throws IOException {
+        if (!this.isBound()) {
+            throw new IOException("The transport is not bound");
+        }
+
+        try {
+            return this.pending.poll(ACCEPT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while accepting a connection");
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "memory";
+    }
+
+    @Override
+    public void close() {
+        this.isClosed = true;
+
+        // Connections that have not been accepted yet are refused...
+        InMemoryConnection connection = this.pending.poll();
+        while (connection != null) {
+            connection.disconnect();
+            connection = this.pending.poll();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The {@link InstrumentedDaemonCommandHandler} wraps the {@link DaemonCommandHandler} created
+ * by the {@link DaemonCommandHandlerFactory} and updates the {@link LinePrinterDaemonStatistics}
+ * and the {@link ConnectionEntry} while delegating all calls to the wrapped {@link DaemonCommandHandler}.
+ */
+final class InstrumentedDaemonCommandHandler extends ForwardingDaemonCommandHandler {
+
+    private final LinePrinterDaemonStatistics statistics;
+    private final ConnectionEntry entry;
+
+    private String activeQueueName;
+    private boolean isAborted;
+
+    /**
+     * Constructor.
+     */
+    InstrumentedDaemonCommandHandler(
+            final DaemonCommandHandler handler,
+            final LinePrinterDaemonStatistics statistics,
+            final ConnectionEntry entry) {
+
+        super(handler);
+        this.statistics = statistics;
+        this.entry = entry;
+    }
+
+    /**
+     * Gets called before a call is delegated to the wrapped {@link DaemonCommandHandler}.
+     */
+    private void enter(final ConnectionPhase phase, final String method) {
+        this.entry.setPhase(phase);
+        this.entry.enterHandler(method);
+    }
+
+    /**
+     * Gets called after a call to the wrapped {@link DaemonCommandHandler} has returned.
+     */
+    private void exit() {
+        this.entry.exitHandler();
+        this.entry.setPhase(ConnectionPhase.PROCESSING_COMMAND);
+    }
+
+    /**
+     * If the connection has been aborted forcibly while a printer job is active, the wrapped
+     * {@link DaemonCommandHandler} gets a chance to delete the files of the printer job.
+     */
+    private void abortIfRequested() throws IOException {
+        if (this.activeQueueName != null && this.entry.isAborted() && !this.isAborted) {
+            this.abortPrinterJob();
+        }
+    }
+
+    /**
+     * Marks the connection as rejected if a file has not been accepted. Returns the given value.
+     */
+    private boolean accepted(final boolean isAccepted) {
+        if (!isAccepted) {
+            this.entry.markRejected();
+        }
+        return isAccepted;
+    }
+
+    /**
+     * Marks the currently active printer job (if any) as ended.
+     */
+    private void endActiveJob() {
+        if (this.activeQueueName != null) {
+            this.statistics.jobEnded(this.activeQueueName);
+            this.activeQueueName = null;
+        }
+    }
+
+    @Override
+    public void printJobs(final String queueName) throws IOException {
+        this.entry.setQueueName(queueName);
+        this.enter(ConnectionPhase.HANDLER_CALL, "printJobs");
+        try {
+            this.getDelegate().printJobs(queueName);
+        } finally {
+            this.exit();
+        }
+    }
+
+    @Override
+    public boolean startPrinterJob(final String queueName) throws IOException {
+        this.entry.setQueueName(queueName);
+        this.enter(ConnectionPhase.HANDLER_CALL, "startPrinterJob");
+        final boolean result;
+        try {
+            result = this.getDelegate().startPrinterJob(queueName);
+        } finally {
+            this.exit();
+        }
+
+        if (result) {
+            this.endActiveJob();
+            this.activeQueueName = queueName;
+            this.isAborted = false;
+            this.statistics.jobStarted(queueName);
+        } else {
+            this.statistics.jobRefused();
+            this.entry.markRejected();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isControlFileAcceptable(final int fileLength, final String fileName) throws IOException {
+        this.enter(ConnectionPhase.HANDLER_CALL, "isControlFileAcceptable");
+        try {
+            return this.accepted(this.getDelegate().isControlFileAcceptable(fileLength, fileName));
+        } finally {
+            this.exit();
+        }
+    }
+
+    @Override
+    public void receiveControlFile(final InputStream is, final int fileLength, final String fileName)
+            throws IOException {
+
+        this.enter(ConnectionPhase.RECEIVING_CONTROL_FILE, "receiveControlFile");
+        try {
+            this.getDelegate().receiveControlFile(is, fileLength, fileName);
+        } finally {
+            this.exit();
+        }
+        this.statistics.controlFileReceived(fileLength);
+    }
+
+    @Override
+    public boolean isDataFileAcceptable(final long fileLength, final String fileName) throws IOException {
+        this.enter(ConnectionPhase.HANDLER_CALL, "isDataFileAcceptable");
+        try {
+            return this.accepted(this.getDelegate().isDataFileAcceptable(fileLength, fileName));
+        } finally {
+            this.exit();
+        }
+    }
+
+    @Override
+    public void receiveDataFile(final InputStream is, final long fileLength, final String fileName)
+            throws IOException {
+
+        // The length of a data file of unknown length is known once it has been received...
+        final CountingInputStream counter = fileLength < 0 ? new CountingInputStream(is) : null;
+
+        this.enter(ConnectionPhase.RECEIVING_DATA_FILE, "receiveDataFile");
+        try {
+            this.getDelegate().receiveDataFile(counter == null ? is : counter, fileLength, fileName);
+        } finally {
+            this.exit();
+        }
+        this.statistics.dataFileReceived(counter == null ? fileLength : counter.getCount());
+    }
+
+    @Override
+    public void abortPrinterJob() throws IOException {
+        this.statistics.jobAborted();
+        this.isAborted = true;
+        this.enter(ConnectionPhase.HANDLER_CALL, "abortPrinterJob");
+        try {
+            this.getDelegate().abortPrinterJob();
+        } finally {
+            this.exit();
+        }
+    }
+
+    @Override
+    public void endPrinterJob() throws IOException {
+        this.abortIfRequested();
+        this.enter(ConnectionPhase.HANDLER_CALL, "endPrinterJob");
+        try {
+            this.getDelegate().endPrinterJob();
+        } finally {
+            this.exit();
+            this.endActiveJob();
+        }
+    }
+
+    @Override
+    public void removeJobs(final String queueName, final String agent, final List<String> jobs) throws IOException {
+        this.entry.setQueueName(queueName);
+        this.enter(ConnectionPhase.HANDLER_CALL, "removeJobs");
+        try {
+            this.getDelegate().removeJobs(queueName, agent, jobs);
+        } finally {
+            this.exit();
+        }
+    }
+
+    @Override
+    public String sendQueueStateLong(final String queueName, final List<String> jobs) throws IOException {
+        this.entry.setQueueName(queueName);
+        this.enter(ConnectionPhase.HANDLER_CALL, "sendQueueStateLong");
+        try {
+            return this.getDelegate().sendQueueStateLong(queueName, jobs);
+        } finally {
+            this.exit();
+        }
+    }
+
+    @Override
+    public String sendQueueStateShort(final String queueName, final List<String> jobs) throws IOException {
+        this.entry.setQueueName(queueName);
+        this.enter(ConnectionPhase.HANDLER_CALL, "sendQueueStateShort");
+        try {
+            return this.getDelegate().sendQueueStateShort(queueName, jobs);
+        } finally {
+            this.exit();
+        }
+    }
+
+    @Override
+    public void sendQueueStateLong(final String queueName, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        this.entry.setQueueName(queueName);
+        this.enter(ConnectionPhase.HANDLER_CALL, "sendQueueStateLong");
+        try {
+            this.getDelegate().sendQueueStateLong(queueName, jobs, out);
+        } finally {
+            this.exit();
+        }
+    }
+
+    @Override
+    public void sendQueueStateShort(final String queueName, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        this.entry.setQueueName(queueName);
+        this.enter(ConnectionPhase.HANDLER_CALL, "sendQueueStateShort");
+        try {
+            this.getDelegate().sendQueueStateShort(queueName, jobs, out);
+        } finally {
+            this.exit();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // A job might not have been ended (i. e. if a file has been refused by the handler)...
+        try {
+            this.abortIfRequested();
+        } finally {
+            this.endActiveJob();
+            this.entry.setPhase(ConnectionPhase.CLOSING);
+            this.getDelegate().close();
+        }
+    }
+}
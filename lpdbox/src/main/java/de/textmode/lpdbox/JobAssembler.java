@@ -0,0 +1,290 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * The {@link JobAssembler} is the {@link DaemonCommandHandler} created by the {@link JobAssemblerFactory}.
+ * It keeps the files of the printer jobs being received on a connection and hands every printer job
+ * to the {@link ReceivedJobListener} as soon as it is complete.
+ */
+final class JobAssembler extends ForwardingDaemonCommandHandler {
+
+    /**
+     * Length of the prefix of the file names ("cfA" or "dfA").
+     */
+    private static final int PREFIX_LENGTH = 3;
+
+    private static final int SKIP_BUFFER_SIZE = 8192;
+
+    private final PayloadSink sink;
+    private final ReceivedJobListener listener;
+    private final JobSequencer sequencer;
+    private final RecentJobIndex recentJobs;
+
+    private final Map<String, PendingJob> pendingJobs = new LinkedHashMap<>();
+    private String queueName;
+    private JobSequencer.Ticket ticket;
+
+    /**
+     * Constructor. If a {@link JobSequencer} is passed, the completed printer jobs are passed to the
+     * {@link JobSequencer} instead of the {@link ReceivedJobListener}. If a {@link RecentJobIndex} is
+     * passed, printer jobs found in it are skipped.
+     */
+    JobAssembler(
+            final DaemonCommandHandler handler,
+            final PayloadSink sink,
+            final ReceivedJobListener listener,
+            final JobSequencer sequencer,
+            final RecentJobIndex recentJobs) {
+
+        super(handler);
+        this.sink = sink;
+        this.listener = listener;
+        this.sequencer = sequencer;
+        this.recentJobs = recentJobs;
+    }
+
+    /**
+     * Returns the key that identifies the printer job a file belongs to (the job number and host name).
+     */
+    static String getJobKey(final String fileName) {
+        return fileName.length() > PREFIX_LENGTH ? fileName.substring(PREFIX_LENGTH) : fileName;
+    }
+
+    /**
+     * Returns the number of printer jobs that have not been completed yet.
+     */
+    int getPendingJobCount() {
+        return this.pendingJobs.size();
+    }
+
+    /**
+     * Returns the {@link PendingJob} for the given file, which is created if necessary.
+     */
+    private PendingJob getPendingJob(final String fileName) {
+        final String key = getJobKey(fileName);
+        PendingJob job = this.pendingJobs.get(key);
+        if (job == null) {
+            job = new PendingJob();
+            this.pendingJobs.put(key, job);
+        }
+        return job;
+    }
+
+    /**
+     * Hands the printer job to the {@link ReceivedJobListener} if it is complete.
+     */
+    private void completeIfPossible(final String fileName) throws IOException {
+        final String key = getJobKey(fileName);
+        final PendingJob job = this.pendingJobs.get(key);
+        if (!job.isComplete()) {
+            return;
+        }
+
+        this.pendingJobs.remove(key);
+        if (job.isDuplicate) {
+            return;
+        }
+
+        if (this.recentJobs != null) {
+            this.recentJobs.add(job.recentKey);
+        }
+
+        final ReceivedJob result = new ReceivedJob(this.queueName, job.controlFileName, job.controlFile, job.dataFiles);
+        if (this.ticket != null) {
+            this.sequencer.deliver(this.ticket, result, this.recentJobs, job.recentKey);
+            return;
+        }
+
+        try {
+            this.listener.jobReceived(result);
+        } catch (final IOException | RuntimeException e) {
+            // The printer job has not been processed, so a retry of the client must not be skipped...
+            if (this.recentJobs != null) {
+                this.recentJobs.remove(job.recentKey);
+            }
+            Util.closeQuietly(result);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads and drops a data file of a printer job that is skipped.
+     */
+    private static void skip(final InputStream is, final long fileLength) throws IOException {
+        final byte[] buffer = new byte[SKIP_BUFFER_SIZE];
+        long remaining = fileLength;
+        while (fileLength < 0 || remaining > 0) {
+            final int toRead = fileLength < 0 ? buffer.length : (int) Math.min(buffer.length, remaining);
+            final int read = is.read(buffer, 0, toRead);
+            if (read == -1) {
+                if (fileLength < 0) {
+                    return;
+                }
+                throw new IOException(Util.ERROR_END_OF_STREAM);
+            }
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Completes the ticket of the {@link JobSequencer} (if any), so later printer jobs of the queue
+     * are no longer held back.
+     */
+    private void completeTicket() {
+        if (this.ticket != null) {
+            this.sequencer.complete(this.ticket);
+            this.ticket = null;
+        }
+    }
+
+    /**
+     * Discards all printer jobs that have not been completed.
+     */
+    private void discardPendingJobs() {
+        for (final PendingJob job : this.pendingJobs.values()) {
+            job.releaseDataFiles();
+        }
+        this.pendingJobs.clear();
+    }
+
+    @Override
+    public boolean startPrinterJob(final String queue) throws IOException {
+        this.discardPendingJobs();
+        this.completeTicket();
+        this.queueName = queue;
+
+        final boolean result = this.getDelegate().startPrinterJob(queue);
+        if (result && this.sequencer != null) {
+            this.ticket = this.sequencer.acquire(queue);
+        }
+        return result;
+    }
+
+    @Override
+    public void receiveControlFile(final InputStream is, final int fileLength, final String fileName)
+            throws IOException {
+
+        final CheckedInputStream checked = new CheckedInputStream(is, new CRC32());
+        final ControlFile controlFile = ControlFileParser.parse(checked, fileLength);
+        final PendingJob job = this.getPendingJob(fileName);
+        job.controlFileName = fileName;
+        job.controlFile = controlFile;
+
+        if (this.recentJobs != null) {
+            job.recentKey = RecentJobIndex.createKey(fileName, checked.getChecksum().getValue());
+            if (this.recentJobs.contains(job.recentKey)) {
+                // The client sent the printer job again - it is acknowledged, but not passed on...
+                job.isDuplicate = true;
+                job.skippedFiles.addAll(job.dataFiles.keySet());
+                job.releaseDataFiles();
+            }
+        }
+
+        this.completeIfPossible(fileName);
+    }
+
+    @Override
+    public void receiveDataFile(final InputStream is, final long fileLength, final String fileName)
+            throws IOException {
+
+        final PendingJob job = this.getPendingJob(fileName);
+        if (job.isDuplicate) {
+            skip(is, fileLength);
+            job.skippedFiles.add(fileName);
+            this.completeIfPossible(fileName);
+            return;
+        }
+
+        final Payload payload = this.sink.receive(is, fileLength);
+        final Payload previous = job.dataFiles.put(fileName, payload);
+        if (previous != null) {
+            previous.close();
+        }
+
+        this.completeIfPossible(fileName);
+    }
+
+    @Override
+    public void abortPrinterJob() throws IOException {
+        this.discardPendingJobs();
+        this.completeTicket();
+        this.getDelegate().abortPrinterJob();
+    }
+
+    @Override
+    public void endPrinterJob() throws IOException {
+        this.discardPendingJobs();
+        this.completeTicket();
+        this.getDelegate().endPrinterJob();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.discardPendingJobs();
+            this.completeTicket();
+        } finally {
+            this.getDelegate().close();
+        }
+    }
+
+    /**
+     * The files of a printer job that has not been completed yet.
+     */
+    private static final class PendingJob {
+
+        private final Map<String, Payload> dataFiles = new LinkedHashMap<>();
+        private final Set<String> skippedFiles = new HashSet<>();
+        private String controlFileName;
+        private ControlFile controlFile;
+        private String recentKey;
+        private boolean isDuplicate;
+
+        /**
+         * Closes all data files received so far.
+         */
+        void releaseDataFiles() {
+            for (final Payload payload : this.dataFiles.values()) {
+                Util.closeQuietly(payload);
+            }
+            this.dataFiles.clear();
+        }
+
+        /**
+         * Returns <code>true</code> if the control file and all data files it refers to have been received.
+         */
+        boolean isComplete() {
+            if (this.controlFile == null) {
+                return false;
+            }
+
+            final Set<String> received = new HashSet<>(this.dataFiles.keySet());
+            received.addAll(this.skippedFiles);
+            return received.containsAll(this.controlFile.getDataFileNames());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The {@link JobAssemblerFactory} wraps a {@link DaemonCommandHandlerFactory} and assembles the printer
+ * jobs sent by the clients, so your {@link DaemonCommandHandler} does not have to pair the control and
+ * data files itself. The files are matched by their names ("cfA001localhost" and "dfA001localhost",
+ * "dfB001localhost", ...) regardless of the order in which they arrive. Data files are received into
+ * a {@link PayloadSink} and the {@link ReceivedJobListener} gets notified as soon as a printer job is
+ * complete, even if the client sends further printer jobs over the same connection. To keep the order
+ * in which the printer jobs of a queue have been accepted, set a {@link JobSequencer} instead of the
+ * {@link ReceivedJobListener}. Use the {@link JobAssemblerFactoryBuilder} to build a {@link JobAssemblerFactory}.
+ *
+ * <p>The {@link DaemonCommandHandler}s created by the wrapped {@link DaemonCommandHandlerFactory} still
+ * decide whether a printer job or file is acceptable and handle all other commands, but their methods
+ * <code>receiveControlFile</code> and <code>receiveDataFile</code> are not called. Files of a printer
+ * job that is incomplete when the client ends the "Receive printer job" command are discarded.</p>
+ *
+ * <p>If a {@link RecentJobIndex} is set, a printer job that has already been received (same control file
+ * name and checksum) is acknowledged but not passed on again. A retry is recognized as soon as its control
+ * file has been received: data files sent before the control file are discarded, data files sent after it
+ * are read without being stored.</p>
+ */
+public final class JobAssemblerFactory implements DaemonCommandHandlerFactory {
+
+    private final DaemonCommandHandlerFactory factory;
+    private final PayloadSink sink;
+    private final ReceivedJobListener listener;
+    private final JobSequencer sequencer;
+    private final RecentJobIndex recentJobs;
+
+    /**
+     * Constructor. Use the {@link JobAssemblerFactoryBuilder} to build the {@link JobAssemblerFactory}.
+     */
+    JobAssemblerFactory(final JobAssemblerFactoryBuilder builder) {
+        this.factory = builder.getFactory();
+        this.sink = builder.getSink();
+        this.listener = builder.getListener();
+        this.sequencer = builder.getSequencer();
+        this.recentJobs = builder.getRecentJobs();
+    }
+
+    @Override
+    public DaemonCommandHandler create() {
+        final DaemonCommandHandler handler = this.factory.create();
+        return handler == null
+                ? null
+                : new JobAssembler(handler, this.sink, this.listener, this.sequencer, this.recentJobs);
+    }
+}
@@ -0,0 +1,111 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Builder for a {@link JobAssemblerFactory}. Either a {@link ReceivedJobListener} or a {@link JobSequencer}
+ * has to be set.
+ */
+public final class JobAssemblerFactoryBuilder {
+
+    private final DaemonCommandHandlerFactory factory;
+    private final PayloadSink sink;
+
+    private ReceivedJobListener listener;
+    private JobSequencer sequencer;
+    private RecentJobIndex recentJobs;
+
+    /**
+     * Constructor of the {@link JobAssemblerFactoryBuilder}. The {@link DaemonCommandHandler}s created
+     * by the given {@link DaemonCommandHandlerFactory} are wrapped, the data files are received into
+     * the given {@link PayloadSink}.
+     */
+    public JobAssemblerFactoryBuilder(final DaemonCommandHandlerFactory factory, final PayloadSink sink) {
+        this.factory = factory;
+        this.sink = sink;
+    }
+
+    /**
+     * Sets the {@link ReceivedJobListener} the printer jobs are passed to as soon as they are complete.
+     */
+    public JobAssemblerFactoryBuilder listener(final ReceivedJobListener value) {
+        this.listener = value;
+        return this;
+    }
+
+    /**
+     * Sets the {@link JobSequencer} the printer jobs are passed to, which keeps their order per queue.
+     */
+    public JobAssemblerFactoryBuilder sequencer(final JobSequencer value) {
+        this.sequencer = value;
+        return this;
+    }
+
+    /**
+     * Sets the {@link RecentJobIndex}. Printer jobs found in the {@link RecentJobIndex} (i. e. resent by
+     * a client) are acknowledged but not passed on again. By default all printer jobs are passed on.
+     */
+    public JobAssemblerFactoryBuilder recentJobs(final RecentJobIndex value) {
+        this.recentJobs = value;
+        return this;
+    }
+
+    /**
+     * Builds the {@link JobAssemblerFactory}.
+     */
+    public JobAssemblerFactory build() {
+        if ((this.listener == null) == (this.sequencer == null)) {
+            throw new IllegalArgumentException("A job assembler needs either a ReceivedJobListener or a JobSequencer");
+        }
+        return new JobAssemblerFactory(this);
+    }
+
+    /**
+     * Returns the {@link DaemonCommandHandlerFactory}.
+     */
+    DaemonCommandHandlerFactory getFactory() {
+        return this.factory;
+    }
+
+    /**
+     * Returns the {@link PayloadSink}.
+     */
+    PayloadSink getSink() {
+        return this.sink;
+    }
+
+    /**
+     * Returns the {@link ReceivedJobListener} (may be <code>null</code>).
+     */
+    ReceivedJobListener getListener() {
+        return this.listener;
+    }
+
+    /**
+     * Returns the {@link JobSequencer} (may be <code>null</code>).
+     */
+    JobSequencer getSequencer() {
+        return this.sequencer;
+    }
+
+    /**
+     * Returns the {@link RecentJobIndex} (may be <code>null</code>).
+     */
+    RecentJobIndex getRecentJobs() {
+        return this.recentJobs;
+    }
+}
@@ -0,0 +1,316 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+
+/**
+ * The {@link JobPipeline} processes received printer jobs asynchronously, so the connection that
+ * received a printer job is released as soon as the printer job has been queued. Pass the
+ * {@link JobPipeline} as {@link ReceivedJobListener} to a {@link JobAssemblerFactory}.
+ *
+ * <p>A {@link JobPipeline} consists of one or more {@link JobStage}s that are passed by every printer
+ * job in the order they have been added to the {@link JobPipelineBuilder}. Each {@link JobStage} has
+ * its own threads and a bounded queue. If a queue is full, the preceding stage waits, and if the queue
+ * of the first stage is full, the connections wait. So a slow stage slows down receiving instead of
+ * exhausting the memory. After the last stage, or if a stage fails, the {@link ReceivedJob} gets closed.</p>
+ */
+public final class JobPipeline implements ReceivedJobListener, Closeable {
+
+    /**
+     * Interval (in milliseconds) in which the threads of a stage check if the stage has been stopped.
+     */
+    private static final long POLL_INTERVAL = 100L;
+
+    private final Logger logger;
+    private final long offerTimeout;
+    private final List<Stage> stages = new ArrayList<>();
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * Checking if the pipeline has been closed and queueing a printer job happen under the read lock, so
+     * no printer job is queued after the stages have been told to stop.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean isClosed;
+
+    /**
+     * Constructor.
+     */
+    JobPipeline(final JobPipelineBuilder builder) {
+        this.logger = builder.getLogger();
+        this.offerTimeout = builder.getOfferTimeout();
+
+        final List<JobPipelineBuilder.StageConfig> configs = builder.getStages();
+        Stage next = null;
+        for (int ix = configs.size() - 1; ix >= 0; --ix) {
+            next = new Stage(configs.get(ix), next);
+            this.stages.add(0, next);
+        }
+
+        for (final Stage stage : this.stages) {
+            stage.start();
+        }
+    }
+
+    /**
+     * Queues the {@link ReceivedJob} for the first stage. Waits if the queue is full.
+     */
+    @Override
+    public void jobReceived(final ReceivedJob job) throws IOException {
+        final BlockingQueue<ReceivedJob> queue = this.stages.get(0).queue;
+        final long pollInterval = TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.offerTimeout);
+
+        try {
+            while (true) {
+                // The read lock is held for a poll interval at most, so a shutdown does not wait for a full queue...
+                final long wait = this.offerTimeout > 0
+                        ? Math.max(0, Math.min(pollInterval, deadline - System.nanoTime()))
+                        : pollInterval;
+
+                this.closeLock.readLock().lockInterruptibly();
+                try {
+                    if (this.isClosed) {
+                        job.close();
+                        throw new IOException("The job pipeline has been closed");
+                    }
+
+                    if (queue.offer(job, wait, TimeUnit.NANOSECONDS)) {
+                        return;
+                    }
+                } finally {
+                    this.closeLock.readLock().unlock();
+                }
+
+                if (this.offerTimeout > 0 && deadline - System.nanoTime() <= 0) {
+                    job.close();
+                    throw new IOException("The job pipeline is full");
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.close();
+            throw new InterruptedIOException("Interrupted while waiting for the job pipeline");
+        }
+    }
+
+    /**
+     * Returns the number of printer jobs that have passed all stages.
+     */
+    public long getCompletedCount() {
+        return this.completedCount.get();
+    }
+
+    /**
+     * Returns the number of printer jobs that have failed in a stage.
+     */
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    /**
+     * Returns the number of printer jobs waiting in the queue of the stage with the given name or -1
+     * if there is no such stage.
+     */
+    public int getQueuedCount(final String stageName) {
+        for (final Stage stage : this.stages) {
+            if (stage.config.getName().equals(stageName)) {
+                return stage.queue.size();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stops accepting printer jobs and waits until all queued printer jobs have passed all stages.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.shutdown(Long.MAX_VALUE)) {
+            throw new InterruptedIOException("Interrupted while waiting for the job pipeline");
+        }
+    }
+
+    /**
+     * Stops accepting printer jobs and waits (at most the given time in milliseconds) until all queued
+     * printer jobs have passed all stages. Returns <code>false</code> if the time has elapsed (or the
+     * current thread has been interrupted). In this case the threads of the stages are interrupted and
+     * all printer jobs still queued are discarded.
+     */
+    public boolean shutdown(final long timeoutInMillis) {
+        this.closeLock.writeLock().lock();
+        try {
+            this.isClosed = true;
+        } finally {
+            this.closeLock.writeLock().unlock();
+        }
+
+        // Long.MAX_VALUE stands for no deadline at all...
+        final long deadline = timeoutInMillis == Long.MAX_VALUE
+                ? Long.MAX_VALUE
+                : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+
+        boolean isTerminated = true;
+        for (final Stage stage : this.stages) {
+            // The stages are stopped in order, so a stage processes everything its predecessor passes...
+            if (isTerminated) {
+                isTerminated = stage.stop(deadline);
+            }
+
+            if (!isTerminated) {
+                stage.abort();
+            }
+        }
+
+        return isTerminated;
+    }
+
+    /**
+     * A {@link JobStage} with its queue and threads.
+     */
+    private final class Stage implements Runnable {
+
+        private final JobPipelineBuilder.StageConfig config;
+        private final Stage next;
+        private final BlockingQueue<ReceivedJob> queue;
+        private final List<Thread> threads = new ArrayList<>();
+
+        private volatile boolean isStopping;
+
+        /**
+         * Constructor.
+         */
+        Stage(final JobPipelineBuilder.StageConfig config, final Stage next) {
+            this.config = config;
+            this.next = next;
+            this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+        }
+
+        /**
+         * Starts the threads of the stage.
+         */
+        void start() {
+            for (int ix = 0; ix < this.config.getParallelism(); ++ix) {
+                final Thread thread = new Thread(this, "lpdbox-pipeline-" + this.config.getName() + "-" + ix);
+                thread.setDaemon(true);
+                thread.start();
+                this.threads.add(thread);
+            }
+        }
+
+        /**
+         * Lets the threads terminate as soon as the queue is empty and waits for them until the
+         * given deadline (see {@link System#nanoTime()}, {@link Long#MAX_VALUE} for no deadline).
+         * Returns <code>false</code> if the deadline has passed.
+         */
+        boolean stop(final long deadline) {
+            this.isStopping = true;
+            try {
+                for (final Thread thread : this.threads) {
+                    if (deadline == Long.MAX_VALUE) {
+                        thread.join();
+                        continue;
+                    }
+
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+                    if (thread.isAlive()) {
+                        return false;
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Interrupts the threads of the stage and discards all queued printer jobs.
+         */
+        void abort() {
+            this.isStopping = true;
+            for (final Thread thread : this.threads) {
+                thread.interrupt();
+            }
+
+            ReceivedJob job = this.queue.poll();
+            while (job != null) {
+                Util.closeQuietly(job);
+                job = this.queue.poll();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!this.isStopping || !this.queue.isEmpty()) {
+                    final ReceivedJob job = this.queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (job != null) {
+                        this.process(job);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Processes a {@link ReceivedJob} and passes it to the next stage.
+         */
+        private void process(final ReceivedJob job) throws InterruptedException {
+            boolean isPassed = false;
+            try {
+                this.config.getStage().process(job);
+
+                if (this.next != null) {
+                    this.next.queue.put(job);
+                    isPassed = true;
+                } else {
+                    JobPipeline.this.completedCount.incrementAndGet();
+                }
+            } catch (final IOException | RuntimeException e) {
+                JobPipeline.this.failedCount.incrementAndGet();
+                JobPipeline.this.logger.error("Stage " + this.config.getName() + " failed to process the job "
+                        + job.getControlFileName() + ": " + e.getMessage());
+            } finally {
+                if (!isPassed) {
+                    Util.closeQuietly(job);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builder for a {@link JobPipeline}.
+ */
+public final class JobPipelineBuilder {
+
+    private final List<StageConfig> stages = new ArrayList<>();
+
+    private Logger logger;
+    private long offerTimeout;
+
+    /**
+     * Constructor of the {@link JobPipelineBuilder}.
+     */
+    public JobPipelineBuilder() {
+        this.logger = LoggerFactory.getLogger(JobPipeline.class);
+    }
+
+    /**
+     * Sets the {@link Logger}.
+     */
+    public JobPipelineBuilder logger(final Logger value) {
+        this.logger = value;
+        return this;
+    }
+
+    /**
+     * Appends a {@link JobStage} to the {@link JobPipeline}. The {@link JobStage} is called by
+     * <code>parallelism</code> threads and up to <code>queueCapacity</code> printer jobs may wait for
+     * the {@link JobStage}. If the queue is full, the preceding stage (or the connection that received
+     * the printer job) waits.
+     */
+    public JobPipelineBuilder stage(
+            final String name,
+            final JobStage stage,
+            final int parallelism,
+            final int queueCapacity) {
+
+        if (parallelism < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid configuration of stage " + name
+                    + " (parallelism=" + parallelism + ", queueCapacity=" + queueCapacity + ")");
+        }
+
+        this.stages.add(new StageConfig(name, stage, parallelism, queueCapacity));
+        return this;
+    }
+
+    /**
+     * Sets the time (in milliseconds) a connection waits for a free slot in the queue of the first
+     * {@link JobStage}. If the time elapses, the printer job is discarded and the connection gets
+     * closed. The default is 0 (wait as long as necessary).
+     */
+    public JobPipelineBuilder offerTimeout(final long valueInMillis) {
+        this.offerTimeout = valueInMillis;
+        return this;
+    }
+
+    /**
+     * Builds and starts the {@link JobPipeline}.
+     */
+    public JobPipeline build() {
+        if (this.stages.isEmpty()) {
+            throw new IllegalArgumentException("A job pipeline needs at least one stage");
+        }
+        return new JobPipeline(this);
+    }
+
+    /**
+     * Returns the {@link Logger}.
+     */
+    Logger getLogger() {
+        return this.logger;
+    }
+
+    /**
+     * Returns the offer timeout (in milliseconds).
+     */
+    long getOfferTimeout() {
+        return this.offerTimeout;
+    }
+
+    /**
+     * Returns the configuration of the stages.
+     */
+    List<StageConfig> getStages() {
+        return this.stages;
+    }
+
+    /**
+     * The configuration of a {@link JobStage}.
+     */
+    static final class StageConfig {
+
+        private final String name;
+        private final JobStage stage;
+        private final int parallelism;
+        private final int queueCapacity;
+
+        /**
+         * Constructor.
+         */
+        StageConfig(final String name, final JobStage stage, final int parallelism, final int queueCapacity) {
+            this.name = name;
+            this.stage = stage;
+            this.parallelism = parallelism;
+            this.queueCapacity = queueCapacity;
+        }
+
+        /**
+         * Returns the name of the stage.
+         */
+        String getName() {
+            return this.name;
+        }
+
+        /**
+         * Returns the {@link JobStage}.
+         */
+        JobStage getStage() {
+            return this.stage;
+        }
+
+        /**
+         * Returns the number of threads.
+         */
+        int getParallelism() {
+            return this.parallelism;
+        }
+
+        /**
+         * Returns the capacity of the queue.
+         */
+        int getQueueCapacity() {
+            return this.queueCapacity;
+        }
+    }
+}
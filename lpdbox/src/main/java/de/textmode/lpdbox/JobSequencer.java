@@ -0,0 +1,227 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link JobSequencer} passes the printer jobs assembled by a {@link JobAssemblerFactory} to a
+ * {@link ReceivedJobListener} in the order they have been accepted per queue, even though they are
+ * received in parallel by multiple connections.
+ *
+ * <p>When a printer job gets accepted (see {@link DaemonCommandHandler#startPrinterJob(String)}), the
+ * connection draws a ticket for the queue. Printer jobs completed by a connection are held back until
+ * all connections with an earlier ticket for the same queue have ended. Connections that end without
+ * a complete printer job (i. e. because the client aborted it) do not block the queue. Printer jobs
+ * for different queues are independent of each other.</p>
+ *
+ * <p>The printer jobs are passed to the {@link ReceivedJobListener} by the thread that releases them,
+ * which may be the thread of another connection. Errors of the {@link ReceivedJobListener} are logged and
+ * the printer job is removed from the {@link RecentJobIndex} (if any), so a retry of the client is not
+ * skipped.</p>
+ */
+public final class JobSequencer {
+
+    private final ReceivedJobListener listener;
+    private final Logger logger;
+    private final Map<String, QueueState> queues = new HashMap<>();
+
+    private long heldCount;
+
+    /**
+     * Constructor.
+     */
+    public JobSequencer(final ReceivedJobListener listener) {
+        this(listener, LoggerFactory.getLogger(JobSequencer.class));
+    }
+
+    /**
+     * Constructor with the {@link Logger} errors of the {@link ReceivedJobListener} are logged to.
+     */
+    public JobSequencer(final ReceivedJobListener listener, final Logger logger) {
+        this.listener = listener;
+        this.logger = logger;
+    }
+
+    /**
+     * Returns the number of printer jobs currently held back.
+     */
+    public synchronized long getHeldCount() {
+        return this.heldCount;
+    }
+
+    /**
+     * Draws the next ticket for the given queue.
+     */
+    synchronized Ticket acquire(final String queueName) {
+        QueueState state = this.queues.get(queueName);
+        if (state == null) {
+            state = new QueueState();
+            this.queues.put(queueName, state);
+        }
+
+        final Ticket ticket = new Ticket(queueName);
+        state.tickets.add(ticket);
+        return ticket;
+    }
+
+    /**
+     * Passes a {@link ReceivedJob} of the given ticket to the {@link ReceivedJobListener} as soon as
+     * all earlier tickets of the queue have been completed.
+     */
+    void deliver(final Ticket ticket, final ReceivedJob job) {
+        this.deliver(ticket, job, null, null);
+    }
+
+    /**
+     * Passes a {@link ReceivedJob} of the given ticket to the {@link ReceivedJobListener} as soon as
+     * all earlier tickets of the queue have been completed. If the {@link ReceivedJobListener} fails,
+     * the given key is removed from the {@link RecentJobIndex}.
+     */
+    void deliver(
+            final Ticket ticket,
+            final ReceivedJob job,
+            final RecentJobIndex recentJobs,
+            final String recentKey) {
+
+        synchronized (this) {
+            ticket.jobs.add(new HeldJob(job, recentJobs, recentKey));
+            ++this.heldCount;
+        }
+        this.release(ticket.queueName);
+    }
+
+    /**
+     * Completes the given ticket. No more printer jobs will be passed for this ticket.
+     */
+    void complete(final Ticket ticket) {
+        synchronized (this) {
+            ticket.isComplete = true;
+        }
+        this.release(ticket.queueName);
+    }
+
+    /**
+     * Passes all printer jobs of the given queue that are no longer held back to the
+     * {@link ReceivedJobListener}. Only one thread releases the printer jobs of a queue at a
+     * time, so the order is kept.
+     */
+    private void release(final String queueName) {
+        final QueueState state;
+        synchronized (this) {
+            state = this.queues.get(queueName);
+            if (state == null || state.isReleasing) {
+                return;
+            }
+            state.isReleasing = true;
+        }
+
+        List<HeldJob> jobs = this.takeReleasable(queueName, state);
+        while (jobs != null) {
+            for (final HeldJob held : jobs) {
+                try {
+                    this.listener.jobReceived(held.job);
+                } catch (final IOException | RuntimeException e) {
+                    this.logger.error("Failed to pass the job " + held.job.getControlFileName() + " of queue "
+                            + queueName + ": " + e.getMessage());
+
+                    // The printer job has not been processed, so a retry of the client must not be skipped...
+                    if (held.recentJobs != null) {
+                        held.recentJobs.remove(held.recentKey);
+                    }
+                    Util.closeQuietly(held.job);
+                }
+            }
+            jobs = this.takeReleasable(queueName, state);
+        }
+    }
+
+    /**
+     * Removes the completed tickets from the head of the queue and returns the printer jobs of the
+     * first ticket. Returns <code>null</code> (and ends the release) if there is nothing to pass.
+     */
+    private synchronized List<HeldJob> takeReleasable(final String queueName, final QueueState state) {
+        Ticket head = state.tickets.peek();
+        while (head != null && head.isComplete && head.jobs.isEmpty()) {
+            state.tickets.poll();
+            head = state.tickets.peek();
+        }
+
+        if (head == null || head.jobs.isEmpty()) {
+            state.isReleasing = false;
+            if (head == null) {
+                this.queues.remove(queueName);
+            }
+            return null;
+        }
+
+        final List<HeldJob> result = new ArrayList<>(head.jobs);
+        head.jobs.clear();
+        this.heldCount -= result.size();
+        return result;
+    }
+
+    /**
+     * The tickets of a queue in the order they have been drawn.
+     */
+    private static final class QueueState {
+        private final ArrayDeque<Ticket> tickets = new ArrayDeque<>();
+        private boolean isReleasing;
+    }
+
+    /**
+     * A printer job held back and the key it has been added to the {@link RecentJobIndex} with.
+     */
+    private static final class HeldJob {
+        private final ReceivedJob job;
+        private final RecentJobIndex recentJobs;
+        private final String recentKey;
+
+        /**
+         * Constructor.
+         */
+        HeldJob(final ReceivedJob job, final RecentJobIndex recentJobs, final String recentKey) {
+            this.job = job;
+            this.recentJobs = recentJobs;
+            this.recentKey = recentKey;
+        }
+    }
+
+    /**
+     * The position of a connection in the order of a queue and the printer jobs it has completed.
+     */
+    static final class Ticket {
+        private final String queueName;
+        private final List<HeldJob> jobs = new ArrayList<>();
+        private boolean isComplete;
+
+        /**
+         * Constructor.
+         */
+        Ticket(final String queueName) {
+            this.queueName = queueName;
+        }
+    }
+}
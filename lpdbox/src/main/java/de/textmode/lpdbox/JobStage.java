@@ -0,0 +1,34 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+/**
+ * A {@link JobStage} is a step of a {@link JobPipeline} that processes received printer jobs (i. e.
+ * converting, routing or archiving them). A {@link JobStage} is called concurrently by as many threads
+ * as configured for it, so it must be thread safe if its parallelism is greater than 1.
+ */
+public interface JobStage {
+
+    /**
+     * Processes the given {@link ReceivedJob}. The {@link ReceivedJob} is owned by the {@link JobPipeline}
+     * and must not be closed by the {@link JobStage}. If an exception is thrown, the {@link ReceivedJob}
+     * is not passed to the following stages.
+     */
+    void process(final ReceivedJob job) throws IOException;
+}
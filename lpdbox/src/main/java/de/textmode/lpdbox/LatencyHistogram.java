@@ -0,0 +1,110 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@link LatencyHistogram} counts durations in a fixed set of buckets. Recording a
+ * duration is lock free and does not allocate any memory.
+ */
+final class LatencyHistogram {
+
+    /**
+     * Upper bounds (inclusive, in nanoseconds) of the buckets. The last (implicit) bucket
+     * is unbounded.
+     */
+    private static final long[] UPPER_BOUNDS = new long[] {
+        TimeUnit.MILLISECONDS.toNanos(1),
+        TimeUnit.MILLISECONDS.toNanos(5),
+        TimeUnit.MILLISECONDS.toNanos(10),
+        TimeUnit.MILLISECONDS.toNanos(50),
+        TimeUnit.MILLISECONDS.toNanos(100),
+        TimeUnit.MILLISECONDS.toNanos(500),
+        TimeUnit.SECONDS.toNanos(1),
+        TimeUnit.SECONDS.toNanos(5),
+        TimeUnit.SECONDS.toNanos(10),
+        TimeUnit.SECONDS.toNanos(30),
+        TimeUnit.SECONDS.toNanos(60),
+    };
+
+    private final AtomicLongArray buckets;
+    private final LongAdder sum;
+
+    /**
+     * Constructor.
+     */
+    LatencyHistogram() {
+        this.buckets = new AtomicLongArray(UPPER_BOUNDS.length + 1);
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * Records the given duration (in nanoseconds).
+     */
+    void record(final long durationInNanos) {
+        int ix = 0;
+        while (ix < UPPER_BOUNDS.length && durationInNanos > UPPER_BOUNDS[ix]) {
+            ++ix;
+        }
+
+        this.buckets.incrementAndGet(ix);
+        this.sum.add(durationInNanos);
+    }
+
+    /**
+     * Returns the number of buckets (including the unbounded last bucket).
+     */
+    static int getBucketCount() {
+        return UPPER_BOUNDS.length + 1;
+    }
+
+    /**
+     * Returns the upper bound (in nanoseconds) of the bucket with the given index or
+     * {@link Long#MAX_VALUE} for the unbounded last bucket.
+     */
+    static long getUpperBound(final int index) {
+        return index < UPPER_BOUNDS.length ? UPPER_BOUNDS[index] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of recorded durations that fell into the bucket with the given index.
+     */
+    long getBucketValue(final int index) {
+        return this.buckets.get(index);
+    }
+
+    /**
+     * Returns the total number of recorded durations.
+     */
+    long getCount() {
+        long count = 0;
+        for (int ix = 0; ix < this.buckets.length(); ++ix) {
+            count += this.buckets.get(ix);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum (in nanoseconds) of all recorded durations.
+     */
+    long getSum() {
+        return this.sum.sum();
+    }
+}
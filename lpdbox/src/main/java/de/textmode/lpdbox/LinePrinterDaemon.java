@@ -18,11 +18,14 @@ package de.textmode.lpdbox;
 
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -34,12 +37,36 @@ import org.slf4j.Logger;
  */
 public final class LinePrinterDaemon implements Runnable {
 
-    private final int portNumber;
+    /**
+     * Time (in milliseconds) the connections aborted by {@link #drain(long)} are given to clean up.
+     */
+    private static final long FORCED_STOP_GRACE_PERIOD = 1000L;
+
+    /**
+     * Capacity (in bytes) of the {@link ByteBufferPool} if none has been set.
+     */
+    private static final long DEFAULT_BUFFER_POOL_CAPACITY = 16L * 1024L * 1024L;
+
+    private final Transport transport;
     private final Logger logger;
     private final DaemonCommandHandlerFactory factory;
-    private final ExecutorService executorService;
+    private final ThreadPoolExecutor executorService;
+    private final LinePrinterDaemonStatistics statistics;
+    private final ConnectionRegistry connectionRegistry;
+    private final HandlerWatchdog watchdog;
+    private final ByteBufferPool bufferPool;
+    private final MemoryBudget memoryBudget;
+    private final DiskSpaceReservation diskSpaceReservation;
+    private final boolean isUnknownLengthDataFilesSupported;
+    private final long maxUnknownDataFileLength;
+    private final CloseStrategy closeStrategy;
+    private final long closeTimeout;
+    private final boolean isResetRejectedConnections;
+
+    private final CompletableFuture<Void> startupFuture;
+    private final CountDownLatch terminationLatch;
 
-    private volatile ServerSocket serverSocket;
+    private volatile boolean isRunCalled;
     private volatile boolean isRunning;
     private volatile boolean isShutdownRequested;
 
@@ -47,61 +74,246 @@ public final class LinePrinterDaemon implements Runnable {
      * Constructor. Use the {@link de.textmode.lpdbox.LinePrinterDaemonBuilder} to
      * build the {@link LinePrinterDaemon}.
      */
-    LinePrinterDaemon(
-            final int portNumber,
-            final int maxThreads,
-            final DaemonCommandHandlerFactory factory,
-            final Logger logger) {
+    LinePrinterDaemon(final LinePrinterDaemonBuilder builder) {
+        this.transport = builder.getTransport() == null
+                ? new TcpTransport(builder.getPortNumber())
+                : builder.getTransport();
+        this.factory = builder.getFactory();
+        this.logger = builder.getLogger();
+
+        this.bufferPool = builder.getBufferPool() == null
+                ? new ByteBufferPool(DEFAULT_BUFFER_POOL_CAPACITY)
+                : builder.getBufferPool();
+
+        this.memoryBudget = builder.getMemoryBudget() <= 0
+                ? null
+                : new MemoryBudget(builder.getMemoryBudget(), builder.getMemoryBudgetWait());
 
-        this.portNumber = portNumber;
-        this.factory = factory;
-        this.logger = logger;
+        this.diskSpaceReservation = builder.getSpoolDirectory() == null
+                ? null
+                : new DiskSpaceReservation(builder.getSpoolDirectory(), builder.getMinFreeSpoolSpace());
+
+        this.isUnknownLengthDataFilesSupported = builder.isUnknownLengthDataFiles();
+        this.maxUnknownDataFileLength = builder.getMaxUnknownDataFileLength();
+        this.closeStrategy = builder.getCloseStrategy();
+        this.closeTimeout = builder.getCloseTimeout();
+        this.isResetRejectedConnections = builder.isResetRejectedConnections();
+
+        final int maxThreads = builder.getMaxThreads();
 
-        this.serverSocket = null;
         this.isRunning = false;
         this.isShutdownRequested = false;
+        this.startupFuture = new CompletableFuture<>();
+        this.terminationLatch = new CountDownLatch(1);
+        this.statistics = new LinePrinterDaemonStatistics();
+        this.connectionRegistry = new ConnectionRegistry();
 
-        this.executorService = Executors.newFixedThreadPool(maxThreads, new ThreadFactory() {
+        this.watchdog = builder.getStuckHandlerThreshold() <= 0 ? null : new HandlerWatchdog(
+                this.logger,
+                this.connectionRegistry,
+                builder.getStuckHandlerThreshold(),
+                builder.isInterruptStuckHandlers(),
+                builder.getStuckHandlerListener());
+
+        this.executorService = new ThreadPoolExecutor(
+                maxThreads,
+                maxThreads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
 
-            @Override
-            public Thread newThread(final Runnable r) {
-                final Thread thread = Executors.defaultThreadFactory().newThread(r);
-                thread.setDaemon(true);
-                thread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
                     @Override
-                    public void uncaughtException(final Thread t, final Throwable e) {
-                        LinePrinterDaemon.this.logger.error(
-                                "An unhandled error occurred in thread "
-                                        + t.getName()
-                                        + ": "
-                                        + e.getMessage());
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = Executors.defaultThreadFactory().newThread(r);
+                        thread.setDaemon(true);
+                        thread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
+                            @Override
+                            public void uncaughtException(final Thread t, final Throwable e) {
+                                LinePrinterDaemon.this.logger.error(
+                                        "An unhandled error occurred in thread "
+                                                + t.getName()
+                                                + ": "
+                                                + e.getMessage());
+                            }
+                        });
+
+                        return thread;
                     }
                 });
-
-                return thread;
-            }
-        });
     }
 
     /**
-     * Opens the {@link ServerSocket} but do not wait and/or accept incoming connections.
-     * This method can be used to check if the server can be started (i. e. check if the
-     * port number is available).
+     * Binds the {@link Transport} (i. e. opens the server socket) but do not wait and/or accept
+     * incoming connections. This method can be used to check if the server can be started
+     * (i. e. check if the port number is available).
      */
     public void startup() throws IOException {
-        if (this.serverSocket == null) {
-            this.serverSocket = new ServerSocket(this.portNumber);
-            this.serverSocket.setReuseAddress(true);
+        // The Transport may have been bound before (i. e. an adopted listening socket)...
+        try {
+            this.transport.bind();
+        } catch (final IOException e) {
+            this.startupFuture.completeExceptionally(e);
+            throw e;
+        }
 
-            this.logger.info("Line Printer Daemon initialized (listening on port " + this.portNumber + ")");
+        if (this.startupFuture.complete(null)) {
+            this.logger.info("Line Printer Daemon initialized (listening on " + this.transport.getDescription() + ")");
         }
     }
 
+    /**
+     * Returns a {@link CompletableFuture} that completes as soon as the {@link Transport} has been
+     * bound (i. e. the server socket is listening), so clients can connect. The {@link CompletableFuture}
+     * completes exceptionally if the {@link Transport} could not be bound.
+     */
+    public CompletableFuture<Void> getStartupFuture() {
+        return this.startupFuture;
+    }
+
     /**
      * Returns <code>true</code> if the server is up and running.
      */
     public boolean isRunning() {
-        return this.serverSocket != null && this.isRunning;
+        return this.transport.isBound() && this.isRunning;
+    }
+
+    /**
+     * Returns <code>true</code> if the server is overloaded, meaning that all threads are busy
+     * and accepted connections are waiting to be handled.
+     */
+    public boolean isOverloaded() {
+        return !this.executorService.getQueue().isEmpty();
+    }
+
+    /**
+     * Returns the maximum number of threads that handle client connections.
+     */
+    public int getMaxThreads() {
+        return this.executorService.getMaximumPoolSize();
+    }
+
+    /**
+     * Returns the (approximate) number of threads that are currently handling a client connection.
+     */
+    public int getActiveThreads() {
+        return this.executorService.getActiveCount();
+    }
+
+    /**
+     * Returns the number of accepted client connections that are waiting for a free thread.
+     */
+    public int getWaitingConnections() {
+        return this.executorService.getQueue().size();
+    }
+
+    /**
+     * Returns the {@link LinePrinterDaemonStatistics} of this {@link LinePrinterDaemon}.
+     */
+    public LinePrinterDaemonStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Returns a snapshot of all client connections that are currently handled (or waiting
+     * to be handled) by this {@link LinePrinterDaemon}.
+     */
+    public List<ConnectionInfo> getConnections() {
+        return this.connectionRegistry.snapshot();
+    }
+
+    /**
+     * Aborts the client connection with the given id (see {@link ConnectionInfo#getId()}) forcibly.
+     * Returns <code>false</code> if no connection with the given id exists.
+     */
+    public boolean abortConnection(final long id) {
+        return this.connectionRegistry.abortConnection(id);
+    }
+
+    /**
+     * Returns the {@link LinePrinterDaemonConnectionsMXBean} that exposes the client connections
+     * via JMX. The caller is responsible to register it at a {@link javax.management.MBeanServer}.
+     */
+    public LinePrinterDaemonConnectionsMXBean getConnectionsMXBean() {
+        return this.connectionRegistry;
+    }
+
+    /**
+     * Returns the {@link ByteBufferPool} of this {@link LinePrinterDaemon}. The {@link DaemonCommandHandler}s
+     * can use it for their transfer buffers as well.
+     */
+    public ByteBufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    /**
+     * Returns the {@link ConnectionRegistry} to be used.
+     */
+    ConnectionRegistry getConnectionRegistry() {
+        return this.connectionRegistry;
+    }
+
+    /**
+     * Returns the {@link Logger} to be used.
+     */
+    Logger getLogger() {
+        return this.logger;
+    }
+
+    /**
+     * Returns the {@link DaemonCommandHandlerFactory} to be used.
+     */
+    DaemonCommandHandlerFactory getFactory() {
+        return this.factory;
+    }
+
+    /**
+     * Returns the {@link MemoryBudget} to be used (may be <code>null</code>).
+     */
+    MemoryBudget getMemoryBudget() {
+        return this.memoryBudget;
+    }
+
+    /**
+     * Returns the {@link DiskSpaceReservation} to be used (may be <code>null</code>).
+     */
+    DiskSpaceReservation getDiskSpaceReservation() {
+        return this.diskSpaceReservation;
+    }
+
+    /**
+     * Returns <code>true</code> if data files with the length 0 are data files of unknown length.
+     */
+    boolean isUnknownLengthDataFilesSupported() {
+        return this.isUnknownLengthDataFilesSupported;
+    }
+
+    /**
+     * Returns the maximum length (in bytes) of a data file of unknown length (0 if there is no maximum).
+     */
+    long getMaxUnknownDataFileLength() {
+        return this.maxUnknownDataFileLength;
+    }
+
+    /**
+     * Returns the {@link CloseStrategy} to be used.
+     */
+    CloseStrategy getCloseStrategy() {
+        return this.closeStrategy;
+    }
+
+    /**
+     * Returns the close timeout (in milliseconds) to be used.
+     */
+    long getCloseTimeout() {
+        return this.closeTimeout;
+    }
+
+    /**
+     * Returns <code>true</code> if rejected connections should be reset.
+     */
+    boolean isResetRejectedConnections() {
+        return this.isResetRejectedConnections;
     }
 
     /**
@@ -110,22 +322,36 @@ public final class LinePrinterDaemon implements Runnable {
      */
     @Override
     public void run() {
+        this.isRunCalled = true;
 
         try {
-            if (this.serverSocket == null) {
-                this.startup();
-            }
+            this.startup();
+            this.startWatchdog();
             this.handleConnections();
         } catch (final Throwable e) {
+            this.startupFuture.completeExceptionally(e);
             if (!this.isShutdownRequested) {
                 this.logger.error(e.getMessage());
             }
-        }
+        } finally {
+            this.isRunning = false;
+            Util.closeQuietly(this.transport);
 
-        this.isRunning = false;
+            // The executor is shut down after the accept loop has ended, so a connection
+            // accepted while stopping is still handled...
+            this.executorService.shutdown();
+            this.terminationLatch.countDown();
+        }
+    }
 
-        if (this.serverSocket != null && !this.serverSocket.isClosed()) {
-            Util.closeQuietly(this.serverSocket);
+    /**
+     * Starts the {@link HandlerWatchdog} (if configured) in a separate daemon thread.
+     */
+    private void startWatchdog() {
+        if (this.watchdog != null) {
+            final Thread thread = new Thread(this.watchdog, "lpdbox-watchdog");
+            thread.setDaemon(true);
+            thread.start();
         }
     }
 
@@ -137,9 +363,13 @@ public final class LinePrinterDaemon implements Runnable {
 
         while (!this.isShutdownRequested) {
             this.logger.debug("Waiting for incoming connection");
-            final Socket connection = this.serverSocket.accept();
+            final TransportConnection connection = this.transport.accept();
+            if (connection == null) {
+                continue;
+            }
 
-            this.logger.info("Accepted connection from " + Util.getClientString(connection));
+            this.logger.info("Accepted connection from " + connection.getClient());
+            this.statistics.connectionAccepted();
             this.handleConnection(connection);
         }
     }
@@ -147,11 +377,58 @@ public final class LinePrinterDaemon implements Runnable {
     /**
      * Handles a connection from a client. The connection is handled in a separate thread.
      */
-    private void handleConnection(final Socket connection) {
-        this.executorService.execute(new LinePrinterDaemonConnectionHandler(
-                this.logger,
-                connection,
-                this.factory));
+    private void handleConnection(final TransportConnection connection) {
+        this.executorService.execute(new LinePrinterDaemonConnectionHandler(this, connection));
+    }
+
+    /**
+     * Stops accepting connections. Connections that have already been accepted are handled
+     * as usual.
+     */
+    private void stopAccepting() {
+        this.isShutdownRequested = true;
+        if (!this.isRunCalled) {
+            this.executorService.shutdown();
+        }
+
+        // Closing the transport causes an exception on the
+        // Transport.accept() method.... And this let's the server end...
+        Util.closeQuietly(this.transport);
+    }
+
+    /**
+     * Hands the listening socket off to a new {@link LinePrinterDaemon} for a restart without
+     * closing the port. This {@link LinePrinterDaemon} stops accepting connections and the
+     * returned {@link Transport} has to be passed to the new {@link LinePrinterDaemon} using
+     * {@link LinePrinterDaemonBuilder#transport(Transport)}. Afterwards this {@link LinePrinterDaemon}
+     * should be {@link #drain(long) drained}:
+     *
+     * <pre>
+     * final LinePrinterDaemon successor = new LinePrinterDaemonBuilder(factory)
+     *     .transport(daemon.handOff())
+     *     .build();
+     *
+     * new Thread(successor).start();
+     * daemon.drain(30000);
+     * </pre>
+     *
+     * Throws an {@link UnsupportedOperationException} if the {@link Transport} does not support a handoff.
+     */
+    public Transport handOff() throws IOException {
+        final Transport successor = this.transport.handOff();
+        this.logger.info("Handed off " + this.transport.getDescription() + " to a new line printer daemon");
+        this.isShutdownRequested = true;
+        return successor;
+    }
+
+    /**
+     * Waits until the accept loop has ended (if {@link #run()} has been called) but not beyond
+     * the given deadline (see {@link System#nanoTime()}). Returns <code>true</code> if the accept
+     * loop has ended.
+     */
+    private boolean awaitAcceptLoop(final long deadline) throws InterruptedException {
+        return !this.isRunCalled
+                || this.terminationLatch.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -162,32 +439,82 @@ public final class LinePrinterDaemon implements Runnable {
     public void stop() {
         this.logger.info("Stopping line printer daemon");
 
-        this.isShutdownRequested = true;
-        this.executorService.shutdown();
+        this.stopAccepting();
 
-        // Closing the server socket causes an exception on the
-        // ServerSocket.accept() method.... And this let's the server end...
-        Util.closeQuietly(this.serverSocket);
+        if (this.watchdog != null) {
+            this.watchdog.stop();
+        }
     }
 
     /**
      * Stops the {@link LinePrinterDaemon}. This method waits up to the given milliseconds until
-     * the {@link LinePrinterDaemon} has been stopped. If the {@link LinePrinterDaemon} has been
-     * ended within that given timeout, <code>true</code> is returned, otherwise <code>false</code>.
+     * the {@link LinePrinterDaemon} has been stopped and the connections being handled have ended.
+     * If the {@link LinePrinterDaemon} has been ended within that given timeout, <code>true</code>
+     * is returned, otherwise <code>false</code>.
      */
     public boolean stop(final long timeoutInMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+
         this.stop();
 
-        for (int ix = 0; ix < timeoutInMillis; ix += 100) {
-            if (!this.isRunning) {
-                this.logger.info("Line printer daemon stopped");
-                this.executorService.awaitTermination(timeoutInMillis, TimeUnit.MILLISECONDS);
+        if (this.awaitAcceptLoop(deadline)) {
+            this.logger.info("Line printer daemon stopped");
+            if (this.executorService.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
                 return true;
             }
-            Thread.sleep(100);
+
+            this.logger.info("Connections of the line printer daemon are still being handled");
+            return false;
         }
 
         this.logger.info("The line printer daemon is still alive (refuses to stop)");
         return false;
     }
+
+    /**
+     * Stops the {@link LinePrinterDaemon} gracefully. New connections are no longer accepted,
+     * but the connections that have already been accepted (including those waiting for a free
+     * thread) are handled up to the given timeout. Connections that have not ended by then are
+     * aborted forcibly, so the {@link DaemonCommandHandler} gets a call of
+     * {@link DaemonCommandHandler#abortPrinterJob()} for an incomplete printer job.
+     *
+     * <p>Returns <code>true</code> if all connections have ended within the timeout and no
+     * connection had to be aborted.</p>
+     */
+    public boolean drain(final long timeoutInMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+
+        this.logger.info("Draining line printer daemon");
+        this.stopAccepting();
+
+        try {
+            this.awaitAcceptLoop(deadline);
+            if (this.executorService.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                this.logger.info("Line printer daemon drained");
+                return true;
+            }
+
+            // The connections are aborted before the threads get interrupted, so the handlers
+            // know that they have to clean up. Connections still waiting for a free thread will
+            // never be handled...
+            final List<ConnectionEntry> remaining = new ArrayList<>(this.connectionRegistry.getEntries());
+            for (final ConnectionEntry entry : remaining) {
+                entry.abort();
+            }
+
+            for (final Runnable waiting : this.executorService.shutdownNow()) {
+                if (waiting instanceof LinePrinterDaemonConnectionHandler) {
+                    ((LinePrinterDaemonConnectionHandler) waiting).discard();
+                }
+            }
+
+            this.logger.warn("Aborted " + remaining.size() + " connection(s) that did not end in time");
+            this.executorService.awaitTermination(FORCED_STOP_GRACE_PERIOD, TimeUnit.MILLISECONDS);
+            return false;
+        } finally {
+            if (this.watchdog != null) {
+                this.watchdog.stop();
+            }
+        }
+    }
 }
@@ -16,6 +16,8 @@ package de.textmode.lpdbox;
  * limitations under the License.
  */
 
+import java.nio.file.Path;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,12 +28,31 @@ public final class LinePrinterDaemonBuilder {
 
     private static final int DEFAULT_PORT_NUMBER = 515;
     private static final int DEFAULT_MAX_THREADS = 10;
+    private static final long DEFAULT_CLOSE_TIMEOUT = 1000L;
 
     private final DaemonCommandHandlerFactory factory;
 
     private int portNumber;
     private int maxThreads;
     private Logger logger;
+    private Transport transport;
+
+    private long stuckHandlerThreshold;
+    private boolean interruptStuckHandlers;
+    private StuckHandlerListener stuckHandlerListener;
+
+    private CloseStrategy closeStrategy;
+    private long closeTimeout;
+    private boolean resetRejectedConnections;
+
+    private long memoryBudget;
+    private long memoryBudgetWait;
+
+    private ByteBufferPool bufferPool;
+    private Path spoolDirectory;
+    private boolean unknownLengthDataFiles;
+    private long maxUnknownDataFileLength;
+    private long minFreeSpoolSpace;
 
     /**
      * Constructor of the {@link LinePrinterDaemonBuilder}.
@@ -41,6 +62,8 @@ public final class LinePrinterDaemonBuilder {
 
         this.portNumber = DEFAULT_PORT_NUMBER;
         this.maxThreads = DEFAULT_MAX_THREADS;
+        this.closeStrategy = CloseStrategy.IMMEDIATE;
+        this.closeTimeout = DEFAULT_CLOSE_TIMEOUT;
 
         this.logger = LoggerFactory.getLogger(LinePrinterDaemon.class);
     }
@@ -61,6 +84,16 @@ public final class LinePrinterDaemonBuilder {
         return this;
     }
 
+    /**
+     * Sets the {@link Transport} that accepts the client connections (i. e. a
+     * {@link UnixDomainSocketTransport}). If a {@link Transport} is set, the port number is ignored.
+     * By default a {@link TcpTransport} is used.
+     */
+    public LinePrinterDaemonBuilder transport(final Transport value) {
+        this.transport = value;
+        return this;
+    }
+
     /**
      * Sets the maximum number of threads the {@link LinePrinterDaemon} should start.
      */
@@ -69,10 +102,270 @@ public final class LinePrinterDaemonBuilder {
         return this;
     }
 
+    /**
+     * Sets the time (in milliseconds) a call to a {@link DaemonCommandHandler} may take before it is
+     * considered to be stuck. If the threshold is greater than zero, the {@link LinePrinterDaemon}
+     * starts a watchdog thread that logs the stack trace of stuck threads. While a file is being
+     * received, the threshold applies to the time no bytes have been received. The default
+     * is 0 (no watchdog).
+     */
+    public LinePrinterDaemonBuilder stuckHandlerThreshold(final long valueInMillis) {
+        this.stuckHandlerThreshold = valueInMillis;
+        return this;
+    }
+
+    /**
+     * Sets if threads that are stuck in a call to a {@link DaemonCommandHandler} should be interrupted
+     * and their connection (and printer job) aborted. The default is <code>false</code>.
+     */
+    public LinePrinterDaemonBuilder interruptStuckHandlers(final boolean value) {
+        this.interruptStuckHandlers = value;
+        return this;
+    }
+
+    /**
+     * Sets the {@link StuckHandlerListener} that gets notified about stuck handler calls.
+     */
+    public LinePrinterDaemonBuilder stuckHandlerListener(final StuckHandlerListener value) {
+        this.stuckHandlerListener = value;
+        return this;
+    }
+
+    /**
+     * Sets the {@link CloseStrategy} that determines how client connections are closed. The
+     * default is {@link CloseStrategy#IMMEDIATE}.
+     */
+    public LinePrinterDaemonBuilder closeStrategy(final CloseStrategy value) {
+        this.closeStrategy = value;
+        return this;
+    }
+
+    /**
+     * Sets the time (in milliseconds) the {@link LinePrinterDaemon} waits for the client to close
+     * the connection if the {@link CloseStrategy#WAIT_FOR_CLIENT} is used. Note that the thread
+     * handling the connection is blocked meanwhile. The default is 1000 milliseconds.
+     */
+    public LinePrinterDaemonBuilder closeTimeout(final long valueInMillis) {
+        this.closeTimeout = valueInMillis;
+        return this;
+    }
+
+    /**
+     * Sets if rejected connections (unknown command, refused printer job or file, errors) should
+     * be closed abortively with a TCP reset, so no TIME_WAIT state is kept for them. Data not yet
+     * sent to the client (i. e. a negative acknowledgement) may get lost. The default is <code>false</code>.
+     */
+    public LinePrinterDaemonBuilder resetRejectedConnections(final boolean value) {
+        this.resetRejectedConnections = value;
+        return this;
+    }
+
+    /**
+     * Sets the number of bytes all files in flight (announced by the clients but not yet completely
+     * processed) may have in total. The declared length of a file is reserved before the file is
+     * acknowledged and released when the printer job has ended or has been aborted, so handlers that
+     * keep the files in memory do not exceed the heap. Files exceeding the budget are acknowledged
+     * negatively. The default is 0 (no budget).
+     */
+    public LinePrinterDaemonBuilder memoryBudget(final long valueInBytes) {
+        this.memoryBudget = valueInBytes;
+        return this;
+    }
+
+    /**
+     * Sets the time (in milliseconds) a connection waits for other connections to release their
+     * reservations if the memory budget is exhausted. The default is 0 (no waiting).
+     */
+    public LinePrinterDaemonBuilder memoryBudgetWait(final long valueInMillis) {
+        this.memoryBudgetWait = valueInMillis;
+        return this;
+    }
+
+    /**
+     * Sets the {@link ByteBufferPool} the {@link LinePrinterDaemon} takes its read buffers from. This
+     * allows to share a {@link ByteBufferPool} with the {@link DaemonCommandHandler}s before the
+     * {@link LinePrinterDaemon} has been built. By default the {@link LinePrinterDaemon} creates
+     * a {@link ByteBufferPool} with a capacity of 16 MiB.
+     */
+    public LinePrinterDaemonBuilder bufferPool(final ByteBufferPool value) {
+        this.bufferPool = value;
+        return this;
+    }
+
+    /**
+     * Sets if a data file with the declared length 0 should be treated as a data file of unknown
+     * length, as sent by LPRng and some embedded clients. The client streams such a data file until
+     * it closes the connection, so the data file is always the last file of a printer job. The
+     * {@link DaemonCommandHandler} gets the file length {@link DaemonCommandHandler#UNKNOWN_FILE_LENGTH}
+     * and has to read the {@link java.io.InputStream} until its end. The default is <code>false</code>
+     * (a data file with the length 0 is an empty file).
+     */
+    public LinePrinterDaemonBuilder unknownLengthDataFiles(final boolean value) {
+        this.unknownLengthDataFiles = value;
+        return this;
+    }
+
+    /**
+     * Sets the number of bytes a data file of unknown length may have at most (see
+     * {@link #unknownLengthDataFiles(boolean)}). This length is reserved from the memory budget and on the
+     * spool volume before the data file is acknowledged, and receiving the data file fails if the client
+     * sends more. If a memory budget or a spool directory is set but no maximum length, data files of
+     * unknown length are acknowledged negatively. The default is 0 (no maximum length).
+     */
+    public LinePrinterDaemonBuilder maxUnknownDataFileLength(final long valueInBytes) {
+        this.maxUnknownDataFileLength = valueInBytes;
+        return this;
+    }
+
+    /**
+     * Sets a directory on the volume your {@link DaemonCommandHandler} spools the data files to. If
+     * set, the declared length of a data file is reserved on that volume before the file is
+     * acknowledged. Data files that do not fit into the usable space (minus the space reserved for
+     * other data files being received) are acknowledged negatively. By default no space is reserved.
+     */
+    public LinePrinterDaemonBuilder spoolDirectory(final Path value) {
+        this.spoolDirectory = value;
+        return this;
+    }
+
+    /**
+     * Sets the number of bytes that must remain free on the spool volume. The default is 0.
+     */
+    public LinePrinterDaemonBuilder minFreeSpoolSpace(final long valueInBytes) {
+        this.minFreeSpoolSpace = valueInBytes;
+        return this;
+    }
+
     /**
      * Builds the {@link LinePrinterDaemon}.
      */
     public LinePrinterDaemon build() {
-        return new LinePrinterDaemon(this.portNumber, this.maxThreads, this.factory, this.logger);
+        return new LinePrinterDaemon(this);
+    }
+
+    /**
+     * Returns the {@link DaemonCommandHandlerFactory}.
+     */
+    DaemonCommandHandlerFactory getFactory() {
+        return this.factory;
+    }
+
+    /**
+     * Returns the port number.
+     */
+    int getPortNumber() {
+        return this.portNumber;
+    }
+
+    /**
+     * Returns the {@link Transport} (may be <code>null</code>).
+     */
+    Transport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Returns the maximum number of threads.
+     */
+    int getMaxThreads() {
+        return this.maxThreads;
+    }
+
+    /**
+     * Returns the {@link Logger}.
+     */
+    Logger getLogger() {
+        return this.logger;
+    }
+
+    /**
+     * Returns the threshold (in milliseconds) for stuck handler calls.
+     */
+    long getStuckHandlerThreshold() {
+        return this.stuckHandlerThreshold;
+    }
+
+    /**
+     * Returns <code>true</code> if stuck handler calls should be interrupted.
+     */
+    boolean isInterruptStuckHandlers() {
+        return this.interruptStuckHandlers;
+    }
+
+    /**
+     * Returns the {@link StuckHandlerListener} (may be <code>null</code>).
+     */
+    StuckHandlerListener getStuckHandlerListener() {
+        return this.stuckHandlerListener;
+    }
+
+    /**
+     * Returns the {@link CloseStrategy}.
+     */
+    CloseStrategy getCloseStrategy() {
+        return this.closeStrategy;
+    }
+
+    /**
+     * Returns the close timeout (in milliseconds).
+     */
+    long getCloseTimeout() {
+        return this.closeTimeout;
+    }
+
+    /**
+     * Returns <code>true</code> if rejected connections should be reset.
+     */
+    boolean isResetRejectedConnections() {
+        return this.resetRejectedConnections;
+    }
+
+    /**
+     * Returns the memory budget (in bytes).
+     */
+    long getMemoryBudget() {
+        return this.memoryBudget;
+    }
+
+    /**
+     * Returns the time (in milliseconds) to wait for the memory budget.
+     */
+    long getMemoryBudgetWait() {
+        return this.memoryBudgetWait;
+    }
+
+    /**
+     * Returns the spool directory (may be <code>null</code>).
+     */
+    Path getSpoolDirectory() {
+        return this.spoolDirectory;
+    }
+
+    /**
+     * Returns the number of bytes that must remain free on the spool volume.
+     */
+    long getMinFreeSpoolSpace() {
+        return this.minFreeSpoolSpace;
+    }
+
+    /**
+     * Returns the {@link ByteBufferPool} (may be <code>null</code>).
+     */
+    ByteBufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    /**
+     * Returns <code>true</code> if data files with the length 0 are data files of unknown length.
+     */
+    boolean isUnknownLengthDataFiles() {
+        return this.unknownLengthDataFiles;
+    }
+
+    /**
+     * Returns the maximum length (in bytes) of a data file of unknown length (0 if there is no maximum).
+     */
+    long getMaxUnknownDataFileLength() {
+        return this.maxUnknownDataFileLength;
     }
 }
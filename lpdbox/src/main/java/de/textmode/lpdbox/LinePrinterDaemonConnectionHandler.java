@@ -19,7 +19,7 @@ package de.textmode.lpdbox;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.Socket;
+import java.nio.channels.ReadableByteChannel;
 
 import org.slf4j.Logger;
 
@@ -35,21 +35,42 @@ final class LinePrinterDaemonConnectionHandler implements Runnable {
     private static final int COMMAND_CODE_REPORT_QUEUE_STATE_LONG = 0x04;
     private static final int COMMAND_CODE_REMOVE_PRINT_JOBS = 0x05;
 
+    private static final int READ_BUFFER_SIZE = 8192;
+
     private final Logger logger;
-    private final Socket connection;
+    private final TransportConnection connection;
     private final DaemonCommandHandlerFactory factory;
+    private final LinePrinterDaemonStatistics statistics;
+    private final ConnectionRegistry registry;
+    private final ConnectionEntry entry;
+    private final ByteBufferPool bufferPool;
+    private final MemoryBudget memoryBudget;
+    private final DiskSpaceReservation diskSpace;
+    private final boolean isUnknownLengthSupported;
+    private final long maxUnknownLength;
+    private final CloseStrategy closeStrategy;
+    private final long closeTimeout;
+    private final boolean isResetRejectedConnections;
 
     /**
-     * Constructor.
+     * Constructor. The connection gets registered in the {@link ConnectionRegistry} of the
+     * {@link LinePrinterDaemon} immediately, so it is visible while waiting for a free thread.
      */
-    LinePrinterDaemonConnectionHandler(
-            final Logger logger,
-            final Socket connection,
-            final DaemonCommandHandlerFactory factory) {
-
-        this.logger = logger;
+    LinePrinterDaemonConnectionHandler(final LinePrinterDaemon daemon, final TransportConnection connection) {
+        this.logger = daemon.getLogger();
         this.connection = connection;
-        this.factory = factory;
+        this.factory = daemon.getFactory();
+        this.statistics = daemon.getStatistics();
+        this.registry = daemon.getConnectionRegistry();
+        this.entry = this.registry.register(connection);
+        this.bufferPool = daemon.getBufferPool();
+        this.memoryBudget = daemon.getMemoryBudget();
+        this.diskSpace = daemon.getDiskSpaceReservation();
+        this.isUnknownLengthSupported = daemon.isUnknownLengthDataFilesSupported();
+        this.maxUnknownLength = daemon.getMaxUnknownDataFileLength();
+        this.closeStrategy = daemon.getCloseStrategy();
+        this.closeTimeout = daemon.getCloseTimeout();
+        this.isResetRejectedConnections = daemon.isResetRejectedConnections();
     }
 
     /**
@@ -57,38 +78,122 @@ final class LinePrinterDaemonConnectionHandler implements Runnable {
      */
     @Override
     public void run() {
-        final String client = Util.getClientString(this.connection);
+        final String client = this.connection.getClient();
         try {
             this.logger.debug("Handling connection from " + client);
             this.handleConnection();
             this.logger.debug("Handled connection from " + client + " successfully");
         } catch (final Throwable e) {
-            this.logger.error("An error occurred while handling connection from " + client + ": " + e.getMessage());
+            this.statistics.connectionFailed();
+            this.entry.markRejected();
+            if (this.entry.isAborted()) {
+                this.logger.warn("Connection from " + client + " has been aborted: " + e.getMessage());
+            } else {
+                this.logger.error(
+                        "An error occurred while handling connection from " + client + ": " + e.getMessage());
+            }
         } finally {
+            this.entry.setPhase(ConnectionPhase.CLOSING);
+            this.closeConnection();
+            this.registry.unregister(this.entry);
+        }
+    }
+
+    /**
+     * Closes the connection according to the configured {@link CloseStrategy}.
+     */
+    private void closeConnection() {
+        final boolean isWaitingForClient = this.closeStrategy == CloseStrategy.WAIT_FOR_CLIENT
+                && this.connection.isGracefulCloseSupported();
+
+        try {
+            if (this.entry.isAborted()) {
+                this.connection.close();
+            } else if (this.entry.isRejected() && this.isResetRejectedConnections) {
+                this.connection.reset();
+                this.statistics.connectionReset();
+            } else if (isWaitingForClient) {
+                if (this.connection.closeGracefully(this.closeTimeout)) {
+                    this.statistics.connectionClosedByClient();
+                } else {
+                    this.statistics.connectionCloseTimedOut();
+                }
+            } else {
+                this.connection.close();
+                this.statistics.connectionClosedImmediately();
+            }
+        } catch (final IOException e) {
+            this.logger.debug(
+                    "Closing the connection from " + this.connection.getClient() + " failed: " + e.getMessage());
             Util.closeQuietly(this.connection);
         }
     }
 
+    /**
+     * Gets called if the connection will never be handled because the {@link LinePrinterDaemon}
+     * is stopped forcibly while the connection is waiting for a free thread.
+     */
+    void discard() {
+        this.logger.warn("Connection from " + this.connection.getClient() + " has been discarded");
+        this.entry.setPhase(ConnectionPhase.CLOSING);
+        Util.closeQuietly(this.connection);
+        this.registry.unregister(this.entry);
+    }
+
+    /**
+     * Handles the connection from the client. If the connection is based on a channel, the data sent
+     * by the client is read through a buffer taken from the {@link ByteBufferPool} of the
+     * {@link LinePrinterDaemon}. Otherwise the {@link InputStream} of the connection is read directly,
+     * because copying the data through a direct buffer would only add work.
+     */
     private void handleConnection() throws IOException {
+        final ReadableByteChannel channel = this.connection.getChannel();
+        if (channel == null) {
+            this.handleConnection(this.entry.countBytes(this.connection.getInputStream()));
+            return;
+        }
 
-        final String client = Util.getClientString(this.connection);
+        final PooledChannelInputStream pooled =
+                new PooledChannelInputStream(channel, this.bufferPool, READ_BUFFER_SIZE);
+
+        try {
+            this.handleConnection(this.entry.countBytes(pooled));
+        } finally {
+            pooled.close();
+        }
+    }
+
+    /**
+     * Reads the command code and passes the connection to the responsible {@link CommandParser}.
+     */
+    private void handleConnection(final InputStream is) throws IOException {
+
+        final String client = this.connection.getClient();
 
         // Read the first byte - it's value is used to determine the CommandParser that is
         // responsible to parse the incoming data.
-        final InputStream is = this.connection.getInputStream();
         final OutputStream os = this.connection.getOutputStream();
 
+        this.entry.setPhase(ConnectionPhase.WAITING_FOR_COMMAND);
         final int commandCode = is.read();
         if (commandCode == -1) {
             this.logger.error("Connection from " + client + " is down");
             return;
         }
 
-        try (final DaemonCommandHandler handler = this.factory.create()) {
-            if (handler == null) {
-                this.logger.error("A daemon command handler could not be created");
-                return;
-            }
+        this.entry.setCommandCode(commandCode);
+        this.entry.setPhase(ConnectionPhase.PROCESSING_COMMAND);
+
+        final long startTime = System.nanoTime();
+        final DaemonCommandHandler created = this.factory.create();
+        if (created == null) {
+            this.entry.markRejected();
+            this.logger.error("A daemon command handler could not be created");
+            return;
+        }
+
+        try (final DaemonCommandHandler handler =
+                new InstrumentedDaemonCommandHandler(created, this.statistics, this.entry)) {
 
             this.logger.debug("Client " + client + " sent command code " + Integer.toHexString(commandCode));
 
@@ -100,7 +205,14 @@ final class LinePrinterDaemonConnectionHandler implements Runnable {
 
             case COMMAND_CODE_RECEIVE_PRINTER_JOB:
                 this.logger.debug("Received command \"receive printer job\" from " + client);
-                new ReceivePrinterJobCommandParser(this.logger, handler).parse(is, os);
+                new ReceivePrinterJobCommandParser(
+                        this.logger,
+                        handler,
+                        this.memoryBudget,
+                        this.diskSpace,
+                        this.statistics,
+                        this.isUnknownLengthSupported,
+                        this.maxUnknownLength).parse(is, os);
                 break;
 
             case COMMAND_CODE_REPORT_QUEUE_STATE_SHORT:
@@ -119,10 +231,13 @@ final class LinePrinterDaemonConnectionHandler implements Runnable {
                 break;
 
             default:
+                this.entry.markRejected();
                 this.logger.error(
                         "Client " + client + " passed an unknwon command code " + Integer.toHexString(commandCode));
                 break;
             }
+        } finally {
+            this.statistics.commandHandled(commandCode, System.nanoTime() - startTime);
         }
     }
 }
@@ -0,0 +1,44 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * Management interface that exposes the client connections currently handled by a
+ * {@link LinePrinterDaemon}. Register the object returned by
+ * {@link LinePrinterDaemon#getConnectionsMXBean()} at a {@link javax.management.MBeanServer}
+ * to make it available via JMX.
+ */
+public interface LinePrinterDaemonConnectionsMXBean {
+
+    /**
+     * Returns the number of registered client connections.
+     */
+    int getConnectionCount();
+
+    /**
+     * Returns a table with one row per registered client connection (see {@link ConnectionInfo}).
+     */
+    TabularData getConnections();
+
+    /**
+     * Aborts the client connection with the given id. Returns <code>false</code> if no connection
+     * with the given id is registered.
+     */
+    boolean abortConnection(final long id);
+}
@@ -0,0 +1,228 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The {@link LinePrinterDaemonHttpEndpoint} is an optional, embedded HTTP server (based on the
+ * HTTP server shipped with the JDK) that exposes the metrics of a {@link LinePrinterDaemon} in the
+ * Prometheus text format and provides endpoints for liveness and readiness probes:
+ * <ul>
+ * <li><code>/metrics</code> - all metrics in the Prometheus text format</li>
+ * <li><code>/health/live</code> - HTTP 200 if the {@link LinePrinterDaemon} is running, HTTP 503 otherwise</li>
+ * <li><code>/health/ready</code> - HTTP 200 if the {@link LinePrinterDaemon} is running and not
+ * overloaded, HTTP 503 otherwise</li>
+ * </ul>
+ * The HTTP requests are handled by a single thread and the buffers used for rendering and encoding the
+ * responses are reused (they only grow if a response does not fit), so scraping the metrics does not
+ * produce garbage worth mentioning.
+ */
+public final class LinePrinterDaemonHttpEndpoint {
+
+    /**
+     * Path of the metrics endpoint.
+     */
+    public static final String PATH_METRICS = "/metrics";
+
+    /**
+     * Path of the liveness endpoint.
+     */
+    public static final String PATH_LIVENESS = "/health/live";
+
+    /**
+     * Path of the readiness endpoint.
+     */
+    public static final String PATH_READINESS = "/health/ready";
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final LinePrinterDaemon daemon;
+    private final InetSocketAddress address;
+
+    private final StringBuilder text;
+    private final CharsetEncoder encoder;
+
+    private ByteBuffer body;
+
+    private HttpServer server;
+
+    /**
+     * Constructor. The {@link LinePrinterDaemonHttpEndpoint} will listen on the given address
+     * once {@link #start()} has been invoked.
+     */
+    public LinePrinterDaemonHttpEndpoint(final LinePrinterDaemon daemon, final InetSocketAddress address) {
+        this.daemon = daemon;
+        this.address = address;
+
+        this.text = new StringBuilder(INITIAL_BUFFER_SIZE);
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.body = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Starts the HTTP server.
+     */
+    public synchronized void start() throws IOException {
+        if (this.server != null) {
+            return;
+        }
+
+        final HttpServer httpServer = HttpServer.create(this.address, 0);
+
+        httpServer.createContext(PATH_METRICS, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                LinePrinterDaemonHttpEndpoint.this.handleMetrics(exchange);
+            }
+        });
+
+        httpServer.createContext(PATH_LIVENESS, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                LinePrinterDaemonHttpEndpoint.this.handleHealth(
+                        exchange,
+                        LinePrinterDaemonHttpEndpoint.this.daemon.isRunning());
+            }
+        });
+
+        httpServer.createContext(PATH_READINESS, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final LinePrinterDaemon lpd = LinePrinterDaemonHttpEndpoint.this.daemon;
+                LinePrinterDaemonHttpEndpoint.this.handleHealth(exchange, lpd.isRunning() && !lpd.isOverloaded());
+            }
+        });
+
+        // No executor is set, so all requests are handled by the dispatcher thread of the HttpServer...
+        httpServer.start();
+        this.server = httpServer;
+
+        this.daemon.getLogger().info("HTTP endpoint listening on " + this.getAddress());
+    }
+
+    /**
+     * Stops the HTTP server. Requests currently being handled are given up to the given number
+     * of seconds to complete.
+     */
+    public synchronized void stop(final int delayInSeconds) {
+        if (this.server != null) {
+            this.server.stop(delayInSeconds);
+            this.server = null;
+        }
+    }
+
+    /**
+     * Returns the address the HTTP server is listening on. If the HTTP server has been started
+     * with port number 0, the returned address contains the actually used port number.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return this.server == null ? this.address : this.server.getAddress();
+    }
+
+    /**
+     * Handles a request of the metrics endpoint.
+     */
+    private synchronized void handleMetrics(final HttpExchange exchange) throws IOException {
+        this.text.setLength(0);
+        PrometheusTextFormat.render(this.daemon, this.text);
+        this.respond(exchange, HttpURLConnection.HTTP_OK, PrometheusTextFormat.CONTENT_TYPE);
+    }
+
+    /**
+     * Handles a request of the liveness or readiness endpoint.
+     */
+    private synchronized void handleHealth(final HttpExchange exchange, final boolean isHealthy) throws IOException {
+        this.text.setLength(0);
+        this.text.append(isHealthy ? "UP\n" : "DOWN\n");
+        this.respond(
+                exchange,
+                isHealthy ? HttpURLConnection.HTTP_OK : HttpURLConnection.HTTP_UNAVAILABLE,
+                "text/plain; charset=utf-8");
+    }
+
+    /**
+     * Encodes the rendered text (UTF-8) into the reused buffer, which is enlarged if the text does not fit.
+     */
+    private void encode() {
+        final CharBuffer input = CharBuffer.wrap(this.text);
+        this.encoder.reset();
+        this.body.clear();
+
+        CoderResult result = this.encoder.encode(input, this.body, true);
+        while (result.isOverflow()) {
+            this.enlargeBody();
+            result = this.encoder.encode(input, this.body, true);
+        }
+
+        result = this.encoder.flush(this.body);
+        while (result.isOverflow()) {
+            this.enlargeBody();
+            result = this.encoder.flush(this.body);
+        }
+
+        this.body.flip();
+    }
+
+    /**
+     * Replaces the buffer by one twice as large that contains the bytes encoded so far.
+     */
+    private void enlargeBody() {
+        final ByteBuffer larger = ByteBuffer.allocate(this.body.capacity() * 2);
+        this.body.flip();
+        larger.put(this.body);
+        this.body = larger;
+    }
+
+    /**
+     * Encodes the rendered text (UTF-8) and sends it to the client.
+     */
+    private void respond(final HttpExchange exchange, final int status, final String contentType)
+            throws IOException {
+
+        try {
+            this.encode();
+            final boolean isHead = "HEAD".equals(exchange.getRequestMethod());
+
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, isHead ? -1 : this.body.remaining());
+
+            if (!isHead) {
+                final OutputStream os = exchange.getResponseBody();
+                os.write(this.body.array(), this.body.arrayOffset(), this.body.remaining());
+                os.flush();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * The {@link LinePrinterDaemonStatistics} collects the counters of a {@link LinePrinterDaemon}.
+ * All counters are updated lock free, so collecting them does not slow down the handling of
+ * client connections.
+ */
+public final class LinePrinterDaemonStatistics {
+
+    /**
+     * Highest command code defined by RFC 1179. Command codes above this value (and the
+     * command code 0x00) are counted as "unknown".
+     */
+    private static final int MAX_COMMAND_CODE = 0x05;
+
+    private static final String[] COMMAND_NAMES = new String[] {
+        "unknown",
+        "print_jobs",
+        "receive_printer_job",
+        "report_queue_state_short",
+        "report_queue_state_long",
+        "remove_print_jobs",
+    };
+
+    /**
+     * Increments the number of active jobs of a queue (creating the counter if necessary).
+     */
+    private static final BiFunction<String, AtomicLong, AtomicLong> INCREMENT =
+        new BiFunction<String, AtomicLong, AtomicLong>() {
+            @Override
+            public AtomicLong apply(final String queueName, final AtomicLong counter) {
+                if (counter == null) {
+                    return new AtomicLong(1);
+                }
+                counter.incrementAndGet();
+                return counter;
+            }
+        };
+
+    /**
+     * Decrements the number of active jobs of a queue and removes the counter when it reaches zero.
+     */
+    private static final BiFunction<String, AtomicLong, AtomicLong> DECREMENT =
+        new BiFunction<String, AtomicLong, AtomicLong>() {
+            @Override
+            public AtomicLong apply(final String queueName, final AtomicLong counter) {
+                return counter.decrementAndGet() > 0 ? counter : null;
+            }
+        };
+
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsFailed = new LongAdder();
+    private final LongAdder connectionsClosedImmediately = new LongAdder();
+    private final LongAdder connectionsClosedByClient = new LongAdder();
+    private final LongAdder connectionsCloseTimedOut = new LongAdder();
+    private final LongAdder connectionsReset = new LongAdder();
+    private final LongAdder[] commands = new LongAdder[MAX_COMMAND_CODE + 1];
+    private final LatencyHistogram[] commandDurations = new LatencyHistogram[MAX_COMMAND_CODE + 1];
+
+    private final LongAdder jobsStarted = new LongAdder();
+    private final LongAdder jobsRefused = new LongAdder();
+    private final LongAdder jobsAborted = new LongAdder();
+    private final LongAdder jobsEnded = new LongAdder();
+
+    private final LongAdder controlFilesReceived = new LongAdder();
+    private final LongAdder controlFileBytesReceived = new LongAdder();
+    private final LongAdder dataFilesReceived = new LongAdder();
+    private final LongAdder dataFileBytesReceived = new LongAdder();
+    private final LongAdder filesRefusedForMemory = new LongAdder();
+    private final LongAdder filesRefusedForDiskSpace = new LongAdder();
+
+    private final ConcurrentMap<String, AtomicLong> activeJobs = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     */
+    LinePrinterDaemonStatistics() {
+        for (int ix = 0; ix <= MAX_COMMAND_CODE; ++ix) {
+            this.commands[ix] = new LongAdder();
+            this.commandDurations[ix] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Maps the given command code to the index used for the per-command counters.
+     */
+    private static int getCommandIndex(final int commandCode) {
+        return commandCode > 0 && commandCode <= MAX_COMMAND_CODE ? commandCode : 0;
+    }
+
+    /**
+     * Returns a short name (i. e. "receive_printer_job") for the given command code.
+     */
+    static String getCommandName(final int commandCode) {
+        return COMMAND_NAMES[getCommandIndex(commandCode)];
+    }
+
+    /**
+     * Returns the highest command code that is counted separately.
+     */
+    static int getMaxCommandCode() {
+        return MAX_COMMAND_CODE;
+    }
+
+    /**
+     * Counts an accepted client connection.
+     */
+    void connectionAccepted() {
+        this.connectionsAccepted.increment();
+    }
+
+    /**
+     * Counts a client connection that could not be handled successfully.
+     */
+    void connectionFailed() {
+        this.connectionsFailed.increment();
+    }
+
+    /**
+     * Counts a connection that has been closed immediately by the server.
+     */
+    void connectionClosedImmediately() {
+        this.connectionsClosedImmediately.increment();
+    }
+
+    /**
+     * Counts a half-closed connection that has been closed by the client within the close timeout.
+     */
+    void connectionClosedByClient() {
+        this.connectionsClosedByClient.increment();
+    }
+
+    /**
+     * Counts a half-closed connection that has not been closed by the client within the close timeout.
+     */
+    void connectionCloseTimedOut() {
+        this.connectionsCloseTimedOut.increment();
+    }
+
+    /**
+     * Counts a connection that has been closed abortively (TCP reset).
+     */
+    void connectionReset() {
+        this.connectionsReset.increment();
+    }
+
+    /**
+     * Counts a command received from a client and the time (in nanoseconds) it took to handle it.
+     */
+    void commandHandled(final int commandCode, final long durationInNanos) {
+        final int ix = getCommandIndex(commandCode);
+        this.commands[ix].increment();
+        this.commandDurations[ix].record(durationInNanos);
+    }
+
+    /**
+     * Counts a printer job that has been started for the given queue.
+     */
+    void jobStarted(final String queueName) {
+        this.jobsStarted.increment();
+
+        this.activeJobs.compute(queueName, INCREMENT);
+    }
+
+    /**
+     * Counts a printer job that has been refused by the {@link DaemonCommandHandler}.
+     */
+    void jobRefused() {
+        this.jobsRefused.increment();
+    }
+
+    /**
+     * Counts a printer job that has been aborted.
+     */
+    void jobAborted() {
+        this.jobsAborted.increment();
+    }
+
+    /**
+     * Counts a printer job (of the given queue) that has been ended.
+     */
+    void jobEnded(final String queueName) {
+        this.jobsEnded.increment();
+
+        // The queue names are chosen by the clients, so queues without active jobs are removed...
+        this.activeJobs.computeIfPresent(queueName, DECREMENT);
+    }
+
+    /**
+     * Counts a received control file.
+     */
+    void controlFileReceived(final long fileLength) {
+        this.controlFilesReceived.increment();
+        this.controlFileBytesReceived.add(fileLength);
+    }
+
+    /**
+     * Counts a received data file.
+     */
+    void dataFileReceived(final long fileLength) {
+        this.dataFilesReceived.increment();
+        this.dataFileBytesReceived.add(fileLength);
+    }
+
+    /**
+     * Counts a file that has been refused because the memory budget was exhausted.
+     */
+    void fileRefusedForMemory() {
+        this.filesRefusedForMemory.increment();
+    }
+
+    /**
+     * Counts a data file that has been refused because the spool volume is full.
+     */
+    void fileRefusedForDiskSpace() {
+        this.filesRefusedForDiskSpace.increment();
+    }
+
+    /**
+     * Returns the number of accepted client connections.
+     */
+    public long getConnectionsAccepted() {
+        return this.connectionsAccepted.sum();
+    }
+
+    /**
+     * Returns the number of client connections that could not be handled successfully.
+     */
+    public long getConnectionsFailed() {
+        return this.connectionsFailed.sum();
+    }
+
+    /**
+     * Returns the number of connections that have been closed immediately by the server. For TCP
+     * connections the server keeps these connections in the TIME_WAIT state (unless the client had
+     * closed the connection before).
+     */
+    public long getConnectionsClosedImmediately() {
+        return this.connectionsClosedImmediately.sum();
+    }
+
+    /**
+     * Returns the number of half-closed connections that have been closed by the client first,
+     * so the client (and not the server) keeps them in the TIME_WAIT state.
+     */
+    public long getConnectionsClosedByClient() {
+        return this.connectionsClosedByClient.sum();
+    }
+
+    /**
+     * Returns the number of half-closed connections that the client did not close within the
+     * close timeout. These connections have been closed by the server.
+     */
+    public long getConnectionsCloseTimedOut() {
+        return this.connectionsCloseTimedOut.sum();
+    }
+
+    /**
+     * Returns the number of connections that have been closed abortively (TCP reset), so no
+     * TIME_WAIT state is kept at all.
+     */
+    public long getConnectionsReset() {
+        return this.connectionsReset.sum();
+    }
+
+    /**
+     * Returns the number of handled commands with the given command code. All unknown
+     * command codes are counted together with the command code 0x00.
+     */
+    public long getCommandCount(final int commandCode) {
+        return this.commands[getCommandIndex(commandCode)].sum();
+    }
+
+    /**
+     * Returns the {@link LatencyHistogram} for the given command code.
+     */
+    LatencyHistogram getCommandDurations(final int commandCode) {
+        return this.commandDurations[getCommandIndex(commandCode)];
+    }
+
+    /**
+     * Returns the number of started printer jobs.
+     */
+    public long getJobsStarted() {
+        return this.jobsStarted.sum();
+    }
+
+    /**
+     * Returns the number of printer jobs that have been refused by the {@link DaemonCommandHandler}.
+     */
+    public long getJobsRefused() {
+        return this.jobsRefused.sum();
+    }
+
+    /**
+     * Returns the number of aborted printer jobs.
+     */
+    public long getJobsAborted() {
+        return this.jobsAborted.sum();
+    }
+
+    /**
+     * Returns the number of ended printer jobs.
+     */
+    public long getJobsEnded() {
+        return this.jobsEnded.sum();
+    }
+
+    /**
+     * Returns the number of received control files.
+     */
+    public long getControlFilesReceived() {
+        return this.controlFilesReceived.sum();
+    }
+
+    /**
+     * Returns the number of bytes of all received control files.
+     */
+    public long getControlFileBytesReceived() {
+        return this.controlFileBytesReceived.sum();
+    }
+
+    /**
+     * Returns the number of received data files.
+     */
+    public long getDataFilesReceived() {
+        return this.dataFilesReceived.sum();
+    }
+
+    /**
+     * Returns the number of bytes of all received data files.
+     */
+    public long getDataFileBytesReceived() {
+        return this.dataFileBytesReceived.sum();
+    }
+
+    /**
+     * Returns the number of files that have been refused because the memory budget was exhausted.
+     */
+    public long getFilesRefusedForMemory() {
+        return this.filesRefusedForMemory.sum();
+    }
+
+    /**
+     * Returns the number of data files that have been refused because the spool volume is full.
+     */
+    public long getFilesRefusedForDiskSpace() {
+        return this.filesRefusedForDiskSpace.sum();
+    }
+
+    /**
+     * Returns the number of currently active printer jobs per queue name, sorted by the queue name.
+     */
+    public Map<String, Long> getActiveJobs() {
+        final TreeMap<String, Long> result = new TreeMap<>();
+        for (final Map.Entry<String, AtomicLong> entry : this.activeJobs.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns the internal map of active jobs per queue name. Used for rendering the metrics
+     * without copying the map.
+     */
+    Map<String, AtomicLong> getActiveJobCounters() {
+        return this.activeJobs;
+    }
+}
@@ -0,0 +1,263 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link LpdProtocolDecoder} is a resumable, push based decoder for the client side of the
+ * RFC 1179 protocol. Unlike the {@link CommandParser}s it does not read from a blocking
+ * {@link java.io.InputStream}. Instead the data received from the client is passed to
+ * {@link #decode(ByteBuffer)} in fragments of arbitrary size, and the decoder emits protocol
+ * events to a {@link LpdProtocolListener}. Lines that are split across fragments are handled,
+ * and the payload of files is passed as slices of the given {@link ByteBuffer} without copying.
+ * So the decoder can be used by event driven transports (NIO, AsynchronousSocketChannel, ...).
+ *
+ * <p>The decoder does not send acknowledgements, this is up to the caller (typically when the
+ * {@link LpdProtocolListener} gets notified about a command or subcommand).</p>
+ *
+ * <p>A {@link LpdProtocolDecoder} decodes a single connection and is not thread safe.</p>
+ */
+public final class LpdProtocolDecoder {
+
+    /**
+     * Maximum length of a command line or subcommand line.
+     */
+    static final int MAX_LINE_LENGTH = 65536;
+
+    private static final int INITIAL_LINE_LENGTH = 256;
+    private static final int COMMAND_CODE_RECEIVE_PRINTER_JOB = 0x02;
+
+    /**
+     * States of the decoder.
+     */
+    private enum State {
+        COMMAND,
+        COMMAND_LINE,
+        SUBCOMMAND,
+        SUBCOMMAND_LINE,
+        PAYLOAD,
+        TERMINATOR,
+        DONE
+    }
+
+    private final LpdProtocolListener listener;
+
+    private State state;
+    private int commandCode;
+    private int subcommandCode;
+    private long remaining;
+
+    private byte[] line;
+    private int lineLength;
+
+    /**
+     * Constructor.
+     */
+    public LpdProtocolDecoder(final LpdProtocolListener listener) {
+        this.listener = listener;
+        this.state = State.COMMAND;
+        this.line = new byte[INITIAL_LINE_LENGTH];
+    }
+
+    /**
+     * Decodes all bytes between the position and the limit of the given {@link ByteBuffer}. When this
+     * method returns, the position of the {@link ByteBuffer} equals its limit. Throws an
+     * {@link IOException} if the client violates the protocol.
+     */
+    public void decode(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            switch (this.state) {
+            case COMMAND:
+                this.commandCode = buffer.get() & 0xFF;
+                this.listener.command(this.commandCode);
+                this.state = State.COMMAND_LINE;
+                break;
+
+            case COMMAND_LINE:
+                if (this.readLine(buffer)) {
+                    this.handleCommandLine();
+                }
+                break;
+
+            case SUBCOMMAND:
+                this.handleSubcommandCode(buffer.get() & 0xFF);
+                break;
+
+            case SUBCOMMAND_LINE:
+                if (this.readLine(buffer)) {
+                    this.handleSubcommandLine();
+                }
+                break;
+
+            case PAYLOAD:
+                this.handlePayload(buffer);
+                break;
+
+            case TERMINATOR:
+                this.state = State.SUBCOMMAND;
+                this.listener.terminator(buffer.get() == 0x00);
+                break;
+
+            default:
+                // The command is complete, everything else sent by the client is ignored...
+                buffer.position(buffer.limit());
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the decoder is at a boundary where the client may end the
+     * connection without losing data (i. e. not within a line or a file).
+     */
+    public boolean isAtBoundary() {
+        return this.state == State.COMMAND || this.state == State.SUBCOMMAND || this.state == State.DONE;
+    }
+
+    /**
+     * Appends the bytes up to the next line feed to the line buffer. Returns <code>true</code>
+     * if the line is complete.
+     */
+    private boolean readLine(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            final byte b = buffer.get();
+            if (b == 0x0A) {
+                return true;
+            }
+
+            if (this.lineLength == this.line.length) {
+                if (this.line.length >= MAX_LINE_LENGTH) {
+                    throw new IOException("Client sent a line longer than " + MAX_LINE_LENGTH + " bytes");
+                }
+                final byte[] larger = new byte[Math.min(this.line.length * 2, MAX_LINE_LENGTH)];
+                System.arraycopy(this.line, 0, larger, 0, this.lineLength);
+                this.line = larger;
+            }
+
+            this.line[this.lineLength++] = b;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the current line (trimmed) and clears the line buffer.
+     */
+    private String takeLine() {
+        final String result = new String(this.line, 0, this.lineLength, Util.ISO_8859_1).trim();
+        this.lineLength = 0;
+        return result;
+    }
+
+    /**
+     * Handles the complete line following the command code.
+     */
+    private void handleCommandLine() throws IOException {
+        final String text = this.takeLine();
+        if (text.isEmpty()) {
+            throw new IOException("No queue name was provided by the client");
+        }
+
+        int end = 0;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+            ++end;
+        }
+
+        this.state = this.commandCode == COMMAND_CODE_RECEIVE_PRINTER_JOB ? State.SUBCOMMAND : State.DONE;
+        this.listener.queue(text.substring(0, end), text.substring(end).trim());
+    }
+
+    /**
+     * Handles the subcommand code of the command "Receive printer job".
+     */
+    private void handleSubcommandCode(final int code) throws IOException {
+        if (code < ReceivePrinterJobCommandParser.COMMAND_CODE_ABORT_JOB
+                || code > ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_DATA_FILE) {
+
+            throw new IOException("Client passed an unknown second level command code 0x"
+                    + Integer.toHexString(code)
+                    + " for the command receive printer job");
+        }
+
+        this.subcommandCode = code;
+
+        if (code == ReceivePrinterJobCommandParser.COMMAND_CODE_ABORT_JOB) {
+            this.listener.subcommand(code, 0, null);
+        } else {
+            this.state = State.SUBCOMMAND_LINE;
+        }
+    }
+
+    /**
+     * Handles the complete line following the subcommand code "Receive control file" or
+     * "Receive data file".
+     */
+    private void handleSubcommandLine() throws IOException {
+        final String text = this.takeLine();
+        final String[] parameters = text.split("\\s+");
+
+        if (parameters.length != 2) {
+            throw new IOException("Client sent invalid data: " + text);
+        }
+
+        final long fileLength;
+        try {
+            fileLength = Long.parseLong(parameters[0]);
+        } catch (final NumberFormatException e) {
+            throw new IOException("Client sent an invalid file length: " + parameters[0], e);
+        }
+
+        final boolean isControlFile =
+                this.subcommandCode == ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_CONTROL_FILE;
+
+        if (isControlFile && fileLength <= 0) {
+            throw new IOException("Client specified a zero length control file which is not allowed");
+        }
+
+        if (fileLength < 0) {
+            throw new IOException("Client specified an invalid (negative) data file length");
+        }
+
+        this.remaining = fileLength;
+        this.state = fileLength == 0 ? State.TERMINATOR : State.PAYLOAD;
+        this.listener.subcommand(this.subcommandCode, fileLength, parameters[1]);
+    }
+
+    /**
+     * Passes the payload contained in the {@link ByteBuffer} to the {@link LpdProtocolListener}.
+     */
+    private void handlePayload(final ByteBuffer buffer) throws IOException {
+        final int start = buffer.position();
+        final int limit = buffer.limit();
+        final int length = (int) Math.min(this.remaining, limit - start);
+
+        this.remaining -= length;
+        if (this.remaining == 0) {
+            this.state = State.TERMINATOR;
+        }
+
+        buffer.limit(start + length);
+        try {
+            this.listener.payload(buffer);
+        } finally {
+            buffer.limit(limit);
+            buffer.position(start + length);
+        }
+    }
+}
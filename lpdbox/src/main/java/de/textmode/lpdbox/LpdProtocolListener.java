@@ -0,0 +1,58 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link LpdProtocolListener} receives the protocol events emitted by a {@link LpdProtocolDecoder}.
+ */
+public interface LpdProtocolListener {
+
+    /**
+     * Gets called when the client has sent the (first level) command code.
+     */
+    void command(final int commandCode) throws IOException;
+
+    /**
+     * Gets called when the client has sent the line following the command code. The line
+     * is split into the queue name and the (possibly empty) rest of the line, which contains
+     * the operands of the commands "Send queue state" and "Remove jobs".
+     */
+    void queue(final String queueName, final String operands) throws IOException;
+
+    /**
+     * Gets called when the client has sent a subcommand of the command "Receive printer job".
+     * For the subcommand "Abort job" the file length is 0 and the file name is <code>null</code>.
+     */
+    void subcommand(final int subcommandCode, final long fileLength, final String fileName)
+            throws IOException;
+
+    /**
+     * Gets called for every fragment of a control file or data file. The bytes between the position
+     * and the limit of the {@link ByteBuffer} belong to the file. The {@link ByteBuffer} is only valid
+     * during the call and must not be retained; the listener may consume it partially or not at all.
+     */
+    void payload(final ByteBuffer fragment) throws IOException;
+
+    /**
+     * Gets called when the byte following a control file or data file has been received. The
+     * parameter is <code>true</code> if the byte is 0x00, which indicates a complete file.
+     */
+    void terminator(final boolean isValid) throws IOException;
+}
@@ -0,0 +1,99 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link MemoryBudget} limits the number of bytes of all files that are in flight, i. e.
+ * announced by the clients and accepted but not yet completely processed, across all connections
+ * of a {@link LinePrinterDaemon}. Before a file is acknowledged positively, its declared length
+ * is reserved. If the budget is exhausted, the reservation waits a short time for other
+ * connections to release their reservations and fails afterwards.
+ */
+final class MemoryBudget {
+
+    private final long capacity;
+    private final long maxWaitInNanos;
+
+    private long reserved;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity          the number of bytes that can be reserved in total
+     * @param maxWaitInMillis   the maximum time to wait for a reservation
+     */
+    MemoryBudget(final long capacity, final long maxWaitInMillis) {
+        this.capacity = capacity;
+        this.maxWaitInNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitInMillis);
+    }
+
+    /**
+     * Reserves the given number of bytes. If the budget is exhausted, this method waits until
+     * enough bytes have been released, but not longer than the configured maximum time. Returns
+     * <code>false</code> if the bytes could not be reserved.
+     */
+    synchronized boolean reserve(final long bytes) throws InterruptedIOException {
+        if (bytes > this.capacity) {
+            return false;
+        }
+
+        final long deadline = System.nanoTime() + this.maxWaitInNanos;
+        while (this.reserved + bytes > this.capacity) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the memory budget");
+            }
+        }
+
+        this.reserved += bytes;
+        return true;
+    }
+
+    /**
+     * Releases the given number of bytes that have been reserved before.
+     */
+    synchronized void release(final long bytes) {
+        if (bytes > 0) {
+            this.reserved -= bytes;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the number of bytes that can be reserved in total.
+     */
+    long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of bytes currently reserved.
+     */
+    synchronized long getReserved() {
+        return this.reserved;
+    }
+}
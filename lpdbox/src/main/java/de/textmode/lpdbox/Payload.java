@@ -0,0 +1,176 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A {@link Payload} is a file received by a {@link PayloadSink}. The content is kept either in
+ * memory or in a temporary file, but is read the same way in both cases. A {@link Payload} must
+ * be closed, so the memory is returned to the pool or the temporary file gets deleted.
+ */
+public final class Payload implements Closeable {
+
+    private final long length;
+    private final ChunkPool pool;
+    private final List<byte[]> chunks;
+    private final Path file;
+
+    private boolean isClosed;
+
+    /**
+     * Constructor of a {@link Payload} kept in memory.
+     */
+    Payload(final long length, final ChunkPool pool, final List<byte[]> chunks) {
+        this.length = length;
+        this.pool = pool;
+        this.chunks = chunks;
+        this.file = null;
+    }
+
+    /**
+     * Constructor of a {@link Payload} kept in a temporary file.
+     */
+    Payload(final long length, final Path file) {
+        this.length = length;
+        this.pool = null;
+        this.chunks = null;
+        this.file = file;
+    }
+
+    /**
+     * Returns the length (in bytes) of the {@link Payload}.
+     */
+    public long getLength() {
+        return this.length;
+    }
+
+    /**
+     * Returns <code>true</code> if the {@link Payload} has been spilled to a temporary file.
+     */
+    public boolean isSpilled() {
+        return this.file != null;
+    }
+
+    /**
+     * Returns a new {@link InputStream} that reads the {@link Payload} from the beginning.
+     */
+    public synchronized InputStream getInputStream() throws IOException {
+        if (this.isClosed) {
+            throw new IOException("The payload has been closed");
+        }
+
+        return this.file != null
+                ? Files.newInputStream(this.file)
+                : new ChunkInputStream(this.chunks, this.length);
+    }
+
+    /**
+     * Releases the memory or deletes the temporary file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.isClosed) {
+            return;
+        }
+
+        this.isClosed = true;
+        if (this.file != null) {
+            Files.deleteIfExists(this.file);
+        } else {
+            for (final byte[] chunk : this.chunks) {
+                this.pool.release(chunk);
+            }
+            this.chunks.clear();
+        }
+    }
+
+    /**
+     * An {@link InputStream} that reads the chunks of a {@link Payload} kept in memory.
+     */
+    private static final class ChunkInputStream extends InputStream {
+
+        private final List<byte[]> chunks;
+        private final long length;
+
+        private long position;
+
+        /**
+         * Constructor.
+         */
+        ChunkInputStream(final List<byte[]> chunks, final long length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            if (this.position >= this.length) {
+                return -1;
+            }
+
+            final byte[] chunk = this.chunks.get(this.chunkIndex());
+            final int value = chunk[this.chunkOffset(chunk)] & 0xFF;
+            ++this.position;
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int count) {
+            if (count == 0) {
+                return 0;
+            }
+            if (this.position >= this.length) {
+                return -1;
+            }
+
+            final byte[] chunk = this.chunks.get(this.chunkIndex());
+            final int chunkOffset = this.chunkOffset(chunk);
+            final int toCopy = (int) Math.min(
+                    Math.min(count, chunk.length - chunkOffset),
+                    this.length - this.position);
+
+            System.arraycopy(chunk, chunkOffset, buffer, offset, toCopy);
+            this.position += toCopy;
+            return toCopy;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, this.length - this.position);
+        }
+
+        /**
+         * Returns the index of the chunk containing the current position. All chunks have the same size.
+         */
+        private int chunkIndex() {
+            return (int) (this.position / this.chunks.get(0).length);
+        }
+
+        /**
+         * Returns the offset of the current position within the given chunk.
+         */
+        private int chunkOffset(final byte[] chunk) {
+            return (int) (this.position % chunk.length);
+        }
+    }
+}
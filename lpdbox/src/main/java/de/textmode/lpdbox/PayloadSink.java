@@ -0,0 +1,188 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link PayloadSink} receives data files for a {@link DaemonCommandHandler}. Small files are
+ * kept in pooled memory chunks, large files are spilled to a temporary file. Whichever way a file
+ * has been stored, the returned {@link Payload} is read the same way.
+ *
+ * <p>The decision is based on the declared length of the file: files longer than the spill threshold
+ * are written to a temporary file right away. A file that is kept in memory is spilled while it is
+ * received if it turns out to be longer than the spill threshold (a data file of unknown length,
+ * see {@link DaemonCommandHandler#UNKNOWN_FILE_LENGTH}) or if the memory of the
+ * {@link PayloadSink} is exhausted. A single {@link PayloadSink} should be shared by all
+ * {@link DaemonCommandHandler}s; it is thread safe.</p>
+ *
+ * <pre>
+ * public void receiveDataFile(final InputStream is, final long fileLength, final String fileName)
+ *         throws IOException {
+ *     this.payload = SINK.receive(is, fileLength);
+ * }
+ * </pre>
+ */
+public final class PayloadSink {
+
+    /**
+     * Size of a memory chunk.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    private final long spillThreshold;
+    private final Path tempDirectory;
+    private final ChunkPool pool;
+
+    /**
+     * Constructor.
+     *
+     * @param spillThreshold    files longer than this (in bytes) are spilled to a temporary file
+     * @param maxMemory         maximum number of bytes kept in memory for all files together
+     * @param tempDirectory     directory for the temporary files
+     */
+    public PayloadSink(final long spillThreshold, final long maxMemory, final Path tempDirectory) {
+        this.spillThreshold = spillThreshold;
+        this.tempDirectory = tempDirectory;
+        this.pool = new ChunkPool(CHUNK_SIZE, (int) Math.min(Integer.MAX_VALUE, maxMemory / CHUNK_SIZE));
+    }
+
+    /**
+     * Reads exactly <code>fileLength</code> bytes from the given {@link InputStream} and returns them
+     * as a {@link Payload}. Throws an {@link IOException} if the stream ends prematurely. If the
+     * <code>fileLength</code> is {@link DaemonCommandHandler#UNKNOWN_FILE_LENGTH}, the {@link InputStream}
+     * is read until its end.
+     */
+    public Payload receive(final InputStream is, final long fileLength) throws IOException {
+        if (fileLength > this.spillThreshold) {
+            return this.spill(is, fileLength, new ArrayList<byte[]>(), 0);
+        }
+
+        final boolean isUnknownLength = fileLength < 0;
+        final List<byte[]> chunks = new ArrayList<>();
+        long received = 0;
+        try {
+            while (isUnknownLength || received < fileLength) {
+                final byte[] chunk = received > this.spillThreshold ? null : this.pool.acquire();
+                if (chunk == null) {
+                    // The file is too large or the memory is exhausted, so the rest goes to the disk...
+                    return this.spill(is, fileLength, chunks, received);
+                }
+
+                chunks.add(chunk);
+                final int toRead = isUnknownLength ? chunk.length : (int) Math.min(chunk.length, fileLength - received);
+                final int read = readFully(is, chunk, toRead, !isUnknownLength);
+                received += read;
+
+                if (read < toRead) {
+                    break;
+                }
+            }
+        } catch (final IOException e) {
+            this.releaseAll(chunks);
+            throw e;
+        }
+
+        return new Payload(received, this.pool, chunks);
+    }
+
+    /**
+     * Writes the chunks received so far and the rest of the file to a temporary file.
+     */
+    private Payload spill(
+            final InputStream is,
+            final long fileLength,
+            final List<byte[]> chunks,
+            final long received) throws IOException {
+
+        final Path file = Files.createTempFile(this.tempDirectory, "lpdbox-", ".tmp");
+        try (final OutputStream os = Files.newOutputStream(file)) {
+            long written = 0;
+            for (final byte[] chunk : chunks) {
+                final int length = (int) Math.min(chunk.length, received - written);
+                os.write(chunk, 0, length);
+                written += length;
+            }
+
+            final boolean isUnknownLength = fileLength < 0;
+            final byte[] buffer = chunks.isEmpty() ? new byte[CHUNK_SIZE] : chunks.get(0);
+            while (isUnknownLength || written < fileLength) {
+                final int toRead = isUnknownLength
+                        ? buffer.length
+                        : (int) Math.min(buffer.length, fileLength - written);
+
+                final int read = is.read(buffer, 0, toRead);
+                if (read == -1) {
+                    if (isUnknownLength) {
+                        break;
+                    }
+                    throw new IOException(Util.ERROR_END_OF_STREAM);
+                }
+                os.write(buffer, 0, read);
+                written += read;
+            }
+
+            return new Payload(written, file);
+        } catch (final IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        } finally {
+            this.releaseAll(chunks);
+        }
+    }
+
+    /**
+     * Reads the given number of bytes into the chunk and returns the number of bytes read, which
+     * is less than requested if the end of the stream has been reached. If <code>isEndUnexpected</code>
+     * is <code>true</code>, reaching the end of the stream causes an {@link IOException}.
+     */
+    private static int readFully(
+            final InputStream is,
+            final byte[] chunk,
+            final int length,
+            final boolean isEndUnexpected) throws IOException {
+
+        int offset = 0;
+        while (offset < length) {
+            final int read = is.read(chunk, offset, length - offset);
+            if (read == -1) {
+                if (isEndUnexpected) {
+                    throw new IOException(Util.ERROR_END_OF_STREAM);
+                }
+                break;
+            }
+            offset += read;
+        }
+        return offset;
+    }
+
+    /**
+     * Returns all given chunks to the pool.
+     */
+    private void releaseAll(final List<byte[]> chunks) {
+        for (final byte[] chunk : chunks) {
+            this.pool.release(chunk);
+        }
+        chunks.clear();
+    }
+}
@@ -0,0 +1,100 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The {@link PooledChannelInputStream} is a buffered {@link InputStream} that reads from a
+ * {@link ReadableByteChannel} into a {@link ByteBuffer} taken from a {@link ByteBufferPool}.
+ * Closing the {@link PooledChannelInputStream} returns the {@link ByteBuffer} to the
+ * {@link ByteBufferPool} but does not close the {@link ReadableByteChannel}.
+ */
+final class PooledChannelInputStream extends InputStream {
+
+    private final ReadableByteChannel channel;
+    private final ByteBufferPool pool;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Constructor.
+     */
+    PooledChannelInputStream(final ReadableByteChannel channel, final ByteBufferPool pool, final int bufferSize) {
+        this.channel = channel;
+        this.pool = pool;
+        this.buffer = pool.acquire(bufferSize);
+        this.buffer.flip();
+    }
+
+    /**
+     * Reads from the {@link ReadableByteChannel} if the buffer is empty. Returns <code>false</code>
+     * if the end of the stream has been reached.
+     */
+    private boolean fill() throws IOException {
+        if (this.buffer == null) {
+            throw new IOException("Stream closed");
+        }
+
+        if (this.buffer.hasRemaining()) {
+            return true;
+        }
+
+        this.buffer.clear();
+        int read = this.channel.read(this.buffer);
+        while (read == 0) {
+            read = this.channel.read(this.buffer);
+        }
+        this.buffer.flip();
+        return read > 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return this.fill() ? this.buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.fill()) {
+            return -1;
+        }
+
+        final int count = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer == null ? 0 : this.buffer.remaining();
+    }
+
+    @Override
+    public void close() {
+        if (this.buffer != null) {
+            this.pool.release(this.buffer);
+            this.buffer = null;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link PooledDaemonCommandHandlerFactory} keeps {@link DaemonCommandHandler} objects created
+ * by another {@link DaemonCommandHandlerFactory} in a pool and reuses them for subsequent connections,
+ * so the cost for setting up a handler is not paid for every connection.
+ *
+ * <p>Only handlers that implement {@link ResettableDaemonCommandHandler} are pooled. When a
+ * connection has been handled, such a handler is {@link ResettableDaemonCommandHandler#reset() reset}
+ * and put back into the pool instead of being closed. All other handlers are closed as usual.</p>
+ *
+ * <p>The pool keeps at most <code>maxIdle</code> idle handlers. Idle handlers that have not been
+ * used for the given idle timeout are closed, as long as more than <code>minIdle</code> idle handlers
+ * remain in the pool. The pool is not filled up in advance: <code>minIdle</code> is only the number of
+ * idle handlers that are kept when the others time out. The most recently used handler is reused first,
+ * so rarely needed handlers time out when the load decreases. The idle handlers are also checked
+ * periodically by a background thread, so they are closed even if no more connections arrive. The
+ * number of handlers in use is limited by the number of threads of the {@link LinePrinterDaemon}.</p>
+ */
+public final class PooledDaemonCommandHandlerFactory implements DaemonCommandHandlerFactory, Closeable {
+
+    private final DaemonCommandHandlerFactory factory;
+    private final int minIdle;
+    private final int maxIdle;
+    private final long idleTimeoutInNanos;
+    private final ScheduledExecutorService evictor;
+
+    private final Deque<IdleHandler> idleHandlers = new ArrayDeque<>();
+    private boolean isClosed;
+
+    /**
+     * An idle handler in the pool together with the time it has been returned to the pool.
+     */
+    private static final class IdleHandler {
+        private final ResettableDaemonCommandHandler handler;
+        private final long idleSince;
+
+        /**
+         * Constructor.
+         */
+        IdleHandler(final ResettableDaemonCommandHandler handler, final long idleSince) {
+            this.handler = handler;
+            this.idleSince = idleSince;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param factory               the factory that creates the handlers
+     * @param minIdle               number of idle handlers that are never closed due to the idle timeout
+     *                              (a lower limit for the eviction, the pool is not filled up in advance)
+     * @param maxIdle               maximum number of idle handlers kept in the pool
+     * @param idleTimeoutInMillis   time after which an unused idle handler is closed (must be greater than 0)
+     */
+    public PooledDaemonCommandHandlerFactory(
+            final DaemonCommandHandlerFactory factory,
+            final int minIdle,
+            final int maxIdle,
+            final long idleTimeoutInMillis) {
+
+        if (minIdle < 0 || maxIdle < minIdle) {
+            throw new IllegalArgumentException("Invalid pool size (minIdle=" + minIdle + ", maxIdle=" + maxIdle + ")");
+        }
+        if (idleTimeoutInMillis <= 0) {
+            throw new IllegalArgumentException("Invalid idle timeout: " + idleTimeoutInMillis);
+        }
+
+        this.factory = factory;
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.idleTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutInMillis);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "lpdbox-handler-pool");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // An idle handler is closed at most half the idle timeout after it has timed out...
+        final long period = Math.max(1L, idleTimeoutInMillis / 2);
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                PooledDaemonCommandHandlerFactory.this.evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public DaemonCommandHandler create() {
+        ResettableDaemonCommandHandler handler = this.acquire();
+        if (handler == null) {
+            final DaemonCommandHandler created = this.factory.create();
+            if (!(created instanceof ResettableDaemonCommandHandler)) {
+                return created;
+            }
+            handler = (ResettableDaemonCommandHandler) created;
+        }
+
+        final ResettableDaemonCommandHandler pooledHandler = handler;
+        return new ForwardingDaemonCommandHandler(pooledHandler) {
+            private boolean isReleased;
+
+            @Override
+            public void close() {
+                if (!this.isReleased) {
+                    this.isReleased = true;
+                    PooledDaemonCommandHandlerFactory.this.release(pooledHandler);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the number of idle handlers currently kept in the pool.
+     */
+    public synchronized int getIdleCount() {
+        return this.idleHandlers.size();
+    }
+
+    /**
+     * Closes all idle handlers and stops the background thread. Handlers that are currently in use
+     * are closed when they are returned to the pool.
+     */
+    @Override
+    public void close() {
+        this.evictor.shutdownNow();
+
+        final List<IdleHandler> toClose;
+        synchronized (this) {
+            this.isClosed = true;
+            toClose = new ArrayList<>(this.idleHandlers);
+            this.idleHandlers.clear();
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Takes the most recently used idle handler from the pool. Returns <code>null</code> if the pool is empty.
+     */
+    private ResettableDaemonCommandHandler acquire() {
+        final List<IdleHandler> evicted = new ArrayList<>();
+        final IdleHandler idle;
+        synchronized (this) {
+            this.evict(System.nanoTime(), evicted);
+            idle = this.idleHandlers.pollFirst();
+        }
+        closeAll(evicted);
+        return idle == null ? null : idle.handler;
+    }
+
+    /**
+     * Resets the given handler and puts it back into the pool. If the handler cannot be reset or
+     * the pool is full (or closed), the handler gets closed.
+     */
+    private void release(final ResettableDaemonCommandHandler handler) {
+        try {
+            handler.reset();
+        } catch (final IOException e) {
+            Util.closeQuietly(handler);
+            return;
+        }
+
+        final List<IdleHandler> evicted = new ArrayList<>();
+        final boolean isPooled;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            isPooled = !this.isClosed && this.idleHandlers.size() < this.maxIdle;
+            if (isPooled) {
+                this.idleHandlers.addFirst(new IdleHandler(handler, now));
+            }
+            this.evict(now, evicted);
+        }
+
+        if (!isPooled) {
+            Util.closeQuietly(handler);
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Closes the idle handlers that exceeded the idle timeout. Gets called periodically by the
+     * background thread.
+     */
+    private void evictIdle() {
+        final List<IdleHandler> evicted = new ArrayList<>();
+        synchronized (this) {
+            this.evict(System.nanoTime(), evicted);
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Removes the idle handlers that exceeded the idle timeout (the least recently used handlers
+     * are at the end of the deque). Must be called while holding the lock.
+     */
+    private void evict(final long now, final List<IdleHandler> evicted) {
+        while (this.idleHandlers.size() > this.minIdle
+                && now - this.idleHandlers.peekLast().idleSince >= this.idleTimeoutInNanos) {
+
+            evicted.add(this.idleHandlers.pollLast());
+        }
+    }
+
+    /**
+     * Closes all given handlers, ignoring errors.
+     */
+    private static void closeAll(final List<IdleHandler> handlers) {
+        for (final IdleHandler idle : handlers) {
+            Util.closeQuietly(idle.handler);
+        }
+    }
+}
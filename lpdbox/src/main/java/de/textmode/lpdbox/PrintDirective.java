@@ -0,0 +1,100 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A {@link PrintDirective} is a line of a {@link ControlFile} that requests to print a data file
+ * (i. e. "f" for formatted text or "o" for PostScript). The title, indent and width are the values
+ * that have been set by the "T", "I" and "W" lines preceding the {@link PrintDirective}.
+ */
+public final class PrintDirective {
+
+    private final char type;
+    private final String fileName;
+    private final String title;
+    private final int indent;
+    private final int width;
+
+    private String sourceFileName;
+
+    /**
+     * Constructor.
+     */
+    PrintDirective(final char type, final String fileName, final String title, final int indent, final int width) {
+        this.type = type;
+        this.fileName = fileName;
+        this.title = title;
+        this.indent = indent;
+        this.width = width;
+    }
+
+    /**
+     * Returns the type of the {@link PrintDirective}, which is the command character of the line
+     * in the {@link ControlFile} (i. e. 'f', 'l', 'p' or 'o').
+     */
+    public char getType() {
+        return this.type;
+    }
+
+    /**
+     * Returns the name of the data file to print.
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * Returns the name of the file the data file has been constructed from ("N" line) or
+     * <code>null</code> if not known.
+     */
+    public String getSourceFileName() {
+        return this.sourceFileName;
+    }
+
+    /**
+     * Sets the name of the file the data file has been constructed from.
+     */
+    void setSourceFileName(final String value) {
+        this.sourceFileName = value;
+    }
+
+    /**
+     * Returns the title for "pr" ("T" line) or <code>null</code> if no title has been set.
+     */
+    public String getTitle() {
+        return this.title;
+    }
+
+    /**
+     * Returns the number of columns to indent ("I" line). The default is 0.
+     */
+    public int getIndent() {
+        return this.indent;
+    }
+
+    /**
+     * Returns the page width ("W" line) or -1 if no width has been set.
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    @Override
+    public String toString() {
+        return this.type + this.fileName;
+    }
+}
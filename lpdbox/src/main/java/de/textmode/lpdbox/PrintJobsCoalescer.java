@@ -0,0 +1,286 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link PrintJobsCoalescer} wraps a {@link DaemonCommandHandlerFactory} and coalesces the daemon
+ * command "Print any waiting jobs". The command returns at once, and all commands for a queue that arrive
+ * within the given window are folded into a single call of {@link DaemonCommandHandler#printJobs(String)},
+ * which is made by a background thread with a {@link DaemonCommandHandler} created for this call. Each
+ * queue gets its own background thread for the call (threads are reused and end when they have been idle
+ * for a minute), so a queue with a slow <code>printJobs</code> does not delay the calls for other queues.
+ *
+ * <p>If a command arrives while <code>printJobs</code> is running for the queue, another call follows
+ * (after the window), so every printer job that has been received before a command is covered by a call
+ * that starts after the command. All other daemon commands are passed to the wrapped handlers.</p>
+ */
+public final class PrintJobsCoalescer implements DaemonCommandHandlerFactory, Closeable {
+
+    private final DaemonCommandHandlerFactory factory;
+    private final long windowInMillis;
+    private final Logger logger;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final ConcurrentHashMap<String, QueueTrigger> triggers = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong runCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     */
+    public PrintJobsCoalescer(final DaemonCommandHandlerFactory factory, final long windowInMillis) {
+        this(factory, windowInMillis, LoggerFactory.getLogger(PrintJobsCoalescer.class));
+    }
+
+    /**
+     * Constructor with the {@link Logger} errors of the background calls are logged to.
+     */
+    public PrintJobsCoalescer(
+            final DaemonCommandHandlerFactory factory,
+            final long windowInMillis,
+            final Logger logger) {
+
+        this.factory = factory;
+        this.windowInMillis = windowInMillis;
+        this.logger = logger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "lpdbox-print-jobs-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "lpdbox-print-jobs-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public DaemonCommandHandler create() {
+        final DaemonCommandHandler handler = this.factory.create();
+        return handler == null ? null : new CoalescingDaemonCommandHandler(handler, this);
+    }
+
+    /**
+     * Returns the number of daemon commands "Print any waiting jobs" received.
+     */
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    /**
+     * Returns the number of calls of {@link DaemonCommandHandler#printJobs(String)} made.
+     */
+    public long getRunCount() {
+        return this.runCount.get();
+    }
+
+    /**
+     * Requests a call of {@link DaemonCommandHandler#printJobs(String)} for the given queue.
+     */
+    void trigger(final String queueName) {
+        this.requestCount.incrementAndGet();
+
+        // A trigger that has just become idle and removed itself is replaced by a new one...
+        boolean isRequested = false;
+        while (!isRequested) {
+            QueueTrigger trigger = this.triggers.get(queueName);
+            if (trigger == null) {
+                final QueueTrigger created = new QueueTrigger(queueName);
+                final QueueTrigger existing = this.triggers.putIfAbsent(queueName, created);
+                trigger = existing == null ? created : existing;
+            }
+
+            isRequested = trigger.request();
+        }
+    }
+
+    /**
+     * Returns the number of queues with a call that is scheduled or running.
+     */
+    int getActiveQueueCount() {
+        return this.triggers.size();
+    }
+
+    /**
+     * Stops the background threads. Calls that have not been started yet are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        this.scheduler.shutdownNow();
+        this.workers.shutdownNow();
+        try {
+            this.workers.awaitTermination(this.windowInMillis + 1000L, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The state of the calls for a queue. The timer passes the {@link QueueTrigger} to a worker thread when
+     * the window has elapsed, so the timer itself is never blocked by a call. As the queue names are chosen
+     * by the clients, a {@link QueueTrigger} removes itself once it has neither a scheduled nor a running call.
+     */
+    private final class QueueTrigger implements Runnable {
+
+        private final String queueName;
+
+        private boolean isScheduled;
+        private boolean isRunning;
+        private boolean isRequestedWhileRunning;
+        private boolean isRemoved;
+
+        /**
+         * Constructor.
+         */
+        QueueTrigger(final String queueName) {
+            this.queueName = queueName;
+        }
+
+        /**
+         * Schedules a call unless a call is already scheduled (and has not started yet). Returns
+         * <code>false</code> if the {@link QueueTrigger} has been removed, so a new one has to be used.
+         */
+        synchronized boolean request() {
+            if (this.isRemoved) {
+                return false;
+            }
+
+            if (this.isRunning) {
+                this.isRequestedWhileRunning = true;
+            } else if (!this.isScheduled) {
+                this.schedule();
+            }
+            return true;
+        }
+
+        /**
+         * Removes the {@link QueueTrigger} if it has neither a scheduled nor a running call. Must be
+         * called while holding the lock of the {@link QueueTrigger}.
+         */
+        private void removeIfIdle() {
+            if (!this.isScheduled && !this.isRunning) {
+                this.isRemoved = true;
+                PrintJobsCoalescer.this.triggers.remove(this.queueName, this);
+            }
+        }
+
+        /**
+         * Schedules a call after the window.
+         */
+        private void schedule() {
+            try {
+                PrintJobsCoalescer.this.scheduler.schedule(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                QueueTrigger.this.dispatch();
+                            }
+                        },
+                        PrintJobsCoalescer.this.windowInMillis,
+                        TimeUnit.MILLISECONDS);
+
+                this.isScheduled = true;
+            } catch (final RejectedExecutionException e) {
+                this.logDropped();
+                this.removeIfIdle();
+            }
+        }
+
+        /**
+         * Passes the call to a worker thread (called by the timer when the window has elapsed).
+         */
+        private void dispatch() {
+            try {
+                PrintJobsCoalescer.this.workers.execute(this);
+            } catch (final RejectedExecutionException e) {
+                synchronized (this) {
+                    this.isScheduled = false;
+                    this.removeIfIdle();
+                }
+                this.logDropped();
+            }
+        }
+
+        /**
+         * Logs that a request has been dropped because the {@link PrintJobsCoalescer} has been closed.
+         */
+        private void logDropped() {
+            PrintJobsCoalescer.this.logger.warn(
+                    "Dropped the request to print the waiting jobs of queue " + this.queueName
+                            + " because the PrintJobsCoalescer has been closed");
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                this.isScheduled = false;
+                this.isRunning = true;
+            }
+
+            try {
+                PrintJobsCoalescer.this.runCount.incrementAndGet();
+                try (final DaemonCommandHandler handler = PrintJobsCoalescer.this.factory.create()) {
+                    if (handler == null) {
+                        PrintJobsCoalescer.this.logger.error(
+                                "A daemon command handler could not be created to print the waiting jobs of queue "
+                                        + this.queueName);
+                    } else {
+                        handler.printJobs(this.queueName);
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                PrintJobsCoalescer.this.logger.error(
+                        "Failed to print the waiting jobs of queue " + this.queueName + ": " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    this.isRunning = false;
+                    if (this.isRequestedWhileRunning) {
+                        this.isRequestedWhileRunning = false;
+                        this.schedule();
+                    } else {
+                        this.removeIfIdle();
+                    }
+                }
+            }
+        }
+    }
+}
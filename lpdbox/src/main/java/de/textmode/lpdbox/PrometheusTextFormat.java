@@ -0,0 +1,218 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link PrometheusTextFormat} renders the metrics of a {@link LinePrinterDaemon} in the
+ * Prometheus text exposition format (version 0.0.4).
+ */
+final class PrometheusTextFormat {
+
+    /**
+     * The content type of the Prometheus text exposition format.
+     */
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    private static final String[] BUCKET_LABELS = new String[LatencyHistogram.getBucketCount()];
+
+    static {
+        for (int ix = 0; ix < BUCKET_LABELS.length; ++ix) {
+            final long upperBound = LatencyHistogram.getUpperBound(ix);
+            BUCKET_LABELS[ix] = upperBound == Long.MAX_VALUE
+                    ? "+Inf"
+                    : Double.toString(upperBound / NANOS_PER_SECOND);
+        }
+    }
+
+    private PrometheusTextFormat() {
+    }
+
+    /**
+     * Renders all metrics of the given {@link LinePrinterDaemon} to the given {@link StringBuilder}.
+     */
+    static void render(final LinePrinterDaemon daemon, final StringBuilder sb) {
+        final LinePrinterDaemonStatistics statistics = daemon.getStatistics();
+
+        gauge(sb, "lpdbox_up", "Whether the line printer daemon is running.", daemon.isRunning() ? 1 : 0);
+        gauge(sb, "lpdbox_overloaded", "Whether all threads are busy and connections are waiting.",
+                daemon.isOverloaded() ? 1 : 0);
+
+        gauge(sb, "lpdbox_threads_max", "Maximum number of threads handling connections.", daemon.getMaxThreads());
+        gauge(sb, "lpdbox_threads_active", "Number of threads handling a connection.", daemon.getActiveThreads());
+        gauge(sb, "lpdbox_connections_waiting", "Number of connections waiting for a free thread.",
+                daemon.getWaitingConnections());
+
+        counter(sb, "lpdbox_connections_accepted_total", "Number of accepted connections.",
+                statistics.getConnectionsAccepted());
+        counter(sb, "lpdbox_connections_failed_total", "Number of connections that failed with an error.",
+                statistics.getConnectionsFailed());
+
+        header(sb, "lpdbox_connections_closed_total", "Number of closed connections by the way they were closed.",
+                "counter");
+        labeled(sb, "lpdbox_connections_closed_total", "close", "immediate",
+                statistics.getConnectionsClosedImmediately());
+        labeled(sb, "lpdbox_connections_closed_total", "close", "by_client", statistics.getConnectionsClosedByClient());
+        labeled(sb, "lpdbox_connections_closed_total", "close", "timeout", statistics.getConnectionsCloseTimedOut());
+        labeled(sb, "lpdbox_connections_closed_total", "close", "reset", statistics.getConnectionsReset());
+
+        header(sb, "lpdbox_commands_total", "Number of handled commands.", "counter");
+        for (int code = 0; code <= LinePrinterDaemonStatistics.getMaxCommandCode(); ++code) {
+            sb.append("lpdbox_commands_total{command=\"")
+                .append(LinePrinterDaemonStatistics.getCommandName(code))
+                .append("\"} ")
+                .append(statistics.getCommandCount(code))
+                .append('\n');
+        }
+
+        header(sb, "lpdbox_command_duration_seconds", "Time spent handling a command.", "histogram");
+        for (int code = 0; code <= LinePrinterDaemonStatistics.getMaxCommandCode(); ++code) {
+            histogram(sb, "lpdbox_command_duration_seconds",
+                    LinePrinterDaemonStatistics.getCommandName(code),
+                    statistics.getCommandDurations(code));
+        }
+
+        header(sb, "lpdbox_jobs_total", "Number of printer jobs by event.", "counter");
+        labeled(sb, "lpdbox_jobs_total", "event", "started", statistics.getJobsStarted());
+        labeled(sb, "lpdbox_jobs_total", "event", "refused", statistics.getJobsRefused());
+        labeled(sb, "lpdbox_jobs_total", "event", "aborted", statistics.getJobsAborted());
+        labeled(sb, "lpdbox_jobs_total", "event", "ended", statistics.getJobsEnded());
+
+        header(sb, "lpdbox_files_received_total", "Number of received files by type.", "counter");
+        labeled(sb, "lpdbox_files_received_total", "type", "control", statistics.getControlFilesReceived());
+        labeled(sb, "lpdbox_files_received_total", "type", "data", statistics.getDataFilesReceived());
+
+        header(sb, "lpdbox_file_bytes_received_total", "Number of received file bytes by type.", "counter");
+        labeled(sb, "lpdbox_file_bytes_received_total", "type", "control",
+                statistics.getControlFileBytesReceived());
+        labeled(sb, "lpdbox_file_bytes_received_total", "type", "data", statistics.getDataFileBytesReceived());
+
+        header(sb, "lpdbox_files_refused_total", "Number of files refused by the admission control by reason.",
+                "counter");
+        labeled(sb, "lpdbox_files_refused_total", "reason", "memory", statistics.getFilesRefusedForMemory());
+        labeled(sb, "lpdbox_files_refused_total", "reason", "disk_space", statistics.getFilesRefusedForDiskSpace());
+
+        final MemoryBudget memoryBudget = daemon.getMemoryBudget();
+        if (memoryBudget != null) {
+            gauge(sb, "lpdbox_memory_budget_bytes", "Number of bytes of the memory budget.",
+                    memoryBudget.getCapacity());
+            gauge(sb, "lpdbox_memory_budget_reserved_bytes", "Number of bytes reserved from the memory budget.",
+                    memoryBudget.getReserved());
+        }
+
+        final DiskSpaceReservation diskSpace = daemon.getDiskSpaceReservation();
+        if (diskSpace != null) {
+            gauge(sb, "lpdbox_spool_reserved_bytes", "Number of bytes reserved on the spool volume.",
+                    diskSpace.getReserved());
+        }
+
+        final ByteBufferPool bufferPool = daemon.getBufferPool();
+        gauge(sb, "lpdbox_buffer_pool_allocated_bytes", "Number of bytes of direct buffers allocated by the pool.",
+                bufferPool.getAllocatedBytes());
+        counter(sb, "lpdbox_buffer_pool_acquires_total", "Number of buffers handed out by the pool.",
+                bufferPool.getAcquireCount());
+        counter(sb, "lpdbox_buffer_pool_allocations_total", "Number of buffers allocated because none was pooled.",
+                bufferPool.getAllocationCount());
+
+        header(sb, "lpdbox_active_jobs", "Number of printer jobs currently being received per queue.", "gauge");
+        for (final Map.Entry<String, AtomicLong> entry : statistics.getActiveJobCounters().entrySet()) {
+            labeled(sb, "lpdbox_active_jobs", "queue", entry.getKey(), entry.getValue().get());
+        }
+    }
+
+    /**
+     * Renders the HELP and TYPE lines of a metric.
+     */
+    private static void header(final StringBuilder sb, final String name, final String help, final String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Renders a gauge without labels.
+     */
+    private static void gauge(final StringBuilder sb, final String name, final String help, final long value) {
+        header(sb, name, help, "gauge");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Renders a counter without labels.
+     */
+    private static void counter(final StringBuilder sb, final String name, final String help, final long value) {
+        header(sb, name, help, "counter");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Renders a single sample with one label.
+     */
+    private static void labeled(
+            final StringBuilder sb,
+            final String name,
+            final String label,
+            final String labelValue,
+            final long value) {
+
+        sb.append(name).append('{').append(label).append("=\"");
+        escape(sb, labelValue);
+        sb.append("\"} ").append(value).append('\n');
+    }
+
+    /**
+     * Renders the samples of a {@link LatencyHistogram}. Prometheus expects cumulative bucket values.
+     */
+    private static void histogram(
+            final StringBuilder sb,
+            final String name,
+            final String command,
+            final LatencyHistogram histogram) {
+
+        long cumulative = 0;
+        for (int ix = 0; ix < BUCKET_LABELS.length; ++ix) {
+            cumulative += histogram.getBucketValue(ix);
+            sb.append(name).append("_bucket{command=\"").append(command)
+                .append("\",le=\"").append(BUCKET_LABELS[ix]).append("\"} ")
+                .append(cumulative).append('\n');
+        }
+
+        sb.append(name).append("_sum{command=\"").append(command).append("\"} ")
+            .append(histogram.getSum() / NANOS_PER_SECOND).append('\n');
+        sb.append(name).append("_count{command=\"").append(command).append("\"} ")
+            .append(cumulative).append('\n');
+    }
+
+    /**
+     * Appends the given label value, escaping backslashes, double quotes and line feeds.
+     */
+    private static void escape(final StringBuilder sb, final String value) {
+        for (int ix = 0; ix < value.length(); ++ix) {
+            final char c = value.charAt(ix);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+}
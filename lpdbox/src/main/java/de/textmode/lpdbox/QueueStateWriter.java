@@ -0,0 +1,89 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The {@link QueueStateWriter} is the {@link Appendable} passed to
+ * {@link DaemonCommandHandler#sendQueueStateLong(String, java.util.List, Appendable)} and
+ * {@link DaemonCommandHandler#sendQueueStateShort(String, java.util.List, Appendable)}. It converts the
+ * characters to ISO-8859-1 into a fixed buffer and writes the buffer to the client whenever it is full,
+ * so the memory needed for a queue state does not depend on its length. Characters that cannot be
+ * converted are replaced by a question mark.
+ */
+final class QueueStateWriter implements Appendable, Flushable {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final char MAX_CHARACTER = 0xFF;
+
+    private final OutputStream os;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+
+    /**
+     * Constructor.
+     */
+    QueueStateWriter(final OutputStream os) {
+        this.os = os;
+    }
+
+    @Override
+    public Appendable append(final CharSequence csq) throws IOException {
+        final CharSequence value = csq == null ? "null" : csq;
+        return this.append(value, 0, value.length());
+    }
+
+    @Override
+    public Appendable append(final CharSequence csq, final int start, final int end) throws IOException {
+        final CharSequence value = csq == null ? "null" : csq;
+        for (int ix = start; ix < end; ++ix) {
+            this.append(value.charAt(ix));
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(final char c) throws IOException {
+        if (this.count == this.buffer.length) {
+            this.writeBuffer();
+        }
+        this.buffer[this.count++] = (byte) (c > MAX_CHARACTER ? '?' : c);
+        return this;
+    }
+
+    /**
+     * Writes the buffered bytes to the {@link OutputStream}.
+     */
+    private void writeBuffer() throws IOException {
+        if (this.count > 0) {
+            this.os.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the {@link OutputStream} and flushes it.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.writeBuffer();
+        this.os.flush();
+    }
+}
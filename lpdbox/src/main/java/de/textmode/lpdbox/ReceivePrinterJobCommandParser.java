@@ -16,6 +16,7 @@ package de.textmode.lpdbox;
  * limitations under the License.
  */
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -43,12 +44,192 @@ final class ReceivePrinterJobCommandParser extends CommandParser {
      */
     static final int COMMAND_CODE_RECEIVE_DATA_FILE = 0x03;
 
+    private final MemoryBudget memoryBudget;
+    private final DiskSpaceReservation diskSpace;
+    private final LinePrinterDaemonStatistics statistics;
+    private final boolean isUnknownLengthSupported;
+    private final long maxUnknownLength;
+
+    private long reservedMemory;
+    private long reservedDiskSpace;
 
     /**
      * Constructor.
      */
     ReceivePrinterJobCommandParser(final Logger logger, final DaemonCommandHandler handler) {
+        this(logger, handler, null, null, null, false, 0);
+    }
+
+    /**
+     * Constructor. The declared length of every file is reserved from the given {@link MemoryBudget}
+     * and the declared length of every data file from the given {@link DiskSpaceReservation} (if not
+     * <code>null</code>) before the file is acknowledged positively. Refused reservations are
+     * counted in the given {@link LinePrinterDaemonStatistics} (if not <code>null</code>). If
+     * <code>isUnknownLengthSupported</code> is <code>true</code>, a data file with the declared length
+     * 0 is passed to the {@link DaemonCommandHandler} as a data file of unknown length that ends when
+     * the client closes the connection. Such a data file may have at most <code>maxUnknownLength</code>
+     * bytes (if greater than 0), which are reserved instead of the declared length. Without a maximum
+     * length, data files of unknown length are refused if a {@link MemoryBudget} or a
+     * {@link DiskSpaceReservation} is given, as they could not be accounted for.
+     */
+    ReceivePrinterJobCommandParser(
+            final Logger logger,
+            final DaemonCommandHandler handler,
+            final MemoryBudget memoryBudget,
+            final DiskSpaceReservation diskSpace,
+            final LinePrinterDaemonStatistics statistics,
+            final boolean isUnknownLengthSupported,
+            final long maxUnknownLength) {
+
         super(logger, handler);
+        this.memoryBudget = memoryBudget;
+        this.diskSpace = diskSpace;
+        this.statistics = statistics;
+        this.isUnknownLengthSupported = isUnknownLengthSupported;
+        this.maxUnknownLength = maxUnknownLength;
+    }
+
+    /**
+     * An {@link InputStream} that fails if more than the given number of bytes are read, so a data file
+     * of unknown length cannot exceed the length reserved for it. Closing the stream does not close
+     * the underlying {@link InputStream}.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long remaining;
+        private boolean isExceeded;
+
+        /**
+         * Constructor.
+         */
+        LimitedInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.limit = limit;
+            this.remaining = limit;
+        }
+
+        /**
+         * Gets called if the limit has been reached. Returns -1 if the underlying {@link InputStream}
+         * has ended as well, otherwise an {@link IOException} is thrown.
+         */
+        private int checkEnd() throws IOException {
+            if (this.in.read() == -1) {
+                return -1;
+            }
+            this.isExceeded = true;
+            throw new IOException("The data file of unknown length exceeds the maximum length of "
+                    + this.limit + " bytes");
+        }
+
+        /**
+         * Returns <code>true</code> if more than the given number of bytes have been sent.
+         */
+        boolean isExceeded() {
+            return this.isExceeded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining == 0) {
+                return this.checkEnd();
+            }
+
+            final int result = this.in.read();
+            if (result != -1) {
+                --this.remaining;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (this.remaining == 0) {
+                return this.checkEnd();
+            }
+
+            final int result = this.in.read(b, off, (int) Math.min(len, this.remaining));
+            if (result > 0) {
+                this.remaining -= result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long result = this.in.skip(Math.min(n, this.remaining));
+            this.remaining -= result;
+            return result;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(this.in.available(), this.remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The underlying InputStream is the connection, which is closed by the LinePrinterDaemon...
+        }
+    }
+
+    /**
+     * An {@link InputStream} that releases the disk space reserved for a data file as its bytes are read,
+     * because the bytes passed to the {@link DaemonCommandHandler} occupy the spool volume themselves (and
+     * reduce its usable space) once they have been written. Closing the stream does not close the
+     * underlying {@link InputStream}.
+     */
+    private final class DiskSpaceReleasingInputStream extends FilterInputStream {
+
+        /**
+         * Constructor.
+         */
+        DiskSpaceReleasingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = this.in.read();
+            if (result != -1) {
+                ReceivePrinterJobCommandParser.this.releaseDiskSpace(1);
+            }
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int result = this.in.read(b, off, len);
+            if (result > 0) {
+                ReceivePrinterJobCommandParser.this.releaseDiskSpace(result);
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long result = this.in.skip(n);
+            ReceivePrinterJobCommandParser.this.releaseDiskSpace(result);
+            return result;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The underlying InputStream is the connection, which is closed by the LinePrinterDaemon...
+        }
     }
 
     /**
@@ -76,6 +257,94 @@ final class ReceivePrinterJobCommandParser extends CommandParser {
 
             // Re-throw the exception so the upper exception handler does its cleanup...
             throw e;
+        } finally {
+            this.releaseMemory();
+            this.releaseDiskSpace();
+        }
+    }
+
+    /**
+     * Reserves the declared length of a file from the {@link MemoryBudget}. Returns <code>false</code>
+     * if the {@link MemoryBudget} is exhausted.
+     */
+    private boolean reserveMemory(final long fileLength) throws IOException {
+        if (this.memoryBudget == null) {
+            return true;
+        }
+
+        if (!this.memoryBudget.reserve(fileLength)) {
+            this.getLogger().warn("Refusing a file of " + fileLength + " bytes because the memory budget is exhausted");
+            if (this.statistics != null) {
+                this.statistics.fileRefusedForMemory();
+            }
+            return false;
+        }
+
+        this.reservedMemory += fileLength;
+        return true;
+    }
+
+    /**
+     * Returns <code>false</code> if a data file of unknown length cannot be accepted because its
+     * length could not be accounted for in the {@link MemoryBudget} or on the spool volume.
+     */
+    private boolean isUnknownLengthAcceptable() {
+        if (this.maxUnknownLength > 0 || (this.memoryBudget == null && this.diskSpace == null)) {
+            return true;
+        }
+
+        this.getLogger().warn("Refusing a data file of unknown length because no maximum length has been set");
+        return false;
+    }
+
+    /**
+     * Reserves the declared length of a data file on the spool volume. Returns <code>false</code>
+     * if there is not enough room.
+     */
+    private boolean reserveDiskSpace(final long fileLength) throws IOException {
+        if (this.diskSpace == null) {
+            return true;
+        }
+
+        if (!this.diskSpace.reserve(fileLength)) {
+            this.getLogger().warn("Refusing a data file of " + fileLength + " bytes because the spool volume is full");
+            if (this.statistics != null) {
+                this.statistics.fileRefusedForDiskSpace();
+            }
+            return false;
+        }
+
+        this.reservedDiskSpace = fileLength;
+        return true;
+    }
+
+    /**
+     * Releases the disk space reserved for the current data file. Once the data file has been
+     * written, it occupies the space on the spool volume itself.
+     */
+    private void releaseDiskSpace() {
+        this.releaseDiskSpace(this.reservedDiskSpace);
+    }
+
+    /**
+     * Releases the given number of bytes (at most the bytes still reserved) of the disk space reserved
+     * for the current data file.
+     */
+    private void releaseDiskSpace(final long bytes) {
+        if (this.diskSpace != null) {
+            final long toRelease = Math.min(bytes, this.reservedDiskSpace);
+            this.diskSpace.release(toRelease);
+            this.reservedDiskSpace -= toRelease;
+        }
+    }
+
+    /**
+     * Releases all bytes reserved from the {@link MemoryBudget} for the current printer job.
+     */
+    private void releaseMemory() {
+        if (this.memoryBudget != null) {
+            this.memoryBudget.release(this.reservedMemory);
+            this.reservedMemory = 0;
         }
     }
 
@@ -101,6 +370,7 @@ final class ReceivePrinterJobCommandParser extends CommandParser {
             if (commandCode == COMMAND_CODE_ABORT_JOB) {
                 this.getLogger().debug("Abort job");
                 this.getDaemonCommandHandler().abortPrinterJob();
+                this.releaseMemory();
             } else {
                 if (commandCode == COMMAND_CODE_RECEIVE_CONTROL_FILE) {
                     this.getLogger().debug("Receive control file");
@@ -115,20 +385,33 @@ final class ReceivePrinterJobCommandParser extends CommandParser {
                     throw new IOException("Client sent inavlid data: " + parameterString);
                 }
 
-                final long fileLength = Long.parseLong(parameters[0]);
-                if (commandCode == COMMAND_CODE_RECEIVE_CONTROL_FILE && fileLength <= 0) {
+                final long declaredLength = Long.parseLong(parameters[0]);
+                if (commandCode == COMMAND_CODE_RECEIVE_CONTROL_FILE && declaredLength <= 0) {
                     throw new IOException("Client specified a zero length control file which is not allowed");
                 }
 
-                if (commandCode == COMMAND_CODE_RECEIVE_DATA_FILE && fileLength < 0) {
+                if (commandCode == COMMAND_CODE_RECEIVE_DATA_FILE && declaredLength < 0) {
                     throw new IOException("Client specified an invalid (negative) data file length");
                 }
 
+                // Some clients (i. e. LPRng) send a data file of length 0 and stream the data
+                // until they close the connection...
+                final boolean isUnknownLength = commandCode == COMMAND_CODE_RECEIVE_DATA_FILE
+                        && declaredLength == 0
+                        && this.isUnknownLengthSupported;
+
+                final long fileLength = isUnknownLength ? DaemonCommandHandler.UNKNOWN_FILE_LENGTH : declaredLength;
+
                 final String fileName = parameters[1];
 
-                final boolean canContinue = commandCode == COMMAND_CODE_RECEIVE_CONTROL_FILE
-                    ? this.getDaemonCommandHandler().isControlFileAcceptable((int) fileLength, fileName)
-                    : this.getDaemonCommandHandler().isDataFileAcceptable(fileLength, fileName);
+                // A data file of unknown length may have up to the maximum length...
+                final long reservedLength = isUnknownLength ? Math.max(0, this.maxUnknownLength) : fileLength;
+                final boolean canContinue = (!isUnknownLength || this.isUnknownLengthAcceptable())
+                    && this.reserveMemory(reservedLength)
+                    && (commandCode == COMMAND_CODE_RECEIVE_CONTROL_FILE || this.reserveDiskSpace(reservedLength))
+                    && (commandCode == COMMAND_CODE_RECEIVE_CONTROL_FILE
+                        ? this.getDaemonCommandHandler().isControlFileAcceptable((int) fileLength, fileName)
+                        : this.getDaemonCommandHandler().isDataFileAcceptable(fileLength, fileName));
 
                 if (canContinue) {
                     this.sendPositiveAcknowledgement(os);
@@ -138,10 +421,43 @@ final class ReceivePrinterJobCommandParser extends CommandParser {
                     return;
                 }
 
+                boolean isTruncated = false;
                 if (commandCode == COMMAND_CODE_RECEIVE_CONTROL_FILE) {
                     this.getDaemonCommandHandler().receiveControlFile(is, (int) fileLength, fileName);
                 } else {
-                    this.getDaemonCommandHandler().receiveDataFile(is, fileLength, fileName);
+                    final LimitedInputStream limited = isUnknownLength && this.maxUnknownLength > 0
+                            ? new LimitedInputStream(is, this.maxUnknownLength)
+                            : null;
+                    final InputStream limitedStream = limited == null ? is : limited;
+                    final InputStream dataStream = this.diskSpace == null
+                            ? limitedStream
+                            : new DiskSpaceReleasingInputStream(limitedStream);
+                    try {
+                        this.getDaemonCommandHandler().receiveDataFile(dataStream, fileLength, fileName);
+
+                        // A data file of unknown length is only complete if it has been read to its end...
+                        isTruncated = isUnknownLength && dataStream.read() != -1;
+                    } catch (final IOException e) {
+                        if (limited != null && limited.isExceeded()) {
+                            this.getDaemonCommandHandler().abortPrinterJob();
+                        }
+                        throw e;
+                    } finally {
+                        this.releaseDiskSpace();
+                    }
+                }
+
+                if (isTruncated) {
+                    this.getLogger().warn("Abort job (the data file of unknown length has not been read to its end)");
+                    this.getDaemonCommandHandler().abortPrinterJob();
+                    return;
+                }
+
+                if (isUnknownLength) {
+                    // The client has closed its side of the connection, so the data file and the job are complete...
+                    this.getLogger().debug("End job (data file of unknown length is complete)");
+                    this.getDaemonCommandHandler().endPrinterJob();
+                    return;
                 }
 
                 // After the file has been sent completely, the client sends an 0x00 as an indication that
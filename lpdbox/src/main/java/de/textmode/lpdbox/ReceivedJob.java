@@ -0,0 +1,105 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A {@link ReceivedJob} is a completely received printer job, consisting of the parsed
+ * {@link ControlFile} and the data files as {@link Payload}s. A {@link ReceivedJob} must be closed,
+ * so the {@link Payload}s are released.
+ */
+public final class ReceivedJob implements Closeable {
+
+    private final String queueName;
+    private final String controlFileName;
+    private final ControlFile controlFile;
+    private final Map<String, Payload> dataFiles;
+
+    /**
+     * Constructor.
+     */
+    ReceivedJob(
+            final String queueName,
+            final String controlFileName,
+            final ControlFile controlFile,
+            final Map<String, Payload> dataFiles) {
+
+        this.queueName = queueName;
+        this.controlFileName = controlFileName;
+        this.controlFile = controlFile;
+        this.dataFiles = dataFiles;
+    }
+
+    /**
+     * Returns the name of the queue the printer job has been sent to.
+     */
+    public String getQueueName() {
+        return this.queueName;
+    }
+
+    /**
+     * Returns the name of the control file (i. e. "cfA001localhost").
+     */
+    public String getControlFileName() {
+        return this.controlFileName;
+    }
+
+    /**
+     * Returns the parsed {@link ControlFile}.
+     */
+    public ControlFile getControlFile() {
+        return this.controlFile;
+    }
+
+    /**
+     * Returns the data file with the given name or <code>null</code> if the printer job does not
+     * contain such a data file.
+     */
+    public Payload getDataFile(final String fileName) {
+        return this.dataFiles.get(fileName);
+    }
+
+    /**
+     * Returns all data files by their names (in the order they have been received).
+     */
+    public Map<String, Payload> getDataFiles() {
+        return Collections.unmodifiableMap(this.dataFiles);
+    }
+
+    /**
+     * Closes all data files.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (final Payload payload : this.dataFiles.values()) {
+            try {
+                payload.close();
+            } catch (final IOException e) {
+                exception = e;
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+/**
+ * A {@link ReceivedJobListener} gets notified by the {@link JobAssemblerFactory} as soon as a printer
+ * job (the control file and all data files it refers to) has been received completely.
+ */
+public interface ReceivedJobListener {
+
+    /**
+     * Gets called when a printer job has been received completely. The listener takes the ownership
+     * of the {@link ReceivedJob} and <b>MUST</b> close it when done. If an {@link IOException} is thrown,
+     * the connection gets closed. If an exception is thrown, the {@link ReceivedJob} is closed by the caller.
+     */
+    void jobReceived(final ReceivedJob job) throws IOException;
+}
@@ -0,0 +1,128 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link RecentJobIndex} remembers the printer jobs received recently, so a printer job sent again by
+ * a client (i. e. because the client timed out while waiting for the acknowledgement) can be recognized
+ * and skipped by the {@link JobAssemblerFactory}. A printer job is identified by the job number and host
+ * name taken from the name of the control file and the CRC-32 checksum of the control file.
+ *
+ * <p>The {@link RecentJobIndex} keeps at most <code>maxEntries</code> printer jobs (the oldest are dropped
+ * first) and forgets a printer job <code>expiryInMillis</code> after it has been received. The expiry is
+ * measured with {@link System#nanoTime()}, so it is not affected by changes of the system clock. All methods
+ * are thread safe, so a single {@link RecentJobIndex} can be shared by all connections.</p>
+ */
+public final class RecentJobIndex {
+
+    private final int maxEntries;
+    private final long expiryInNanos;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>();
+
+    private long duplicateCount;
+
+    /**
+     * Constructor.
+     */
+    public RecentJobIndex(final int maxEntries, final long expiryInMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid number of entries: " + maxEntries);
+        }
+
+        this.maxEntries = maxEntries;
+        this.expiryInNanos = TimeUnit.MILLISECONDS.toNanos(expiryInMillis);
+    }
+
+    /**
+     * Returns the key of a printer job.
+     */
+    static String createKey(final String controlFileName, final long checksum) {
+        return JobAssembler.getJobKey(controlFileName) + ':' + Long.toHexString(checksum);
+    }
+
+    /**
+     * Returns <code>true</code> (and counts a duplicate) if the printer job with the given key has been
+     * received recently.
+     */
+    synchronized boolean contains(final String key) {
+        this.expire(System.nanoTime());
+        if (this.entries.containsKey(key)) {
+            ++this.duplicateCount;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the printer job with the given key.
+     */
+    synchronized void add(final String key) {
+        final long now = System.nanoTime();
+        this.expire(now);
+
+        this.entries.remove(key);
+        this.entries.put(key, now);
+
+        if (this.entries.size() > this.maxEntries) {
+            final Iterator<String> iterator = this.entries.keySet().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes the printer job with the given key (i. e. because it could not be processed, so a retry
+     * of the client must not be skipped).
+     */
+    synchronized void remove(final String key) {
+        this.entries.remove(key);
+    }
+
+    /**
+     * Removes all expired entries. As the entries are kept in the order they have been added, only the
+     * head of the map has to be checked.
+     */
+    private void expire(final long now) {
+        final Iterator<Map.Entry<String, Long>> iterator = this.entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue() < this.expiryInNanos) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the number of printer jobs currently remembered.
+     */
+    public synchronized int size() {
+        this.expire(System.nanoTime());
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the number of printer jobs that have been recognized as sent again.
+     */
+    public synchronized long getDuplicateCount() {
+        return this.duplicateCount;
+    }
+}
@@ -53,7 +53,9 @@ final class ReportQueueStateLongCommandParser extends CommandParser {
             jobs.add(parameters[ix]);
         }
 
-        Util.writeString(this.getDaemonCommandHandler().sendQueueStateLong(parameters[0], jobs), os);
+        final QueueStateWriter writer = new QueueStateWriter(os);
+        this.getDaemonCommandHandler().sendQueueStateLong(parameters[0], jobs, writer);
+        writer.flush();
     }
 
 }
@@ -53,6 +53,8 @@ final class ReportQueueStateShortCommandParser extends CommandParser {
             jobs.add(parameters[ix]);
         }
 
-        Util.writeString(this.getDaemonCommandHandler().sendQueueStateShort(parameters[0], jobs), os);
+        final QueueStateWriter writer = new QueueStateWriter(os);
+        this.getDaemonCommandHandler().sendQueueStateShort(parameters[0], jobs, writer);
+        writer.flush();
     }
 }
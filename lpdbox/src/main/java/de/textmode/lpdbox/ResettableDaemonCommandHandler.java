@@ -0,0 +1,35 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+/**
+ * A {@link DaemonCommandHandler} that can be reused for another connection after it has been
+ * reset. Handlers that implement this interface can be pooled by a
+ * {@link PooledDaemonCommandHandlerFactory}, so expensive resources (database connections,
+ * temporary directories, ...) do not have to be set up for every connection.
+ */
+public interface ResettableDaemonCommandHandler extends DaemonCommandHandler {
+
+    /**
+     * Resets the state of the handler, so it can be used for another connection. Gets called
+     * instead of {@link #close()} when the handler is returned to the pool. If this method throws
+     * an exception, the handler is closed and not reused.
+     */
+    void reset() throws IOException;
+}
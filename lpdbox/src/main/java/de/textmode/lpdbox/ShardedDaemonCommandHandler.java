@@ -0,0 +1,270 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The {@link ShardedDaemonCommandHandler} is the {@link DaemonCommandHandler} created by the
+ * {@link ShardedDaemonCommandHandlerFactory}. It executes all operations of its
+ * {@link DaemonCommandHandler} by the shard of the current queue and waits for the result. The files
+ * are received into a {@link PayloadSink} before they are passed to the shard, and the state of a queue
+ * is rendered by the shard into memory and written to the client by the thread of the connection. The
+ * state is buffered completely on purpose: the shard is never blocked by a slow client, at the cost of
+ * holding the whole state of the queue in memory until it has been sent.
+ */
+final class ShardedDaemonCommandHandler extends ForwardingDaemonCommandHandler {
+
+    private final PayloadSink sink;
+    private final ShardedDaemonCommandHandlerFactory factory;
+
+    private String queueName;
+
+    /**
+     * Constructor.
+     */
+    ShardedDaemonCommandHandler(
+            final DaemonCommandHandler handler,
+            final PayloadSink sink,
+            final ShardedDaemonCommandHandlerFactory factory) {
+
+        super(handler);
+        this.sink = sink;
+        this.factory = factory;
+    }
+
+    /**
+     * Executes the given {@link Callable} by the shard of the given queue and returns its result.
+     */
+    private <T> T call(final String queue, final Callable<T> callable) throws IOException {
+        final Future<T> future;
+        try {
+            future = this.factory.getExecutor(queue).submit(callable);
+        } catch (final RejectedExecutionException e) {
+            throw new IOException("The shard of queue " + queue + " has been stopped", e);
+        }
+        return this.await(queue, future);
+    }
+
+    /**
+     * Waits for the result of an operation submitted to the shard of the given queue.
+     */
+    private <T> T await(final String queue, final Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the shard of queue " + queue);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void printJobs(final String queue) throws IOException {
+        this.call(queue, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                ShardedDaemonCommandHandler.this.getDelegate().printJobs(queue);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public boolean startPrinterJob(final String queue) throws IOException {
+        this.queueName = queue;
+        return this.call(queue, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return ShardedDaemonCommandHandler.this.getDelegate().startPrinterJob(queue);
+            }
+        });
+    }
+
+    @Override
+    public boolean isControlFileAcceptable(final int fileLength, final String fileName) throws IOException {
+        return this.call(this.queueName, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return ShardedDaemonCommandHandler.this.getDelegate().isControlFileAcceptable(fileLength, fileName);
+            }
+        });
+    }
+
+    @Override
+    public void receiveControlFile(final InputStream is, final int fileLength, final String fileName)
+            throws IOException {
+
+        try (final Payload payload = this.sink.receive(is, fileLength)) {
+            this.call(this.queueName, new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    ShardedDaemonCommandHandler.this.getDelegate().receiveControlFile(
+                            payload.getInputStream(), fileLength, fileName);
+                    return null;
+                }
+            });
+        }
+    }
+
+    @Override
+    public boolean isDataFileAcceptable(final long fileLength, final String fileName) throws IOException {
+        return this.call(this.queueName, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                return ShardedDaemonCommandHandler.this.getDelegate().isDataFileAcceptable(fileLength, fileName);
+            }
+        });
+    }
+
+    @Override
+    public void receiveDataFile(final InputStream is, final long fileLength, final String fileName)
+            throws IOException {
+
+        try (final Payload payload = this.sink.receive(is, fileLength)) {
+            this.call(this.queueName, new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    ShardedDaemonCommandHandler.this.getDelegate().receiveDataFile(
+                            payload.getInputStream(), fileLength, fileName);
+                    return null;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void abortPrinterJob() throws IOException {
+        this.call(this.queueName, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                ShardedDaemonCommandHandler.this.getDelegate().abortPrinterJob();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void endPrinterJob() throws IOException {
+        this.call(this.queueName, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                ShardedDaemonCommandHandler.this.getDelegate().endPrinterJob();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void removeJobs(final String queue, final String agent, final List<String> jobs) throws IOException {
+        this.call(queue, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                ShardedDaemonCommandHandler.this.getDelegate().removeJobs(queue, agent, jobs);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public String sendQueueStateLong(final String queue, final List<String> jobs) throws IOException {
+        return this.call(queue, new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return ShardedDaemonCommandHandler.this.getDelegate().sendQueueStateLong(queue, jobs);
+            }
+        });
+    }
+
+    @Override
+    public String sendQueueStateShort(final String queue, final List<String> jobs) throws IOException {
+        return this.call(queue, new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return ShardedDaemonCommandHandler.this.getDelegate().sendQueueStateShort(queue, jobs);
+            }
+        });
+    }
+
+    @Override
+    public void sendQueueStateLong(final String queue, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        // Rendered by the shard, written by the connection - so a slow client cannot block the shard...
+        out.append(this.call(queue, new Callable<StringBuilder>() {
+            @Override
+            public StringBuilder call() throws IOException {
+                final StringBuilder state = new StringBuilder();
+                ShardedDaemonCommandHandler.this.getDelegate().sendQueueStateLong(queue, jobs, state);
+                return state;
+            }
+        }));
+    }
+
+    @Override
+    public void sendQueueStateShort(final String queue, final List<String> jobs, final Appendable out)
+            throws IOException {
+
+        // Rendered by the shard, written by the connection - so a slow client cannot block the shard...
+        out.append(this.call(queue, new Callable<StringBuilder>() {
+            @Override
+            public StringBuilder call() throws IOException {
+                final StringBuilder state = new StringBuilder();
+                ShardedDaemonCommandHandler.this.getDelegate().sendQueueStateShort(queue, jobs, state);
+                return state;
+            }
+        }));
+    }
+
+    /**
+     * Closes the wrapped {@link DaemonCommandHandler} by the shard of the current queue. If the shards
+     * have already been stopped, it is closed by the calling thread, so it does not leak.
+     */
+    @Override
+    public void close() throws IOException {
+        final Future<Void> future;
+        try {
+            future = this.factory.getExecutor(this.queueName).submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    ShardedDaemonCommandHandler.this.getDelegate().close();
+                    return null;
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            this.getDelegate().close();
+            return;
+        }
+        this.await(this.queueName, future);
+    }
+}
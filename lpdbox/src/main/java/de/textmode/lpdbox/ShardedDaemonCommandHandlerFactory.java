@@ -0,0 +1,116 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The {@link ShardedDaemonCommandHandlerFactory} wraps a {@link DaemonCommandHandlerFactory} and routes all
+ * operations on a queue to a fixed shard. Each shard is a single thread, and the shard of a queue is
+ * determined by the hash of the queue name. So all operations on a queue are executed one after another by
+ * the same thread, and the {@link DaemonCommandHandler}s can keep the state of a queue (i. e. in a map
+ * shared by all of them) without locks. Operations on queues of different shards run in parallel.
+ *
+ * <p>Threading contract: every connection gets its own {@link DaemonCommandHandler} from the wrapped
+ * {@link DaemonCommandHandlerFactory}, so the state of a printer job can be kept in its fields. The
+ * {@link DaemonCommandHandlerFactory} itself is called by the thread of the connection. All methods of
+ * the {@link DaemonCommandHandler}, including <code>receiveControlFile</code>, <code>receiveDataFile</code>
+ * and <code>close</code>, are executed by the shard of the queue the connection currently works on while
+ * the connection waits (<code>close</code> is executed by the first shard if no queue has been named, and
+ * by the thread of the connection if the shards have already been stopped).
+ * The files are received into the given {@link PayloadSink} by the thread of the connection first, so a
+ * shard is never blocked by a slow client; the {@link java.io.InputStream} passed to the
+ * {@link DaemonCommandHandler} reads the received file. For the same reason the state of a queue is
+ * rendered into memory by the shard and written to the client afterwards, so it is held in memory
+ * completely while it is sent.</p>
+ */
+public final class ShardedDaemonCommandHandlerFactory implements DaemonCommandHandlerFactory, Closeable {
+
+    private final DaemonCommandHandlerFactory factory;
+    private final PayloadSink sink;
+    private final ExecutorService[] shards;
+
+    /**
+     * Constructor.
+     */
+    public ShardedDaemonCommandHandlerFactory(
+            final DaemonCommandHandlerFactory factory,
+            final PayloadSink sink,
+            final int shardCount) {
+
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Invalid number of shards: " + shardCount);
+        }
+
+        this.factory = factory;
+        this.sink = sink;
+        this.shards = new ExecutorService[shardCount];
+
+        for (int ix = 0; ix < shardCount; ++ix) {
+            final String name = "lpdbox-shard-" + ix;
+            this.shards[ix] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the number of shards.
+     */
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * Returns the index of the shard that executes the operations on the given queue (the first shard
+     * if the queue name is <code>null</code>).
+     */
+    public int getShard(final String queueName) {
+        return queueName == null ? 0 : (queueName.hashCode() & Integer.MAX_VALUE) % this.shards.length;
+    }
+
+    @Override
+    public DaemonCommandHandler create() {
+        final DaemonCommandHandler handler = this.factory.create();
+        return handler == null ? null : new ShardedDaemonCommandHandler(handler, this.sink, this);
+    }
+
+    /**
+     * Returns the {@link ExecutorService} of the shard for the given queue.
+     */
+    ExecutorService getExecutor(final String queueName) {
+        return this.shards[this.getShard(queueName)];
+    }
+
+    /**
+     * Stops the shards. Operations already submitted are still executed.
+     */
+    @Override
+    public void close() {
+        for (final ExecutorService shard : this.shards) {
+            shard.shutdown();
+        }
+    }
+}
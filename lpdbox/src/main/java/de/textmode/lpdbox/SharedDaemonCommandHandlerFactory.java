@@ -0,0 +1,60 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The {@link SharedDaemonCommandHandlerFactory} hands out a single, thread safe
+ * {@link DaemonCommandHandler} to all connections, so the handler is set up only once.
+ *
+ * <p>Note that the {@link DaemonCommandHandler} is called concurrently by all threads of the
+ * {@link LinePrinterDaemon}. It must be thread safe and must not keep state of a printer job in
+ * fields (state of a printer job can be kept in a {@link ThreadLocal}, because a job is handled
+ * by a single thread). Closing a connection does not close the shared handler; it is closed when
+ * the {@link SharedDaemonCommandHandlerFactory} gets closed.</p>
+ */
+public final class SharedDaemonCommandHandlerFactory implements DaemonCommandHandlerFactory, Closeable {
+
+    private final DaemonCommandHandler handler;
+
+    /**
+     * Constructor.
+     */
+    public SharedDaemonCommandHandlerFactory(final DaemonCommandHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public DaemonCommandHandler create() {
+        return new ForwardingDaemonCommandHandler(this.handler) {
+            @Override
+            public void close() {
+                // The shared handler is closed by SharedDaemonCommandHandlerFactory.close()...
+            }
+        };
+    }
+
+    /**
+     * Closes the shared {@link DaemonCommandHandler}.
+     */
+    @Override
+    public void close() throws IOException {
+        this.handler.close();
+    }
+}
@@ -0,0 +1,108 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TransportConnection} that is based on a {@link Socket}.
+ */
+final class SocketTransportConnection implements TransportConnection {
+
+    private static final int DRAIN_BUFFER_SIZE = 512;
+
+    private final Socket socket;
+
+    /**
+     * Constructor.
+     */
+    SocketTransportConnection(final Socket socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return this.socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return this.socket.getOutputStream();
+    }
+
+    @Override
+    public ReadableByteChannel getChannel() {
+        // Sockets accepted by a ServerSocketChannel (i. e. an inherited channel) have a channel...
+        return this.socket.getChannel();
+    }
+
+    @Override
+    public String getClient() {
+        return Util.getClientString(this.socket);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+
+    @Override
+    public boolean isGracefulCloseSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean closeGracefully(final long timeoutInMillis) throws IOException {
+        try {
+            this.socket.shutdownOutput();
+
+            // Everything the client still sends is discarded until it closes its side...
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+            final InputStream is = this.socket.getInputStream();
+            final byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+
+            long remaining = timeoutInMillis;
+            while (remaining > 0) {
+                this.socket.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+                if (is.read(buffer) == -1) {
+                    return true;
+                }
+                remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            }
+            return false;
+        } catch (final SocketTimeoutException e) {
+            return false;
+        } finally {
+            this.socket.close();
+        }
+    }
+
+    @Override
+    public void reset() throws IOException {
+        try {
+            this.socket.setSoLinger(true, 0);
+        } finally {
+            this.socket.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A {@link StuckHandlerListener} gets notified by the {@link LinePrinterDaemon} if a call to a
+ * {@link DaemonCommandHandler} takes longer than the configured threshold (see
+ * {@link LinePrinterDaemonBuilder#stuckHandlerThreshold(long)}).
+ */
+public interface StuckHandlerListener {
+
+    /**
+     * Gets called (once per handler call) if a call to a {@link DaemonCommandHandler} takes longer
+     * than the configured threshold. The listener gets called by the watchdog thread of the
+     * {@link LinePrinterDaemon}, so it should return quickly.
+     *
+     * @param connection snapshot of the connection whose handler is stuck
+     * @param method name of the {@link DaemonCommandHandler} method that is stuck
+     * @param durationInMillis time (in milliseconds) the call is running
+     * @param stackTrace stack trace of the thread that is stuck
+     */
+    void stuckHandlerDetected(
+            final ConnectionInfo connection,
+            final String method,
+            final long durationInMillis,
+            final StackTraceElement[] stackTrace);
+}
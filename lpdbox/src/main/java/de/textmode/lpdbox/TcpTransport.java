@@ -0,0 +1,174 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channel;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * The {@link TcpTransport} accepts client connections on a TCP port. This is the {@link Transport}
+ * used by default.
+ *
+ * <p>Instead of binding a port itself, the {@link TcpTransport} can adopt an already bound
+ * {@link ServerSocket} or {@link ServerSocketChannel}, i. e. the listening socket inherited from
+ * inetd or systemd (see {@link #inheritedChannel()}) or one passed in by a supervisor. A
+ * {@link TcpTransport} can also {@link #handOff() hand off} its listening socket to a new
+ * {@link LinePrinterDaemon}, so the port is never closed during a restart.</p>
+ *
+ * <p>The listening socket is opened as a {@link ServerSocketChannel}, so the {@link LinePrinterDaemon}
+ * reads from the accepted connections through pooled direct buffers (see {@link ByteBufferPool}).
+ * Connections accepted by an adopted plain {@link ServerSocket} are read through their streams.</p>
+ */
+public final class TcpTransport implements Transport {
+
+    /**
+     * Time (in milliseconds) after which {@link #accept()} returns <code>null</code> if no client
+     * has connected, so a {@link LinePrinterDaemon} notices a {@link #handOff() handoff}.
+     */
+    private static final int ACCEPT_TIMEOUT = 500;
+
+    private final int portNumber;
+
+    private volatile ServerSocket serverSocket;
+    private volatile boolean isHandedOff;
+
+    /**
+     * Constructor. The {@link TcpTransport} will listen on the given port number.
+     */
+    public TcpTransport(final int portNumber) {
+        this.portNumber = portNumber;
+    }
+
+    /**
+     * Constructor. The {@link TcpTransport} adopts the given, already bound {@link ServerSocket}.
+     */
+    public TcpTransport(final ServerSocket serverSocket) {
+        this.portNumber = serverSocket.getLocalPort();
+        this.serverSocket = serverSocket;
+    }
+
+    /**
+     * Constructor. The {@link TcpTransport} adopts the given, already bound {@link ServerSocketChannel}.
+     * The {@link ServerSocketChannel} is switched to blocking mode.
+     */
+    public TcpTransport(final ServerSocketChannel channel) throws IOException {
+        this(adopt(channel));
+    }
+
+    /**
+     * Switches the given {@link ServerSocketChannel} to blocking mode and returns its {@link ServerSocket}.
+     */
+    private static ServerSocket adopt(final ServerSocketChannel channel) throws IOException {
+        channel.configureBlocking(true);
+        return channel.socket();
+    }
+
+    /**
+     * Creates a {@link TcpTransport} that adopts the listening socket inherited from the process
+     * that started the JVM (see {@link System#inheritedChannel()}), i. e. inetd (using the "wait"
+     * mode) or systemd socket activation. Throws an {@link IOException} if no listening TCP socket
+     * has been inherited.
+     */
+    public static TcpTransport inheritedChannel() throws IOException {
+        final Channel channel = System.inheritedChannel();
+        if (!(channel instanceof ServerSocketChannel)) {
+            throw new IOException("No listening socket has been inherited");
+        }
+        return new TcpTransport((ServerSocketChannel) channel);
+    }
+
+    @Override
+    public synchronized void bind() throws IOException {
+        if (this.serverSocket == null) {
+            final ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                final ServerSocket socket = channel.socket();
+                socket.setReuseAddress(true);
+                socket.bind(new InetSocketAddress(this.portNumber));
+                socket.setSoTimeout(ACCEPT_TIMEOUT);
+                this.serverSocket = socket;
+            } catch (final IOException e) {
+                Util.closeQuietly(channel);
+                throw e;
+            }
+        } else if (!this.serverSocket.isBound()) {
+            throw new IOException("The adopted server socket has not been bound");
+        } else {
+            this.serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+        }
+    }
+
+    @Override
+    public boolean isBound() {
+        final ServerSocket socket = this.serverSocket;
+        return socket != null && !socket.isClosed();
+    }
+
+    @Override
+    public TransportConnection accept() throws IOException {
+        final ServerSocket socket = this.serverSocket;
+        if (socket == null) {
+            throw new IOException("The transport has not been bound");
+        }
+
+        try {
+            return new SocketTransportConnection(socket.accept());
+        } catch (final SocketTimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hands the listening socket off to a new {@link TcpTransport} (that is returned). After the
+     * handoff this {@link TcpTransport} does not close the listening socket anymore, so the
+     * {@link LinePrinterDaemon} using it can be stopped or drained while the new {@link TcpTransport}
+     * keeps accepting connections. A connection accepted by this {@link TcpTransport} while
+     * the {@link LinePrinterDaemon} stops is handled as usual.
+     */
+    @Override
+    public synchronized Transport handOff() throws IOException {
+        final ServerSocket socket = this.serverSocket;
+        if (socket == null || socket.isClosed() || this.isHandedOff) {
+            throw new IOException("The transport does not own a listening socket");
+        }
+
+        // Both transports accept on the same socket until the accept of the old LinePrinterDaemon
+        // times out and it notices its shutdown...
+        this.isHandedOff = true;
+
+        return new TcpTransport(socket);
+    }
+
+    @Override
+    public String getDescription() {
+        return "port " + this.portNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final ServerSocket socket = this.serverSocket;
+        if (socket != null && !this.isHandedOff) {
+            // Closing the server socket causes an exception on the
+            // ServerSocket.accept() method.... And this let's the server end...
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A {@link Transport} accepts the client connections for a {@link LinePrinterDaemon}. The
+ * {@link LinePrinterDaemon} uses a TCP based {@link Transport} by default, but any other
+ * {@link Transport} can be set using {@link LinePrinterDaemonBuilder#transport(Transport)}.
+ * The same parsers and {@link DaemonCommandHandler}s serve the connections of all transports.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Binds the {@link Transport} (i. e. opens the listening socket). Connections are not
+     * accepted until {@link #accept()} gets called. Calling this method more than once has
+     * no effect.
+     */
+    void bind() throws IOException;
+
+    /**
+     * Returns <code>true</code> if the {@link Transport} has been bound and not closed yet.
+     */
+    boolean isBound();
+
+    /**
+     * Waits for a client connection and returns it. This method may return <code>null</code>
+     * if no connection has been accepted within an implementation specific period, so the
+     * caller can check if it should stop. After {@link #close()} has been called, this
+     * method throws an {@link IOException}.
+     */
+    TransportConnection accept() throws IOException;
+
+    /**
+     * Returns a short textual description of the {@link Transport} (i. e. "port 515") that
+     * is used for logging.
+     */
+    String getDescription();
+
+    /**
+     * Hands the listening socket off to a new {@link Transport} (that is returned), so a new
+     * {@link LinePrinterDaemon} can take over the listening socket without closing it. This
+     * {@link Transport} stops owning the listening socket, so closing it does not close the
+     * listening socket anymore. Throws an {@link UnsupportedOperationException} if the
+     * {@link Transport} does not support a handoff.
+     */
+    default Transport handOff() throws IOException {
+        throw new UnsupportedOperationException(this.getDescription() + " does not support a handoff");
+    }
+}
@@ -0,0 +1,83 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A {@link TransportConnection} is a single client connection accepted by a {@link Transport}.
+ */
+public interface TransportConnection extends Closeable {
+
+    /**
+     * Returns the {@link InputStream} to read data sent by the client.
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Returns the {@link OutputStream} to send data to the client.
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Returns a {@link String} representation of the connected client that is used for logging.
+     */
+    String getClient();
+
+    /**
+     * Returns the (blocking) {@link ReadableByteChannel} to read data sent by the client or
+     * <code>null</code> if the connection is not based on a channel. If a {@link ReadableByteChannel}
+     * is returned, the {@link LinePrinterDaemon} reads from it instead of the {@link InputStream}
+     * returned by {@link #getInputStream()}. The default implementation returns <code>null</code>.
+     */
+    default ReadableByteChannel getChannel() {
+        return null;
+    }
+
+    /**
+     * Returns <code>true</code> if the connection implements {@link #closeGracefully(long)}. The
+     * default implementation returns <code>false</code>.
+     */
+    default boolean isGracefulCloseSupported() {
+        return false;
+    }
+
+    /**
+     * Half-closes the connection (no more data is sent to the client) and waits up to the given
+     * time until the client has closed its side of the connection, then closes the connection.
+     * Because the client closes first, the TIME_WAIT state is kept by the client and not by the
+     * server. Returns <code>true</code> if the client closed the connection within the given time.
+     * The default implementation closes the connection immediately and returns <code>false</code>.
+     */
+    default boolean closeGracefully(final long timeoutInMillis) throws IOException {
+        this.close();
+        return false;
+    }
+
+    /**
+     * Closes the connection abortively (for TCP a reset is sent using SO_LINGER with a timeout
+     * of zero), so no TIME_WAIT state is kept at all. Data not yet sent to the client is discarded.
+     * The default implementation closes the connection as usual.
+     */
+    default void reset() throws IOException {
+        this.close();
+    }
+}
@@ -0,0 +1,214 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The {@link UnixDomainSocketTransport} accepts client connections on a Unix domain socket, so
+ * clients running on the same host do not have to pay the overhead of the TCP loopback.
+ *
+ * <p>Unix domain sockets are supported by Java 16 and later. Because lpdbox itself requires Java 8
+ * only, the required classes and methods are looked up via reflection. Use {@link #isSupported()}
+ * to check if the running JVM supports Unix domain sockets.</p>
+ */
+public final class UnixDomainSocketTransport implements Transport {
+
+    private static final String DEFAULT_CLIENT = "local";
+
+    private static final int S_IFMT = 0xF000;
+    private static final int S_IFSOCK = 0xC000;
+
+    private final Path path;
+
+    private volatile ServerSocketChannel channel;
+    private Object socketFileKey;
+
+    /**
+     * Constructor. The {@link UnixDomainSocketTransport} will listen on a socket file with the given
+     * {@link Path}. A socket file left over at that {@link Path} will be deleted on {@link #bind()}.
+     * If the {@link Path} denotes anything else (i. e. a regular file), {@link #bind()} fails.
+     */
+    public UnixDomainSocketTransport(final Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns <code>true</code> if the running JVM supports Unix domain sockets.
+     */
+    public static boolean isSupported() {
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+            ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            return true;
+        } catch (final ClassNotFoundException | NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the {@link ProtocolFamily} for Unix domain sockets.
+     */
+    static ProtocolFamily getUnixProtocolFamily() throws IOException {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets are not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Creates a (Java 16+) UnixDomainSocketAddress for the given {@link Path}.
+     */
+    static SocketAddress createAddress(final Path path) throws IOException {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", Path.class)
+                    .invoke(null, path);
+        } catch (final InvocationTargetException e) {
+            throw new IOException("Could not create the address for " + path, e.getCause());
+        } catch (final ReflectiveOperationException e) {
+            throw new IOException("Unix domain sockets are not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Opens a (Java 16+) {@link ServerSocketChannel} for Unix domain sockets.
+     */
+    private static ServerSocketChannel openServerSocketChannel() throws IOException {
+        final ProtocolFamily family = getUnixProtocolFamily();
+        try {
+            return (ServerSocketChannel) ServerSocketChannel.class
+                    .getMethod("open", ProtocolFamily.class)
+                    .invoke(null, family);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not open a Unix domain socket", e.getCause());
+        } catch (final ReflectiveOperationException e) {
+            throw new IOException("Unix domain sockets are not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Returns the {@link BasicFileAttributes} of the given {@link Path} (symbolic links are not followed)
+     * or <code>null</code> if there is no such file.
+     */
+    private static BasicFileAttributes readAttributes(final Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the file with the given {@link Path} and {@link BasicFileAttributes}
+     * is a socket. If the file system does not provide the file mode, any file that is neither a regular
+     * file nor a directory nor a symbolic link is considered to be a socket.
+     */
+    private static boolean isSocket(final Path path, final BasicFileAttributes attributes) throws IOException {
+        if (!attributes.isOther()) {
+            return false;
+        }
+
+        try {
+            final int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return (mode & S_IFMT) == S_IFSOCK;
+        } catch (final UnsupportedOperationException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    @Override
+    public synchronized void bind() throws IOException {
+        if (this.channel == null) {
+            final SocketAddress address = createAddress(this.path);
+
+            // A socket file left over from a previous run would let the bind fail. Anything else
+            // found at the path is left untouched...
+            final BasicFileAttributes existing = readAttributes(this.path);
+            if (existing != null) {
+                if (!isSocket(this.path, existing)) {
+                    throw new IOException(this.path + " exists and is not a socket");
+                }
+                Files.delete(this.path);
+            }
+
+            final ServerSocketChannel serverChannel = openServerSocketChannel();
+            try {
+                serverChannel.bind(address);
+            } catch (final IOException e) {
+                Util.closeQuietly(serverChannel);
+                throw e;
+            }
+
+            final BasicFileAttributes created = readAttributes(this.path);
+            this.socketFileKey = created == null ? null : created.fileKey();
+            this.channel = serverChannel;
+        }
+    }
+
+    @Override
+    public boolean isBound() {
+        final ServerSocketChannel serverChannel = this.channel;
+        return serverChannel != null && serverChannel.isOpen();
+    }
+
+    @Override
+    public TransportConnection accept() throws IOException {
+        final ServerSocketChannel serverChannel = this.channel;
+        if (serverChannel == null) {
+            throw new IOException("The transport has not been bound");
+        }
+        return new ChannelTransportConnection(serverChannel.accept(), DEFAULT_CLIENT);
+    }
+
+    @Override
+    public String getDescription() {
+        return "unix domain socket " + this.path;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        final ServerSocketChannel serverChannel = this.channel;
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } finally {
+                // Another daemon may already have replaced the socket file, so only the socket file
+                // created by this transport is deleted...
+                final BasicFileAttributes current = readAttributes(this.path);
+                if (current != null && this.socketFileKey != null && this.socketFileKey.equals(current.fileKey())) {
+                    Files.deleteIfExists(this.path);
+                }
+                this.socketFileKey = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link BatchingJobListener}.
+ */
+public final class BatchingJobListenerTest extends TestCase {
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+    private final BatchJobSink sink = new BatchJobSink() {
+        @Override
+        public void deliver(final List<ReceivedJob> jobs) throws IOException {
+            if (jobs.get(0).getControlFileName().equals("fail")) {
+                throw new IOException("Commit failed");
+            }
+            BatchingJobListenerTest.this.batchSizes.add(jobs.size());
+        }
+    };
+
+    /**
+     * Creates a {@link ReceivedJob} without data files.
+     */
+    private static ReceivedJob createJob(final String name) throws IOException {
+        return new ReceivedJob(
+                "lp",
+                name,
+                ControlFileParser.parse("Hlocalhost\n".getBytes(ISO8859)),
+                new HashMap<String, Payload>());
+    }
+
+    /**
+     * Full batches are delivered at once, the rest after the latency.
+     */
+    public void testBatchSizeAndLatency() throws Exception {
+        final BatchingJobListener listener = new BatchingJobListener(this.sink, 3, 200, false);
+        try {
+            for (int ix = 0; ix < 7; ++ix) {
+                listener.jobReceived(createJob("cfA" + ix));
+            }
+
+            for (int ix = 0; ix < 100 && listener.getJobCount() < 6; ++ix) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, listener.getBatchCount());
+
+            for (int ix = 0; ix < 100 && listener.getJobCount() < 7; ++ix) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, listener.getBatchCount());
+            assertEquals(7, listener.getJobCount());
+            assertEquals(3, (int) this.batchSizes.get(0));
+            assertEquals(3, (int) this.batchSizes.get(1));
+            assertEquals(1, (int) this.batchSizes.get(2));
+        } finally {
+            listener.close();
+        }
+    }
+
+    /**
+     * Concurrent connections waiting for the commit share a batch.
+     */
+    public void testWaitForCommit() throws Exception {
+        final BatchingJobListener listener = new BatchingJobListener(this.sink, 4, 10000, true);
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+        final Thread[] threads = new Thread[4];
+        for (int ix = 0; ix < threads.length; ++ix) {
+            final String name = "cfA" + ix;
+            threads[ix] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.jobReceived(createJob(name));
+                    } catch (final IOException e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads[ix].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+
+        assertTrue(errors.isEmpty());
+        assertEquals(1, listener.getBatchCount());
+        assertEquals(4, (int) this.batchSizes.get(0));
+
+        // A failed commit is reported to the waiting connection...
+        final BatchingJobListener failing = new BatchingJobListener(this.sink, 1, 10000, true);
+        try {
+            failing.jobReceived(createJob("fail"));
+            fail("The commit failed");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("Commit failed"));
+        }
+
+        failing.close();
+        listener.close();
+
+        try {
+            listener.jobReceived(createJob("cfA9"));
+            fail("The listener has been closed");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+    }
+
+    /**
+     * Closing delivers the printer jobs collected so far.
+     */
+    public void testClose() throws Exception {
+        final BatchingJobListener listener = new BatchingJobListener(this.sink, 100, 60000, false);
+        listener.jobReceived(createJob("cfA1"));
+        listener.jobReceived(createJob("cfA2"));
+        listener.close();
+
+        assertEquals(1, listener.getBatchCount());
+        assertEquals(2, listener.getJobCount());
+    }
+
+    /**
+     * Closing delivers the full batches still waiting for the background thread, and every connection
+     * waiting for the commit returns.
+     */
+    public void testCloseWithQueuedBatches() throws Exception {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final BatchJobSink blockingSink = new BatchJobSink() {
+            @Override
+            public void deliver(final List<ReceivedJob> jobs) throws IOException {
+                if (firstStarted.getCount() > 0) {
+                    firstStarted.countDown();
+                    try {
+                        releaseFirst.await(5, TimeUnit.SECONDS);
+                    } catch (final InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                BatchingJobListenerTest.this.sink.deliver(jobs);
+            }
+        };
+
+        final BatchingJobListener listener = new BatchingJobListener(blockingSink, 2, 3600000, true);
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+        final Thread[] threads = new Thread[7];
+        for (int ix = 0; ix < threads.length; ++ix) {
+            final String name = "cfA" + ix;
+            threads[ix] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.jobReceived(createJob(name));
+                    } catch (final IOException e) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+
+        // The first batch blocks the background thread...
+        threads[0].start();
+        threads[1].start();
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+
+        // ... so two full batches and a partial batch are waiting when the listener gets closed...
+        for (int ix = 2; ix < threads.length; ++ix) {
+            threads[ix].start();
+        }
+        for (int ix = 0; ix < 500 && this.countWaiting(threads) < threads.length; ++ix) {
+            Thread.sleep(10);
+        }
+        assertEquals(threads.length, this.countWaiting(threads));
+
+        final Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.close();
+                } catch (final IOException e) {
+                    errors.add(e);
+                }
+            }
+        });
+        closer.start();
+        releaseFirst.countDown();
+
+        closer.join(5000);
+        assertFalse(closer.isAlive());
+        for (final Thread thread : threads) {
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+
+        assertTrue(errors.isEmpty());
+        assertEquals(4, listener.getBatchCount());
+        assertEquals(7, listener.getJobCount());
+        assertEquals(Arrays.asList(2, 2, 2, 1), this.batchSizes);
+    }
+
+    /**
+     * Returns the number of the given threads that are waiting.
+     */
+    private int countWaiting(final Thread[] threads) {
+        int result = 0;
+        for (final Thread thread : threads) {
+            if (thread.getState() == Thread.State.WAITING) {
+                ++result;
+            }
+        }
+        return result;
+    }
+}
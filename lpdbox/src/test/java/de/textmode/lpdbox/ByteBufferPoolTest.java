@@ -0,0 +1,132 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link ByteBufferPool}.
+ */
+public final class ByteBufferPoolTest extends TestCase {
+
+    /**
+     * Buffers are rounded up to their size class and reused.
+     */
+    public void testAcquireAndRelease() {
+        final ByteBufferPool pool = new ByteBufferPool(1024 * 1024);
+
+        final ByteBuffer small = pool.acquire(100);
+        assertTrue(small.isDirect());
+        assertEquals(4096, small.capacity());
+
+        final ByteBuffer medium = pool.acquire(5000);
+        assertEquals(8192, medium.capacity());
+        assertEquals(4096 + 8192, pool.getAllocatedBytes());
+
+        small.put((byte) 1);
+        pool.release(small);
+        pool.release(medium);
+
+        final ByteBuffer reused = pool.acquire(4096);
+        assertSame(small, reused);
+        assertEquals(0, reused.position());
+        assertSame(medium, pool.acquire(8192));
+
+        assertEquals(4, pool.getAcquireCount());
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    /**
+     * Buffers released by another thread are reused via the shared queues.
+     */
+    public void testSharedBetweenThreads() throws Exception {
+        final ByteBufferPool pool = new ByteBufferPool(1024 * 1024);
+        final ByteBuffer first = pool.acquire(4096);
+        final ByteBuffer second = pool.acquire(4096);
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.release(first);
+                pool.release(second);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertSame(second, pool.acquire(4096));
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    /**
+     * Heap buffers are handed out if the capacity is exhausted or the buffer is too large.
+     */
+    public void testCapacity() {
+        final ByteBufferPool pool = new ByteBufferPool(8192);
+
+        assertTrue(pool.acquire(8192).isDirect());
+
+        final ByteBuffer heap = pool.acquire(4096);
+        assertFalse(heap.isDirect());
+        pool.release(heap);
+        assertEquals(8192, pool.getAllocatedBytes());
+
+        final ByteBuffer large = pool.acquire(2 * 1024 * 1024);
+        assertFalse(large.isDirect());
+        assertEquals(2 * 1024 * 1024, large.capacity());
+    }
+
+    /**
+     * The {@link PooledChannelInputStream} reads through a pooled buffer and returns it on close.
+     */
+    public void testPooledChannelInputStream() throws Exception {
+        final ByteBufferPool pool = new ByteBufferPool(1024 * 1024);
+
+        final byte[] data = new byte[10000];
+        for (int ix = 0; ix < data.length; ++ix) {
+            data[ix] = (byte) ix;
+        }
+
+        final InputStream is = new PooledChannelInputStream(
+                Channels.newChannel(new ByteArrayInputStream(data)), pool, 4096);
+
+        assertEquals(0, is.read());
+        final byte[] buffer = new byte[data.length];
+        int pos = 1;
+        while (pos < buffer.length) {
+            final int read = is.read(buffer, pos, buffer.length - pos);
+            assertTrue(read > 0);
+            pos += read;
+        }
+
+        assertEquals(data.length, pos);
+        for (int ix = 1; ix < data.length; ++ix) {
+            assertEquals(data[ix], buffer[ix]);
+        }
+        assertEquals(-1, is.read());
+
+        is.close();
+        assertEquals(1, pool.getAllocationCount());
+        pool.acquire(4096);
+        assertEquals(1, pool.getAllocationCount());
+    }
+}
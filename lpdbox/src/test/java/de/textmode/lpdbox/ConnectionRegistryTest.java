@@ -0,0 +1,93 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link ConnectionRegistry}.
+ */
+public final class ConnectionRegistryTest extends TestCase {
+
+    private static final int PORT_NUMBER = 1517;
+
+    /**
+     * Checks the snapshot of a connection and aborts it.
+     */
+    public void testSnapshotAndAbort() throws Exception {
+        final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
+        final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
+                .portNumber(PORT_NUMBER)
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        daemon.startup();
+        thread.start();
+
+        final Socket s = new Socket("localhost", PORT_NUMBER);
+        try {
+            final InputStream is = s.getInputStream();
+            final OutputStream os = s.getOutputStream();
+
+            // Command 0x02 (Receive Print File) for queue "lp"...
+            os.write("\u0002lp\n".getBytes(Charset.forName("ISO-8859-1")));
+            os.flush();
+            assertEquals(0, is.read());
+
+            final List<ConnectionInfo> connections = daemon.getConnections();
+            assertEquals(1, connections.size());
+            assertEquals(1, daemon.getConnectionsMXBean().getConnectionCount());
+            assertEquals(1, daemon.getConnectionsMXBean().getConnections().size());
+
+            final ConnectionInfo info = connections.get(0);
+            assertEquals(2, info.getCommandCode());
+            assertEquals("lp", info.getQueueName());
+            assertEquals(ConnectionPhase.PROCESSING_COMMAND, info.getPhase());
+            assertEquals(4, info.getBytesReceived());
+
+            assertFalse(daemon.abortConnection(info.getId() + 1));
+            assertTrue(daemon.abortConnection(info.getId()));
+
+            try {
+                assertEquals(-1, is.read());
+            } catch (final SocketException e) {
+                assertFalse(e.getMessage().isEmpty());
+            }
+
+            for (int ix = 0; ix < 50 && !daemon.getConnections().isEmpty(); ++ix) {
+                Thread.sleep(50);
+            }
+
+            assertTrue(daemon.getConnections().isEmpty());
+            assertTrue(handler.isEnded());
+            assertTrue(handler.isClosed());
+        } finally {
+            s.close();
+            daemon.stop(5000);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link ControlFileParser}.
+ */
+public final class ControlFileParserTest extends TestCase {
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Parses a control file as sent by BSD lpr.
+     */
+    public void testParse() throws Exception {
+        final String content = "Hlocalhost\n"
+                + "Pjohn\n"
+                + "JMy Job\n"
+                + "Cbilling\n"
+                + "Ljohn\n"
+                + "Mjohn@localhost\n"
+                + "TMy Title\n"
+                + "I8\n"
+                + "W132\n"
+                + "1R\n"
+                + "fdfA001localhost\n"
+                + "fdfA001localhost\n"
+                + "UdfA001localhost\n"
+                + "Nreport.txt\n"
+                + "odfB001localhost\r\n"
+                + "Zignored\n"
+                + "\n"
+                + "UdfB001localhost";
+
+        final ControlFile controlFile = ControlFileParser.parse(content.getBytes(ISO8859));
+
+        assertEquals("localhost", controlFile.getHost());
+        assertEquals("john", controlFile.getUser());
+        assertEquals("My Job", controlFile.getJobName());
+        assertEquals("billing", controlFile.getBannerClass());
+        assertEquals("john", controlFile.getBannerUser());
+        assertTrue(controlFile.isBannerRequested());
+        assertEquals("john@localhost", controlFile.getMailUser());
+
+        final List<PrintDirective> directives = controlFile.getPrintDirectives();
+        assertEquals(3, directives.size());
+
+        assertEquals('f', directives.get(0).getType());
+        assertEquals("dfA001localhost", directives.get(0).getFileName());
+        assertEquals("report.txt", directives.get(0).getSourceFileName());
+        assertEquals("report.txt", directives.get(1).getSourceFileName());
+        assertEquals("My Title", directives.get(0).getTitle());
+        assertEquals(8, directives.get(0).getIndent());
+        assertEquals(132, directives.get(0).getWidth());
+
+        assertEquals('o', directives.get(2).getType());
+        assertEquals("dfB001localhost", directives.get(2).getFileName());
+        assertNull(directives.get(2).getSourceFileName());
+
+        assertEquals(Arrays.asList("dfA001localhost", "dfB001localhost"), controlFile.getDataFileNames());
+        assertEquals(Arrays.asList("dfA001localhost", "dfB001localhost"), controlFile.getUnlinkFileNames());
+    }
+
+    /**
+     * A "N" line preceding a print directive, defaults and invalid numbers.
+     */
+    public void testSourceFileNameFirst() throws Exception {
+        final ControlFile controlFile = ControlFileParser.parse(
+                "Nreport.txt\nIabc\npdfA001localhost\n".getBytes(ISO8859));
+
+        assertNull(controlFile.getHost());
+        assertFalse(controlFile.isBannerRequested());
+
+        final PrintDirective directive = controlFile.getPrintDirectives().get(0);
+        assertEquals("report.txt", directive.getSourceFileName());
+        assertNull(directive.getTitle());
+        assertEquals(0, directive.getIndent());
+        assertEquals(-1, directive.getWidth());
+    }
+
+    /**
+     * Parses a large control file from a stream and checks that exactly the declared length is read.
+     */
+    public void testLargeControlFile() throws Exception {
+        final StringBuilder sb = new StringBuilder("Hlocalhost\n");
+        for (int ix = 0; ix < 10000; ++ix) {
+            sb.append("S123 456\n");
+            sb.append("ldfA").append(ix).append("localhost\n");
+        }
+
+        final byte[] content = sb.toString().getBytes(ISO8859);
+        final byte[] data = Arrays.copyOf(content, content.length + 1);
+
+        final ByteArrayInputStream is = new ByteArrayInputStream(data);
+        final ControlFile controlFile = ControlFileParser.parse(is, content.length);
+
+        assertEquals(10000, controlFile.getPrintDirectives().size());
+        assertEquals("dfA9999localhost", controlFile.getPrintDirectives().get(9999).getFileName());
+        assertEquals(1, is.available());
+    }
+
+    /**
+     * A control file shorter than declared or with an overlong line causes an {@link IOException}.
+     */
+    public void testErrors() throws Exception {
+        try {
+            ControlFileParser.parse(new ByteArrayInputStream("Hlocalhost\n".getBytes(ISO8859)), 100);
+            fail("The stream ended prematurely");
+        } catch (final IOException e) {
+            assertEquals(Util.ERROR_END_OF_STREAM, e.getMessage());
+        }
+
+        final byte[] content = new byte[ControlFileParser.MAX_LINE_LENGTH + 10];
+        Arrays.fill(content, (byte) 'x');
+        content[0] = 'H';
+        try {
+            ControlFileParser.parse(content);
+            fail("The line is too long");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("maximum length"));
+        }
+
+        // Lines of unknown commands are skipped regardless of their length...
+        content[0] = 'S';
+        assertTrue(ControlFileParser.parse(content).getPrintDirectives().isEmpty());
+    }
+}
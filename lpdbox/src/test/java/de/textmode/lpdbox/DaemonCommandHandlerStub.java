@@ -16,6 +16,7 @@ package de.textmode.lpdbox;
  * limitations under the License.
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
@@ -56,6 +57,22 @@ final class DaemonCommandHandlerStub implements DaemonCommandHandler {
         this.jobList = Collections.emptyList();
     }
 
+    /**
+     * Reads from the {@link InputStream} until the buffer is full or the end of the stream
+     * has been reached. Returns the number of bytes read.
+     */
+    private static int readFully(final InputStream is, final byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            final int read = is.read(buffer, total, buffer.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
     /**
      * Locks the printer queue (a "start printer job" will send a negative acknowledge
      * to the peer).
@@ -203,7 +220,7 @@ final class DaemonCommandHandlerStub implements DaemonCommandHandler {
         this.controlFileLength = length;
 
         this.controlFileContent = new byte[length];
-        this.isControlFileComplete = is.read(this.controlFileContent) == length;
+        this.isControlFileComplete = readFully(is, this.controlFileContent) == length;
 
         if (!this.isControlFileComplete) {
             throw new IOException("Short read of control file");
@@ -220,8 +237,21 @@ final class DaemonCommandHandlerStub implements DaemonCommandHandler {
         this.dataFileName = name;
         this.dataFileLength = length;
 
+        if (length == UNKNOWN_FILE_LENGTH) {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read = is.read(buffer);
+            while (read != -1) {
+                os.write(buffer, 0, read);
+                read = is.read(buffer);
+            }
+            this.dataFileContent = os.toByteArray();
+            this.isDataFileComplete = true;
+            return;
+        }
+
         this.dataFileContent = new byte[(int) length];
-        this.isDataFileComplete = is.read(this.dataFileContent) == length;
+        this.isDataFileComplete = readFully(is, this.dataFileContent) == length;
 
         if (!this.isDataFileComplete) {
             throw new IOException("Short read of data file");
@@ -0,0 +1,143 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link DiskSpaceReservation}.
+ */
+public final class DiskSpaceReservationTest extends TestCase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskSpaceReservationTest.class);
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * Returns a {@link DiskSpaceReservation} for the temporary directory that allows to reserve
+     * roughly the given number of bytes.
+     */
+    private static DiskSpaceReservation createReservation(final long available) throws Exception {
+        final File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        final DiskSpaceReservation probe = new DiskSpaceReservation(tempDir.toPath(), 0);
+        return new DiskSpaceReservation(tempDir.toPath(), probe.getUsableSpace() - available);
+    }
+
+    /**
+     * Reservations fail if the spool volume would be full.
+     */
+    public void testReserveAndRelease() throws Exception {
+        final DiskSpaceReservation reservation = createReservation(100 * MB);
+
+        assertTrue(reservation.reserve(60 * MB));
+        assertFalse(reservation.reserve(60 * MB));
+        assertEquals(60 * MB, reservation.getReserved());
+
+        reservation.release(60 * MB);
+        assertEquals(0, reservation.getReserved());
+        assertTrue(reservation.reserve(60 * MB));
+    }
+
+    /**
+     * The parser acknowledges a data file negatively if there is not enough room on the spool volume.
+     */
+    public void testReceivePrinterJob() throws Exception {
+        final DiskSpaceReservation reservation = createReservation(100 * MB);
+        final LinePrinterDaemonStatistics statistics = new LinePrinterDaemonStatistics();
+        final DaemonCommandHandlerStub handler = new DaemonCommandHandlerStub();
+
+        final String data = "lp\n" + "\u0003" + (200 * MB) + " dfA001host\n";
+        final ByteArrayInputStream is = new ByteArrayInputStream(data.getBytes(ISO8859));
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        new ReceivePrinterJobCommandParser(LOGGER, handler, null, reservation, statistics, false, 0).parse(is, os);
+
+        final byte[] acks = os.toByteArray();
+        assertEquals(2, acks.length);
+        assertEquals(0, acks[0]);
+        assertEquals(1, acks[1]);
+
+        assertTrue(handler.isAborted());
+        assertEquals(1, statistics.getFilesRefusedForDiskSpace());
+        assertEquals(0, reservation.getReserved());
+    }
+
+    /**
+     * The disk space reserved for a data file is released as the file is passed to the handler, so the
+     * bytes already written are not counted twice (by the reservation and by the usable space).
+     */
+    public void testReleaseWhileReceiving() throws Exception {
+        final DiskSpaceReservation reservation = createReservation(100 * MB);
+        final DaemonCommandHandlerStub stub = new DaemonCommandHandlerStub();
+        final List<Long> reserved = new ArrayList<>();
+
+        final DaemonCommandHandler handler = (DaemonCommandHandler) Proxy.newProxyInstance(
+                DaemonCommandHandler.class.getClassLoader(),
+                new Class<?>[] {DaemonCommandHandler.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                            throws Throwable {
+
+                        if (method.getName().equals("receiveDataFile")) {
+                            final InputStream is = (InputStream) args[0];
+                            final byte[] buffer = new byte[(int) MB];
+                            for (int ix = 0; ix < 4; ++ix) {
+                                reserved.add(reservation.getReserved());
+                                int offset = 0;
+                                while (offset < buffer.length) {
+                                    offset += is.read(buffer, offset, buffer.length - offset);
+                                }
+                            }
+                            reserved.add(reservation.getReserved());
+                            return null;
+                        }
+                        return method.invoke(stub, args);
+                    }
+                });
+
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(("lp\n" + "\u0003" + (4 * MB) + " dfA001host\n").getBytes(ISO8859));
+        data.write(new byte[(int) (4 * MB)]);
+        data.write(0);
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new ReceivePrinterJobCommandParser(LOGGER, handler, null, reservation, null, false, 0)
+                .parse(new ByteArrayInputStream(data.toByteArray()), os);
+
+        assertTrue(Arrays.equals(new byte[3], os.toByteArray()));
+        assertEquals(Arrays.asList(4 * MB, 3 * MB, 2 * MB, MB, 0L), reserved);
+        assertEquals(0, reservation.getReserved());
+    }
+}
@@ -0,0 +1,172 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link HandlerWatchdog}.
+ */
+public final class HandlerWatchdogTest extends TestCase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HandlerWatchdogTest.class);
+
+    private static final long THRESHOLD = 1000L;
+
+    /**
+     * A thread that "hangs" inside a handler call until it gets interrupted.
+     */
+    private static final class HangingThread extends Thread {
+
+        private final ConnectionEntry entry;
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final AtomicBoolean isInterrupted = new AtomicBoolean();
+
+        HangingThread(final ConnectionEntry entry) {
+            this.entry = entry;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            this.entry.enterHandler("endPrinterJob");
+            this.entered.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (final InterruptedException e) {
+                this.isInterrupted.set(true);
+            } finally {
+                this.entry.exitHandler();
+            }
+        }
+    }
+
+    /**
+     * Detects a stuck handler call, reports it and interrupts the thread.
+     */
+    public void testStuckHandler() throws Exception {
+        final ConnectionRegistry registry = new ConnectionRegistry();
+        final ConnectionEntry entry = registry.register(new SocketTransportConnection(new Socket()));
+
+        final AtomicReference<String> reportedMethod = new AtomicReference<>();
+        final AtomicReference<StackTraceElement[]> reportedStackTrace = new AtomicReference<>();
+
+        final HandlerWatchdog watchdog = new HandlerWatchdog(LOGGER, registry, THRESHOLD, true,
+                new StuckHandlerListener() {
+                    @Override
+                    public void stuckHandlerDetected(
+                            final ConnectionInfo connection,
+                            final String method,
+                            final long durationInMillis,
+                            final StackTraceElement[] stackTrace) {
+
+                        reportedMethod.set(method);
+                        reportedStackTrace.set(stackTrace);
+                    }
+                });
+
+        final HangingThread thread = new HangingThread(entry);
+        thread.start();
+        thread.entered.await();
+
+        // Not stuck yet...
+        watchdog.check(System.nanoTime());
+        assertNull(reportedMethod.get());
+        assertFalse(entry.isAborted());
+
+        watchdog.check(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(THRESHOLD * 2));
+        assertEquals("endPrinterJob", reportedMethod.get());
+        assertTrue(reportedStackTrace.get().length > 0);
+        assertTrue(entry.isAborted());
+
+        thread.join(5000);
+        assertTrue(thread.isInterrupted.get());
+        assertNull(entry.getHandlerMethod());
+    }
+
+    /**
+     * A handler call that returned in time is not reported.
+     */
+    public void testHandlerReturned() throws Exception {
+        final ConnectionRegistry registry = new ConnectionRegistry();
+        final ConnectionEntry entry = registry.register(new SocketTransportConnection(new Socket()));
+
+        final AtomicBoolean isReported = new AtomicBoolean();
+        final HandlerWatchdog watchdog = new HandlerWatchdog(LOGGER, registry, THRESHOLD, true,
+                new StuckHandlerListener() {
+                    @Override
+                    public void stuckHandlerDetected(
+                            final ConnectionInfo connection,
+                            final String method,
+                            final long durationInMillis,
+                            final StackTraceElement[] stackTrace) {
+
+                        isReported.set(true);
+                    }
+                });
+
+        entry.enterHandler("printJobs");
+        entry.exitHandler();
+
+        watchdog.check(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(THRESHOLD * 2));
+        assertFalse(isReported.get());
+        assertFalse(entry.isAborted());
+    }
+
+    /**
+     * A stuck handler call that returns after it has been detected is not interrupted, because the
+     * thread may already be inside the next call.
+     */
+    public void testHandlerReturnedBeforeInterrupt() throws Exception {
+        final ConnectionRegistry registry = new ConnectionRegistry();
+        final ConnectionEntry entry = registry.register(new SocketTransportConnection(new Socket()));
+
+        final HandlerWatchdog watchdog = new HandlerWatchdog(LOGGER, registry, THRESHOLD, true,
+                new StuckHandlerListener() {
+                    @Override
+                    public void stuckHandlerDetected(
+                            final ConnectionInfo connection,
+                            final String method,
+                            final long durationInMillis,
+                            final StackTraceElement[] stackTrace) {
+
+                        // The call returns and the thread enters the next call while being reported...
+                        entry.exitHandler();
+                        entry.enterHandler("endPrinterJob");
+                    }
+                });
+
+        entry.enterHandler("printJobs");
+        try {
+            watchdog.check(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(THRESHOLD * 2));
+            assertFalse(Thread.interrupted());
+            assertFalse(entry.isAborted());
+            assertEquals("endPrinterJob", entry.getHandlerMethod());
+        } finally {
+            entry.exitHandler();
+        }
+    }
+}
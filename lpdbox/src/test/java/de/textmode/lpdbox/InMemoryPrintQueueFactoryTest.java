@@ -0,0 +1,164 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link InMemoryPrintQueueFactory}.
+ */
+public final class InMemoryPrintQueueFactoryTest extends TestCase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryPrintQueueFactoryTest.class);
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+    private static final List<String> ALL = Collections.emptyList();
+
+    private Path tempDirectory;
+    private InMemoryPrintQueueFactory factory;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempDirectory = Files.createTempDirectory("lpdbox");
+        this.factory = new InMemoryPrintQueueFactory(new PayloadSink(65536, 1048576, this.tempDirectory));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.factory.close();
+        Files.delete(this.tempDirectory);
+    }
+
+    /**
+     * Sends a printer job with a single data file to the given queue.
+     */
+    private void send(final String queueName, final String user, final String content) throws IOException {
+        final String controlFile = "Hlocalhost\nP" + user + "\nfdfA001localhost\nNreport.txt\n";
+
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write((queueName + "\n").getBytes(ISO8859));
+        data.write(ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_DATA_FILE);
+        data.write((content.length() + " dfA001localhost\n" + content).getBytes(ISO8859));
+        data.write(0);
+        data.write(ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_CONTROL_FILE);
+        data.write((controlFile.length() + " cfA001localhost\n" + controlFile).getBytes(ISO8859));
+        data.write(0);
+
+        final DaemonCommandHandler handler = this.factory.create();
+        try {
+            new ReceivePrinterJobCommandParser(LOGGER, handler)
+                    .parse(new ByteArrayInputStream(data.toByteArray()), new ByteArrayOutputStream());
+        } finally {
+            handler.close();
+        }
+    }
+
+    /**
+     * Receives, lists, removes and polls printer jobs.
+     */
+    public void testQueue() throws Exception {
+        this.send("lp", "john", "Hello");
+        this.send("lp", "jane", "World!");
+        this.send("lp", "john", "Again");
+
+        assertEquals(3, this.factory.getJobCount("lp"));
+        assertEquals(0, this.factory.getJobCount("other"));
+
+        final DaemonCommandHandler handler = this.factory.create();
+        assertEquals(
+                "Rank   Owner      Job  Files                                 Total Size\n"
+                + "1st    john       1    report.txt                            5 bytes\n"
+                + "2nd    jane       2    report.txt                            6 bytes\n"
+                + "3rd    john       3    report.txt                            5 bytes\n",
+                handler.sendQueueStateShort("lp", ALL));
+
+        assertEquals(
+                "\njane: 2nd                                [job 2 localhost]\n"
+                + "        report.txt                         6 bytes\n",
+                handler.sendQueueStateLong("lp", Arrays.asList("jane")));
+
+        assertEquals(InMemoryPrintQueue.NO_ENTRIES, handler.sendQueueStateShort("other", ALL));
+        assertEquals(InMemoryPrintQueue.NO_ENTRIES, handler.sendQueueStateShort("lp", Arrays.asList("99")));
+
+        // Users may only remove their own jobs...
+        handler.removeJobs("lp", "jane", Arrays.asList("1"));
+        assertEquals(3, this.factory.getJobCount("lp"));
+        handler.removeJobs("lp", "john", ALL);
+        assertEquals(1, this.factory.getJobCount("lp"));
+
+        this.send("lp", "john", "Last");
+        handler.removeJobs("lp", InMemoryPrintQueue.SUPER_USER, Arrays.asList("2"));
+
+        try (final ReceivedJob job = this.factory.poll("lp")) {
+            assertEquals("cfA001localhost", job.getControlFileName());
+            assertEquals(4, job.getDataFile("dfA001localhost").getLength());
+        }
+        assertNull(this.factory.poll("lp"));
+        assertNull(this.factory.poll("other"));
+        handler.close();
+    }
+
+    /**
+     * The rank of a printer job as text.
+     */
+    public void testRankText() {
+        assertEquals("1st", InMemoryPrintQueue.getRankText(1));
+        assertEquals("2nd", InMemoryPrintQueue.getRankText(2));
+        assertEquals("3rd", InMemoryPrintQueue.getRankText(3));
+        assertEquals("4th", InMemoryPrintQueue.getRankText(4));
+        assertEquals("11th", InMemoryPrintQueue.getRankText(11));
+        assertEquals("12th", InMemoryPrintQueue.getRankText(12));
+        assertEquals("21st", InMemoryPrintQueue.getRankText(21));
+        assertEquals("113th", InMemoryPrintQueue.getRankText(113));
+    }
+
+    /**
+     * Removing printer jobs by number or user from a large queue.
+     */
+    public void testLargeQueue() throws Exception {
+        final InMemoryPrintQueue queue = new InMemoryPrintQueue();
+        final ControlFile[] controlFiles = new ControlFile[10];
+        for (int ix = 0; ix < controlFiles.length; ++ix) {
+            controlFiles[ix] = ControlFileParser.parse(("Puser" + ix + "\n").getBytes(ISO8859));
+        }
+
+        for (int ix = 0; ix < 200000; ++ix) {
+            queue.add(new ReceivedJob("lp", "cfA001localhost", controlFiles[ix % 10], new HashMap<String, Payload>()));
+        }
+
+        assertEquals(200000, queue.size());
+        assertEquals(1, queue.remove(InMemoryPrintQueue.SUPER_USER, Arrays.asList("100000")).size());
+        assertEquals(20000, queue.remove("user3", ALL).size());
+        assertEquals(0, queue.remove("user3", Arrays.asList("user4")).size());
+        assertEquals(179999, queue.size());
+        assertEquals("user0", queue.poll().getControlFile().getUser());
+        assertEquals(179998, queue.size());
+    }
+}
@@ -0,0 +1,154 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link InMemoryTransport}.
+ */
+public final class InMemoryTransportTest extends TestCase {
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    private static final String CONTROL_FILE = "Hhost\nPuser\nldfA001host\n";
+    private static final String DATA_FILE = "Hello World\n";
+
+    /**
+     * Builds and starts a {@link LinePrinterDaemon} that uses the given {@link InMemoryTransport}.
+     */
+    private static LinePrinterDaemon startDaemon(
+            final DaemonCommandHandlerFactory factory,
+            final InMemoryTransport transport) throws IOException {
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(factory)
+                .transport(transport)
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        daemon.startup();
+        thread.start();
+
+        return daemon;
+    }
+
+    /**
+     * Writes the given string (ISO-8859-1) to the {@link OutputStream}.
+     */
+    private static void write(final OutputStream os, final String data) throws IOException {
+        os.write(data.getBytes(ISO8859));
+        os.flush();
+    }
+
+    /**
+     * Receives a complete printer job. The data is delivered to the daemon in chunks of three bytes.
+     */
+    public void testReceivePrinterJob() throws Exception {
+        final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
+        final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+
+        final InMemoryTransport transport = new InMemoryTransport()
+                .chunkSize(3)
+                .latency(10, TimeUnit.MICROSECONDS);
+
+        final LinePrinterDaemon daemon = startDaemon(stubFactory, transport);
+        try {
+            final InMemoryConnection connection = transport.connect();
+            final InputStream is = connection.getInputStream();
+            final OutputStream os = connection.getOutputStream();
+
+            write(os, "\u0002lp\n");
+            assertEquals(0, is.read());
+
+            write(os, "\u0002" + CONTROL_FILE.length() + " cfA001host\n");
+            assertEquals(0, is.read());
+            write(os, CONTROL_FILE + "\u0000");
+            assertEquals(0, is.read());
+
+            write(os, "\u0003" + DATA_FILE.length() + " dfA001host\n");
+            assertEquals(0, is.read());
+            write(os, DATA_FILE + "\u0000");
+            assertEquals(0, is.read());
+
+            connection.shutdownOutput();
+
+            // The daemon closes the connection after the job has been ended...
+            assertEquals(-1, is.read());
+            connection.close();
+
+            assertEquals("lp", handler.getPrinterQueueName());
+            assertEquals("cfA001host", handler.getControlFileName());
+            assertTrue(handler.isControlFileComplete());
+            assertEquals("dfA001host", handler.getDataFileName());
+            assertTrue(Arrays.equals(DATA_FILE.getBytes(ISO8859), handler.getDataFileContent()));
+            assertFalse(handler.isAborted());
+            assertTrue(handler.isEnded());
+        } finally {
+            daemon.stop(5000);
+        }
+    }
+
+    /**
+     * The connection gets lost while the data file is transferred.
+     */
+    public void testDisconnectWhileTransferringDataFile() throws Exception {
+        final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
+        final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+
+        final InMemoryTransport transport = new InMemoryTransport();
+        final LinePrinterDaemon daemon = startDaemon(stubFactory, transport);
+
+        final InMemoryConnection connection = transport.connect();
+        final InputStream is = connection.getInputStream();
+        final OutputStream os = connection.getOutputStream();
+
+        write(os, "\u0002lp\n");
+        assertEquals(0, is.read());
+
+        write(os, "\u000399 dfA001host\n");
+        assertEquals(0, is.read());
+        write(os, "only a few bytes");
+
+        connection.disconnect();
+
+        assertTrue(daemon.stop(5000));
+        assertFalse(handler.isDataFileComplete());
+        assertTrue(handler.isEnded());
+        assertTrue(handler.isClosed());
+    }
+
+    /**
+     * A stopped transport refuses connections.
+     */
+    public void testConnectionRefused() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport();
+        try {
+            transport.connect();
+            fail("The transport is not bound");
+        } catch (final IOException e) {
+            assertEquals("Connection refused", e.getMessage());
+        }
+    }
+}
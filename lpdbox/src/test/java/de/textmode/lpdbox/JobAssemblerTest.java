@@ -0,0 +1,302 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link JobAssembler}.
+ */
+public final class JobAssemblerTest extends TestCase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobAssemblerTest.class);
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    private Path tempDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempDirectory = Files.createTempDirectory("lpdbox");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.delete(this.tempDirectory);
+    }
+
+    /**
+     * Writes a subcommand "Receive control file" or "Receive data file" with the given content.
+     */
+    private static void writeFile(
+            final ByteArrayOutputStream os,
+            final int subCode,
+            final String fileName,
+            final String content) throws IOException {
+
+        os.write(subCode);
+        os.write((content.length() + " " + fileName + "\n").getBytes(ISO8859));
+        os.write(content.getBytes(ISO8859));
+        os.write(0);
+    }
+
+    /**
+     * Reads the content of a {@link Payload}.
+     */
+    private static String read(final Payload payload) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (final InputStream is = payload.getInputStream()) {
+            int read = is.read();
+            while (read != -1) {
+                os.write(read);
+                read = is.read();
+            }
+        }
+        return new String(os.toByteArray(), ISO8859);
+    }
+
+    /**
+     * Two printer jobs in one connection, the first with the data files sent before the control file.
+     * Each printer job is emitted as soon as it is complete, an incomplete printer job is discarded.
+     */
+    public void testAssemble() throws Exception {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write("my_queue\n".getBytes(ISO8859));
+
+        final int controlFile = ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_CONTROL_FILE;
+        final int dataFile = ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_DATA_FILE;
+
+        writeFile(data, dataFile, "dfA001localhost", "first");
+        writeFile(data, dataFile, "dfB001localhost", "second");
+        writeFile(data, controlFile, "cfA001localhost", "Hlocalhost\nfdfA001localhost\nodfB001localhost\n");
+        writeFile(data, controlFile, "cfA002localhost", "Hlocalhost\nldfA002localhost\n");
+        writeFile(data, dataFile, "dfA002localhost", "third");
+        writeFile(data, dataFile, "dfA003localhost", "never printed");
+
+        final List<String> events = new ArrayList<>();
+        final ReceivedJobListener listener = new ReceivedJobListener() {
+            @Override
+            public void jobReceived(final ReceivedJob job) throws IOException {
+                try {
+                    final StringBuilder sb = new StringBuilder(job.getQueueName())
+                            .append(':')
+                            .append(job.getControlFileName());
+
+                    for (final String fileName : job.getControlFile().getDataFileNames()) {
+                        sb.append(':').append(read(job.getDataFile(fileName)));
+                    }
+                    events.add(sb.toString());
+                } finally {
+                    job.close();
+                }
+            }
+        };
+
+        final PayloadSink sink = new PayloadSink(1024, 65536, this.tempDirectory);
+        final DaemonCommandHandlerStub stub = new DaemonCommandHandlerStub();
+        final DaemonCommandHandler handler = new JobAssemblerFactoryBuilder(
+                new DaemonCommandHandlerFactory() {
+                    @Override
+                    public DaemonCommandHandler create() {
+                        return stub;
+                    }
+                },
+                sink)
+                .listener(listener)
+                .build()
+                .create();
+
+        final ByteArrayOutputStream acks = new ByteArrayOutputStream();
+        new ReceivePrinterJobCommandParser(LOGGER, handler)
+                .parse(new ByteArrayInputStream(data.toByteArray()), acks);
+
+        assertEquals(13, acks.size());
+        assertEquals(2, events.size());
+        assertEquals("my_queue:cfA001localhost:first:second", events.get(0));
+        assertEquals("my_queue:cfA002localhost:third", events.get(1));
+
+        // The control and data files are not passed to the wrapped handler...
+        assertTrue(stub.isEnded());
+        assertNull(stub.getControlFileName());
+        assertNull(stub.getDataFileName());
+        assertEquals(0, ((JobAssembler) handler).getPendingJobCount());
+
+        handler.close();
+    }
+
+    /**
+     * A printer job sent again is acknowledged but not passed on.
+     */
+    public void testRetry() throws Exception {
+        final int controlFile = ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_CONTROL_FILE;
+        final int dataFile = ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_DATA_FILE;
+
+        final List<String> events = new ArrayList<>();
+        final ReceivedJobListener listener = new ReceivedJobListener() {
+            @Override
+            public void jobReceived(final ReceivedJob job) throws IOException {
+                events.add(job.getControlFileName());
+                job.close();
+            }
+        };
+
+        final RecentJobIndex index = new RecentJobIndex(100, 60000);
+        final JobAssemblerFactory factory = new JobAssemblerFactoryBuilder(
+                new DaemonCommandHandlerStubFactory(),
+                new PayloadSink(1024, 65536, this.tempDirectory))
+                .listener(listener)
+                .recentJobs(index)
+                .build();
+
+        final String[] controlFiles = {
+            "Hlocalhost\nfdfA001localhost\n",
+            "Hlocalhost\nfdfA001localhost\n",
+            "Hlocalhost\nodfA001localhost\n",
+        };
+
+        for (final String content : controlFiles) {
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            data.write("my_queue\n".getBytes(ISO8859));
+            writeFile(data, controlFile, "cfA001localhost", content);
+            writeFile(data, dataFile, "dfA001localhost", "data");
+
+            final ByteArrayOutputStream acks = new ByteArrayOutputStream();
+            final DaemonCommandHandler handler = factory.create();
+            new ReceivePrinterJobCommandParser(LOGGER, handler)
+                    .parse(new ByteArrayInputStream(data.toByteArray()), acks);
+            handler.close();
+
+            assertTrue(Arrays.equals(new byte[5], acks.toByteArray()));
+        }
+
+        // The second connection is a retry, the third has a different control file...
+        assertEquals(2, events.size());
+        assertEquals(1, index.getDuplicateCount());
+        assertEquals(2, index.size());
+    }
+
+    /**
+     * A printer job the {@link ReceivedJobListener} of the {@link JobSequencer} failed to process is
+     * passed on again when the client resends it.
+     */
+    public void testRetryAfterFailure() throws Exception {
+        final int controlFile = ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_CONTROL_FILE;
+        final int dataFile = ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_DATA_FILE;
+
+        final List<String> events = new ArrayList<>();
+        final ReceivedJobListener listener = new ReceivedJobListener() {
+            @Override
+            public void jobReceived(final ReceivedJob job) throws IOException {
+                events.add(job.getControlFileName());
+                job.close();
+                if (events.size() == 1) {
+                    throw new IOException("Printer is offline");
+                }
+            }
+        };
+
+        final RecentJobIndex index = new RecentJobIndex(100, 60000);
+        final JobAssemblerFactory factory = new JobAssemblerFactoryBuilder(
+                new DaemonCommandHandlerStubFactory(),
+                new PayloadSink(1024, 65536, this.tempDirectory))
+                .sequencer(new JobSequencer(listener, LOGGER))
+                .recentJobs(index)
+                .build();
+
+        for (int i = 0; i < 3; ++i) {
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            data.write("my_queue\n".getBytes(ISO8859));
+            writeFile(data, controlFile, "cfA001localhost", "Hlocalhost\nfdfA001localhost\n");
+            writeFile(data, dataFile, "dfA001localhost", "data");
+
+            final ByteArrayOutputStream acks = new ByteArrayOutputStream();
+            final DaemonCommandHandler handler = factory.create();
+            new ReceivePrinterJobCommandParser(LOGGER, handler)
+                    .parse(new ByteArrayInputStream(data.toByteArray()), acks);
+            handler.close();
+
+            assertTrue(Arrays.equals(new byte[5], acks.toByteArray()));
+        }
+
+        // The first attempt failed, so the second is passed on - the third is a duplicate...
+        assertEquals(2, events.size());
+        assertEquals(1, index.getDuplicateCount());
+        assertEquals(1, index.size());
+    }
+
+    /**
+     * A printer job the {@link ReceivedJobListener} failed to process is closed, so its temporary
+     * files are deleted.
+     */
+    public void testListenerFailure() throws Exception {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write("my_queue\n".getBytes(ISO8859));
+        writeFile(data, ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_DATA_FILE, "dfA001localhost", "data");
+        writeFile(data, ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_CONTROL_FILE, "cfA001localhost",
+                "Hlocalhost\nldfA001localhost\n");
+
+        final ReceivedJobListener listener = new ReceivedJobListener() {
+            @Override
+            public void jobReceived(final ReceivedJob job) throws IOException {
+                throw new IOException("Printer is offline");
+            }
+        };
+
+        final DaemonCommandHandler handler = new JobAssemblerFactoryBuilder(
+                new DaemonCommandHandlerStubFactory(),
+                new PayloadSink(0, 65536, this.tempDirectory))
+                .listener(listener)
+                .build()
+                .create();
+
+        try {
+            new ReceivePrinterJobCommandParser(LOGGER, handler)
+                    .parse(new ByteArrayInputStream(data.toByteArray()), new ByteArrayOutputStream());
+            fail("IOException expected");
+        } catch (final IOException e) {
+            assertEquals("Printer is offline", e.getMessage());
+        }
+        handler.close();
+
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(this.tempDirectory)) {
+            assertFalse(files.iterator().hasNext());
+        }
+    }
+
+    /**
+     * The job key is the file name without the prefix.
+     */
+    public void testJobKey() {
+        assertEquals("001localhost", JobAssembler.getJobKey("cfA001localhost"));
+        assertEquals("001localhost", JobAssembler.getJobKey("dfZ001localhost"));
+        assertEquals("df", JobAssembler.getJobKey("df"));
+    }
+}
@@ -0,0 +1,200 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link JobPipeline}.
+ */
+public final class JobPipelineTest extends TestCase {
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Creates a {@link ReceivedJob} without data files.
+     */
+    private static ReceivedJob createJob(final String name) throws IOException {
+        return new ReceivedJob(
+                "my_queue",
+                name,
+                ControlFileParser.parse("Hlocalhost\n".getBytes(ISO8859)),
+                new HashMap<String, Payload>());
+    }
+
+    /**
+     * The printer jobs pass all stages in order, failed printer jobs are not passed on.
+     */
+    public void testStages() throws Exception {
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        final JobPipeline pipeline = new JobPipelineBuilder()
+                .stage("convert", new JobStage() {
+                    @Override
+                    public void process(final ReceivedJob job) throws IOException {
+                        if (job.getControlFileName().equals("cfA002localhost")) {
+                            throw new IOException("Conversion failed");
+                        }
+                        events.add("convert:" + job.getControlFileName());
+                    }
+                }, 2, 10)
+                .stage("archive", new JobStage() {
+                    @Override
+                    public void process(final ReceivedJob job) {
+                        events.add("archive:" + job.getControlFileName());
+                    }
+                }, 1, 10)
+                .build();
+
+        pipeline.jobReceived(createJob("cfA001localhost"));
+        pipeline.jobReceived(createJob("cfA002localhost"));
+        pipeline.jobReceived(createJob("cfA003localhost"));
+        pipeline.close();
+
+        assertEquals(2, pipeline.getCompletedCount());
+        assertEquals(1, pipeline.getFailedCount());
+        assertEquals(4, events.size());
+        assertTrue(events.indexOf("convert:cfA001localhost") < events.indexOf("archive:cfA001localhost"));
+        assertTrue(events.indexOf("convert:cfA003localhost") < events.indexOf("archive:cfA003localhost"));
+        assertFalse(events.contains("archive:cfA002localhost"));
+
+        try {
+            pipeline.jobReceived(createJob("cfA004localhost"));
+            fail("The pipeline has been closed");
+        } catch (final IOException e) {
+            assertEquals("The job pipeline has been closed", e.getMessage());
+        }
+    }
+
+    /**
+     * A full queue makes the receiving side wait and gives up after the offer timeout.
+     */
+    public void testBackpressure() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final JobPipeline pipeline = new JobPipelineBuilder()
+                .stage("slow", new JobStage() {
+                    @Override
+                    public void process(final ReceivedJob job) throws IOException {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (final InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                }, 1, 1)
+                .offerTimeout(200)
+                .build();
+
+        pipeline.jobReceived(createJob("cfA001localhost"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pipeline.jobReceived(createJob("cfA002localhost"));
+        assertEquals(1, pipeline.getQueuedCount("slow"));
+        assertEquals(-1, pipeline.getQueuedCount("unknown"));
+
+        final long start = System.currentTimeMillis();
+        try {
+            pipeline.jobReceived(createJob("cfA003localhost"));
+            fail("The pipeline is full");
+        } catch (final IOException e) {
+            assertEquals("The job pipeline is full", e.getMessage());
+        }
+        assertTrue(System.currentTimeMillis() - start >= 150);
+
+        // A shutdown with a short timeout interrupts the stuck stage and discards the queued job...
+        assertFalse(pipeline.shutdown(100));
+        assertEquals(0, pipeline.getQueuedCount("slow"));
+        assertEquals(0, pipeline.getCompletedCount());
+        release.countDown();
+    }
+
+    /**
+     * Every printer job received while the pipeline shuts down is either processed or refused, none
+     * is left behind in a queue.
+     */
+    public void testShutdownWhileReceiving() throws Exception {
+        for (int round = 0; round < 20; ++round) {
+            final JobPipeline pipeline = new JobPipelineBuilder()
+                    .stage("noop", new JobStage() {
+                        @Override
+                        public void process(final ReceivedJob job) {
+                            // Nothing to do...
+                        }
+                    }, 1, 100)
+                    .build();
+
+            final AtomicInteger submitted = new AtomicInteger();
+            final AtomicInteger refused = new AtomicInteger();
+            final Thread[] senders = new Thread[4];
+            for (int ix = 0; ix < senders.length; ++ix) {
+                senders[ix] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int job = 0; job < 200; ++job) {
+                            try {
+                                submitted.incrementAndGet();
+                                pipeline.jobReceived(createJob("cfA" + job + "localhost"));
+                            } catch (final IOException e) {
+                                refused.incrementAndGet();
+                            }
+                        }
+                    }
+                });
+                senders[ix].start();
+            }
+
+            Thread.sleep(1);
+            assertTrue(pipeline.shutdown(5000));
+            for (final Thread sender : senders) {
+                sender.join();
+            }
+
+            assertEquals(0, pipeline.getQueuedCount("noop"));
+            assertEquals(submitted.get(), pipeline.getCompletedCount() + refused.get());
+        }
+    }
+
+    /**
+     * A pipeline needs at least one stage with a valid configuration.
+     */
+    public void testInvalidConfiguration() {
+        try {
+            new JobPipelineBuilder().build();
+            fail("No stage");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("at least one stage"));
+        }
+
+        try {
+            new JobPipelineBuilder().stage("invalid", null, 0, 1);
+            fail("Invalid parallelism");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("invalid"));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link JobSequencer}.
+ */
+public final class JobSequencerTest extends TestCase {
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    private final List<String> received = new ArrayList<>();
+
+    private final JobSequencer sequencer = new JobSequencer(new ReceivedJobListener() {
+        @Override
+        public void jobReceived(final ReceivedJob job) throws IOException {
+            JobSequencerTest.this.received.add(job.getQueueName() + ":" + job.getControlFileName());
+            job.close();
+        }
+    });
+
+    /**
+     * Creates a {@link ReceivedJob} without data files.
+     */
+    private static ReceivedJob createJob(final String queueName, final String name) throws IOException {
+        return new ReceivedJob(
+                queueName,
+                name,
+                ControlFileParser.parse("Hlocalhost\n".getBytes(ISO8859)),
+                new HashMap<String, Payload>());
+    }
+
+    /**
+     * Printer jobs are held back until all earlier tickets of the same queue have been completed.
+     */
+    public void testOrder() throws Exception {
+        final JobSequencer.Ticket first = this.sequencer.acquire("q1");
+        final JobSequencer.Ticket second = this.sequencer.acquire("q1");
+        final JobSequencer.Ticket third = this.sequencer.acquire("q1");
+        final JobSequencer.Ticket other = this.sequencer.acquire("q2");
+
+        this.sequencer.deliver(third, createJob("q1", "cfA003localhost"));
+        this.sequencer.deliver(second, createJob("q1", "cfA002localhost"));
+        this.sequencer.deliver(other, createJob("q2", "cfA004localhost"));
+        assertEquals(Arrays.asList("q2:cfA004localhost"), this.received);
+        assertEquals(2, this.sequencer.getHeldCount());
+
+        // The first ticket passes its jobs immediately...
+        this.sequencer.deliver(first, createJob("q1", "cfA001localhost"));
+        assertEquals(Arrays.asList("q2:cfA004localhost", "q1:cfA001localhost"), this.received);
+
+        this.sequencer.complete(first);
+        this.sequencer.complete(second);
+        this.sequencer.complete(third);
+        this.sequencer.complete(other);
+
+        assertEquals(Arrays.asList(
+                "q2:cfA004localhost",
+                "q1:cfA001localhost",
+                "q1:cfA002localhost",
+                "q1:cfA003localhost"), this.received);
+
+        assertEquals(0, this.sequencer.getHeldCount());
+    }
+
+    /**
+     * A ticket that ends without a printer job does not block the queue.
+     */
+    public void testEmptyTicket() throws Exception {
+        final JobSequencer.Ticket aborted = this.sequencer.acquire("q1");
+        final JobSequencer.Ticket next = this.sequencer.acquire("q1");
+
+        this.sequencer.deliver(next, createJob("q1", "cfA002localhost"));
+        assertTrue(this.received.isEmpty());
+
+        this.sequencer.complete(aborted);
+        assertEquals(Arrays.asList("q1:cfA002localhost"), this.received);
+
+        this.sequencer.complete(next);
+        assertEquals(0, this.sequencer.getHeldCount());
+    }
+
+    /**
+     * A printer job the {@link ReceivedJobListener} failed to process is closed, so its temporary
+     * files are deleted.
+     */
+    public void testListenerFailure() throws Exception {
+        final JobSequencer failing = new JobSequencer(new ReceivedJobListener() {
+            @Override
+            public void jobReceived(final ReceivedJob job) throws IOException {
+                throw new IOException("Printer is offline");
+            }
+        });
+
+        final Path file = Files.createTempFile("lpdbox", ".tmp");
+        final Map<String, Payload> dataFiles = new HashMap<>();
+        dataFiles.put("dfA001localhost", new Payload(0, file));
+
+        final JobSequencer.Ticket ticket = failing.acquire("q1");
+        failing.deliver(ticket, new ReceivedJob(
+                "q1",
+                "cfA001localhost",
+                ControlFileParser.parse("Hlocalhost\nldfA001localhost\n".getBytes(ISO8859)),
+                dataFiles));
+        failing.complete(ticket);
+
+        assertFalse(Files.exists(file));
+        assertEquals(0, failing.getHeldCount());
+    }
+}
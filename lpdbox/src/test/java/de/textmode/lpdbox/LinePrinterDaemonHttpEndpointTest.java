@@ -0,0 +1,150 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link LinePrinterDaemonHttpEndpoint}.
+ */
+public final class LinePrinterDaemonHttpEndpointTest extends TestCase {
+
+    private static final int PORT_NUMBER = 1516;
+
+    /**
+     * Performs a HTTP GET and returns the HTTP status code.
+     */
+    private static int getStatus(final LinePrinterDaemonHttpEndpoint endpoint, final String path)
+            throws IOException {
+
+        final URL url = new URL("http://localhost:" + endpoint.getAddress().getPort() + path);
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Performs a HTTP GET and returns the response body.
+     */
+    private static String getBody(final LinePrinterDaemonHttpEndpoint endpoint, final String path)
+            throws IOException {
+
+        final URL url = new URL("http://localhost:" + endpoint.getAddress().getPort() + path);
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try (final InputStream is = connection.getInputStream()) {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read = is.read(buffer);
+            while (read != -1) {
+                os.write(buffer, 0, read);
+                read = is.read(buffer);
+            }
+            return new String(os.toByteArray(), Charset.forName("UTF-8"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Checks the health endpoints and the metrics of a running and a stopped daemon.
+     */
+    public void testEndpoints() throws Exception {
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(new DaemonCommandHandlerStubFactory())
+                .portNumber(PORT_NUMBER)
+                .build();
+
+        final LinePrinterDaemonHttpEndpoint endpoint =
+                new LinePrinterDaemonHttpEndpoint(daemon, new InetSocketAddress("localhost", 0));
+
+        endpoint.start();
+        try {
+            assertEquals(503, getStatus(endpoint, LinePrinterDaemonHttpEndpoint.PATH_LIVENESS));
+            assertEquals(503, getStatus(endpoint, LinePrinterDaemonHttpEndpoint.PATH_READINESS));
+
+            final Thread thread = new Thread(daemon);
+            thread.setDaemon(true);
+            daemon.startup();
+            thread.start();
+
+            for (int ix = 0; ix < 50 && !daemon.isRunning(); ++ix) {
+                Thread.sleep(50);
+            }
+
+            assertEquals(200, getStatus(endpoint, LinePrinterDaemonHttpEndpoint.PATH_LIVENESS));
+            assertEquals(200, getStatus(endpoint, LinePrinterDaemonHttpEndpoint.PATH_READINESS));
+
+            daemon.getStatistics().commandHandled(0x02, 2000000L);
+            daemon.getStatistics().jobStarted("my \"queue\"");
+            daemon.getStatistics().jobStarted("printer \uD83D\uDDA8");
+
+            final String metrics = getBody(endpoint, LinePrinterDaemonHttpEndpoint.PATH_METRICS);
+            assertTrue(metrics.contains("lpdbox_up 1\n"));
+            assertTrue(metrics.contains("lpdbox_overloaded 0\n"));
+            assertTrue(metrics.contains("lpdbox_threads_max 10\n"));
+            assertTrue(metrics.contains("lpdbox_commands_total{command=\"receive_printer_job\"} 1\n"));
+            assertTrue(metrics.contains(
+                    "lpdbox_command_duration_seconds_bucket{command=\"receive_printer_job\",le=\"0.001\"} 0\n"));
+            assertTrue(metrics.contains(
+                    "lpdbox_command_duration_seconds_bucket{command=\"receive_printer_job\",le=\"0.005\"} 1\n"));
+            assertTrue(metrics.contains(
+                    "lpdbox_command_duration_seconds_bucket{command=\"receive_printer_job\",le=\"+Inf\"} 1\n"));
+            assertTrue(metrics.contains("lpdbox_jobs_total{event=\"started\"} 2\n"));
+            assertTrue(metrics.contains("lpdbox_active_jobs{queue=\"my \\\"queue\\\"\"} 1\n"));
+            assertTrue(metrics.contains("lpdbox_active_jobs{queue=\"printer \uD83D\uDDA8\"} 1\n"));
+
+            // A response larger than the initial buffer is encoded completely...
+            for (int ix = 0; ix < 300; ++ix) {
+                daemon.getStatistics().jobStarted("queue \u00E4\u00F6\u00FC " + ix);
+            }
+            final String large = getBody(endpoint, LinePrinterDaemonHttpEndpoint.PATH_METRICS);
+            assertTrue(large.getBytes(Charset.forName("UTF-8")).length > 16384);
+            assertTrue(large.contains("lpdbox_active_jobs{queue=\"queue \u00E4\u00F6\u00FC 299\"} 1\n"));
+            assertTrue(large.contains("lpdbox_active_jobs{queue=\"printer \uD83D\uDDA8\"} 1\n"));
+            assertTrue(large.contains("lpdbox_up 1\n"));
+
+            // Queues without active jobs are no longer exported...
+            for (int ix = 0; ix < 300; ++ix) {
+                daemon.getStatistics().jobEnded("queue \u00E4\u00F6\u00FC " + ix);
+            }
+            daemon.getStatistics().jobStarted("my \"queue\"");
+            daemon.getStatistics().jobEnded("my \"queue\"");
+            assertEquals(2, daemon.getStatistics().getActiveJobs().size());
+            final String ended = getBody(endpoint, LinePrinterDaemonHttpEndpoint.PATH_METRICS);
+            assertFalse(ended.contains("queue \u00E4\u00F6\u00FC"));
+            assertTrue(ended.contains("lpdbox_active_jobs{queue=\"my \\\"queue\\\"\"} 1\n"));
+
+            daemon.stop(5000);
+
+            assertEquals(503, getStatus(endpoint, LinePrinterDaemonHttpEndpoint.PATH_LIVENESS));
+            assertTrue(getBody(endpoint, LinePrinterDaemonHttpEndpoint.PATH_METRICS).contains("lpdbox_up 0\n"));
+        } finally {
+            endpoint.stop(0);
+            daemon.stop(5000);
+        }
+    }
+}
@@ -16,12 +16,14 @@ package de.textmode.lpdbox;
  * limitations under the License.
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.Socket;
-import java.net.SocketException;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.xml.bind.DatatypeConverter;
 
@@ -32,7 +34,103 @@ import junit.framework.TestCase;
  */
 public final class LinePrinterDaemonTest extends TestCase {
 
-    private static final int PORT_NUMBER = 1515;
+    /**
+     * A {@link TransportConnection} whose reads block until the connection gets closed. It remembers
+     * if the reading thread had already been interrupted when another thread closed the connection.
+     */
+    private static final class ParkingConnection implements TransportConnection {
+
+        private final CountDownLatch isReading = new CountDownLatch(1);
+        private volatile Thread reader;
+        private volatile boolean isClosed;
+        private volatile Boolean wasReaderInterrupted;
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    ParkingConnection.this.reader = Thread.currentThread();
+                    ParkingConnection.this.isReading.countDown();
+
+                    // Unlike most blocking calls, parking does not clear the interrupted flag...
+                    while (!ParkingConnection.this.isClosed) {
+                        LockSupport.park(this);
+                    }
+                    throw new IOException("Connection closed");
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public String getClient() {
+            return "parking";
+        }
+
+        @Override
+        public synchronized void close() {
+            final Thread thread = this.reader;
+            if (!this.isClosed && thread != null && thread != Thread.currentThread()) {
+                this.wasReaderInterrupted = thread.isInterrupted();
+            }
+            this.isClosed = true;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * A {@link Transport} that accepts a single {@link ParkingConnection}.
+     */
+    private static final class ParkingTransport implements Transport {
+
+        private final ParkingConnection connection = new ParkingConnection();
+        private volatile boolean isBound;
+        private boolean isAccepted;
+
+        @Override
+        public void bind() {
+            this.isBound = true;
+        }
+
+        @Override
+        public boolean isBound() {
+            return this.isBound;
+        }
+
+        @Override
+        public TransportConnection accept() throws IOException {
+            if (!this.isBound) {
+                throw new IOException("The transport is not bound");
+            }
+
+            if (!this.isAccepted) {
+                this.isAccepted = true;
+                return this.connection;
+            }
+
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        @Override
+        public String getDescription() {
+            return "parking";
+        }
+
+        @Override
+        public void close() {
+            this.isBound = false;
+        }
+    }
 
     /**
      * Converts a hex string to a byte array.
@@ -100,9 +198,10 @@ public final class LinePrinterDaemonTest extends TestCase {
     public void testRealWorldExample() throws Exception {
         final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
         final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
 
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .build();
 
         assertFalse(daemon.isRunning());
@@ -115,7 +214,7 @@ public final class LinePrinterDaemonTest extends TestCase {
 
         thread.start();
 
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
 
         try {
             final InputStream is = s.getInputStream();
@@ -216,48 +315,38 @@ public final class LinePrinterDaemonTest extends TestCase {
 
         final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
         final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
 
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .maxThreads(1)
                 .build();
 
         final Thread thread = new Thread(daemon);
         thread.setDaemon(true);
-        daemon.startup();
         thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
 
         // First we send an invalid control code - the server will close the connection...
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
         try {
             writeTo(s.getOutputStream(), "000000000a");
-
-            // On my Windows box I get a -1 when doing a read on the socket....
             assertEquals(-1, s.getInputStream().read());
-        } catch (final SocketException e) {
-            // .... and on Linux a SocketException is thrown on the read()...
-            assertFalse(e.getMessage().isEmpty());
         } finally {
             s.close();
         }
 
         // The server is still running and should accept and handle connections - we check this now
-        final Socket s2 = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s2 = transport.connect();
         try {
             writeTo(s2.getOutputStream(), "016C700A");
+
+            // The server closes the connection once the command has been handled...
+            assertEquals(-1, s2.getInputStream().read());
         } finally {
             s2.close();
         }
 
-        // If we stop the daemon now, the thread that handles the connection might not have
-        // been scheduled... So we check the received printer queue name in a loop....
-        for (int ix = 0; ix < 50; ++ix) {
-            if ("lp".equals(handler.getPrinterQueueName())) {
-                break;
-            }
-            Thread.sleep(50);
-        }
-
         daemon.stop(5000);
         assertEquals("lp", handler.getPrinterQueueName());
     }
@@ -268,17 +357,18 @@ public final class LinePrinterDaemonTest extends TestCase {
     public void testCloseConnectionWhileTransferringControlFile() throws Exception {
         final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
         final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
 
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .build();
 
         final Thread thread = new Thread(daemon);
         thread.setDaemon(true);
-        daemon.startup();
         thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
 
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
 
         try {
             final InputStream is = s.getInputStream();
@@ -326,17 +416,18 @@ public final class LinePrinterDaemonTest extends TestCase {
     public void testCloseConnectionWhileTransferringDataFile() throws Exception {
         final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
         final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
 
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .build();
 
         final Thread thread = new Thread(daemon);
         thread.setDaemon(true);
-        daemon.startup();
         thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
 
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
 
         try {
             final InputStream is = s.getInputStream();
@@ -402,17 +493,18 @@ public final class LinePrinterDaemonTest extends TestCase {
     public void testCloseConnectionBetweenControlAndDataFile() throws Exception {
         final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
         final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
 
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .build();
 
         final Thread thread = new Thread(daemon);
         thread.setDaemon(true);
-        daemon.startup();
         thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
 
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
 
         try {
             final InputStream is = s.getInputStream();
@@ -465,17 +557,18 @@ public final class LinePrinterDaemonTest extends TestCase {
     public void testPrintingToLockedQueue() throws Exception {
         final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
         final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
 
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .build();
 
         final Thread thread = new Thread(daemon);
         thread.setDaemon(true);
-        daemon.startup();
         thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
 
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
 
         try {
             handler.lockQueue();
@@ -508,16 +601,17 @@ public final class LinePrinterDaemonTest extends TestCase {
             }
         };
 
+        final InMemoryTransport transport = new InMemoryTransport();
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(factory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .build();
 
         final Thread thread = new Thread(daemon);
         thread.setDaemon(true);
-        daemon.startup();
         thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
 
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
 
         try {
             final InputStream is = s.getInputStream();
@@ -529,10 +623,6 @@ public final class LinePrinterDaemonTest extends TestCase {
             os.flush();
 
             assertEquals(-1, is.read());
-        } catch (final SocketException e) {
-            // This ok, too.... On my windows box the is.read() above
-            // returns -1... Linux throws an SocketException...
-            return;
         } finally {
             s.close();
             assertTrue(daemon.isRunning());
@@ -551,16 +641,17 @@ public final class LinePrinterDaemonTest extends TestCase {
             }
         };
 
+        final InMemoryTransport transport = new InMemoryTransport();
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(factory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .build();
 
         final Thread thread = new Thread(daemon);
         thread.setDaemon(true);
-        daemon.startup();
         thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
 
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
 
         try {
             final InputStream is = s.getInputStream();
@@ -572,10 +663,6 @@ public final class LinePrinterDaemonTest extends TestCase {
             os.flush();
 
             assertEquals(-1, is.read());
-        } catch (final SocketException e) {
-            // This ok, too.... On my windows box the is.read() above
-            // returns -1... Linux throws an SocketException...
-            return;
         } finally {
             s.close();
             assertTrue(daemon.isRunning());
@@ -607,17 +694,18 @@ public final class LinePrinterDaemonTest extends TestCase {
     private void testReportQueueState(final String hexString, final String expected) throws Exception {
         final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
         final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
 
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .build();
 
         final Thread thread = new Thread(daemon);
         thread.setDaemon(true);
-        daemon.startup();
         thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
 
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
 
         try {
             handler.lockQueue();
@@ -627,10 +715,14 @@ public final class LinePrinterDaemonTest extends TestCase {
 
             writeTo(os, hexString);
 
-            final byte[] buffer = new byte[256];
-            final int len = is.read(buffer);
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+            int read = is.read();
+            while (read != -1) {
+                received.write(read);
+                read = is.read();
+            }
 
-            assertTrue(new String(buffer, Util.ISO_8859_1).substring(0, len).equals(expected));
+            assertEquals(expected, new String(received.toByteArray(), Util.ISO_8859_1));
 
         } finally {
             s.close();
@@ -644,17 +736,18 @@ public final class LinePrinterDaemonTest extends TestCase {
     public void testRemovePrintJob() throws Exception {
         final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
         final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
 
         final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
-                .portNumber(PORT_NUMBER)
+                .transport(transport)
                 .build();
 
         final Thread thread = new Thread(daemon);
         thread.setDaemon(true);
-        daemon.startup();
         thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
 
-        final Socket s = new Socket("localhost", PORT_NUMBER);
+        final InMemoryConnection s = transport.connect();
 
         try {
             handler.lockQueue();
@@ -678,4 +771,181 @@ public final class LinePrinterDaemonTest extends TestCase {
             daemon.stop(5000);
         }
     }
+
+    /**
+     * The startup future completes once the transport is bound.
+     */
+    public void testStartupFuture() throws Exception {
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(new DaemonCommandHandlerStubFactory())
+                .transport(new InMemoryTransport())
+                .build();
+
+        assertFalse(daemon.getStartupFuture().isDone());
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        thread.start();
+
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
+        assertTrue(daemon.stop(5000));
+        assertFalse(daemon.isRunning());
+    }
+
+    /**
+     * Stopping with a timeout reports connections that are still being handled.
+     */
+    public void testStopWithActiveConnection() throws Exception {
+        final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
+        final InMemoryTransport transport = new InMemoryTransport();
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
+                .transport(transport)
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        daemon.startup();
+        thread.start();
+
+        final InMemoryConnection connection = transport.connect();
+        try {
+            // Command    : 0x02 (Receive printer job)
+            // Queue Name : lp
+            writeTo(connection.getOutputStream(), "026c700a");
+            this.readPositiveAcknowledgement(connection.getInputStream());
+
+            assertFalse(daemon.stop(200));
+        } finally {
+            connection.close();
+        }
+
+        assertTrue(daemon.stop(5000));
+    }
+
+    /**
+     * Draining lets a running printer job complete.
+     */
+    public void testDrain() throws Exception {
+        final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
+        final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
+                .transport(transport)
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        daemon.startup();
+        thread.start();
+
+        final InMemoryConnection connection = transport.connect();
+        final InputStream is = connection.getInputStream();
+        final OutputStream os = connection.getOutputStream();
+
+        // Command    : 0x02 (Receive printer job)
+        // Queue Name : lp
+        writeTo(os, "026c700a");
+        this.readPositiveAcknowledgement(is);
+
+        final Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+
+                    // Subcommand : 0x03 (Receive data file), 2 bytes, dfA001host
+                    writeTo(os, "033220646641303031686f73740a");
+                    LinePrinterDaemonTest.this.readPositiveAcknowledgement(is);
+                    writeTo(os, "4f4b00");
+                    LinePrinterDaemonTest.this.readPositiveAcknowledgement(is);
+                    connection.shutdownOutput();
+                } catch (final Exception e) {
+                    connection.disconnect();
+                }
+            }
+        });
+        client.start();
+
+        assertTrue(daemon.drain(5000));
+        assertFalse(daemon.isRunning());
+        assertTrue(handler.isDataFileComplete());
+        assertTrue(handler.isEnded());
+        assertFalse(handler.isAborted());
+
+        try {
+            transport.connect();
+            fail("The daemon must not accept connections after it has been drained");
+        } catch (final IOException e) {
+            assertEquals("Connection refused", e.getMessage());
+        }
+
+        client.join(5000);
+        connection.close();
+    }
+
+    /**
+     * Connections that do not end before the drain timeout are aborted before the threads handling
+     * them get interrupted. Otherwise an interrupted thread may end the printer job before the handler
+     * can tell that the connection has been aborted.
+     */
+    public void testDrainAbortsBeforeInterrupting() throws Exception {
+        final ParkingTransport transport = new ParkingTransport();
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(new DaemonCommandHandlerStubFactory())
+                .transport(transport)
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        daemon.startup();
+        thread.start();
+
+        assertTrue(transport.connection.isReading.await(5, TimeUnit.SECONDS));
+
+        assertFalse(daemon.drain(100));
+        assertEquals(Boolean.FALSE, transport.connection.wasReaderInterrupted);
+    }
+
+    /**
+     * Printer jobs that do not end before the drain timeout are aborted.
+     */
+    public void testDrainAbortsStuckJob() throws Exception {
+        final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
+        final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+        final InMemoryTransport transport = new InMemoryTransport();
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
+                .transport(transport)
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        daemon.startup();
+        thread.start();
+
+        final InMemoryConnection connection = transport.connect();
+        try {
+            final InputStream is = connection.getInputStream();
+            final OutputStream os = connection.getOutputStream();
+
+            // Command    : 0x02 (Receive printer job)
+            // Queue Name : lp
+            writeTo(os, "026c700a");
+            this.readPositiveAcknowledgement(is);
+
+            // Subcommand : 0x03 (Receive data file), 99 bytes, dfA001host - but only 2 bytes are sent
+            writeTo(os, "03393920646641303031686f73740a");
+            this.readPositiveAcknowledgement(is);
+            writeTo(os, "4f4b");
+
+            assertFalse(daemon.drain(200));
+            assertFalse(handler.isDataFileComplete());
+            assertTrue(handler.isAborted());
+            assertTrue(handler.isEnded());
+            assertTrue(daemon.getConnections().isEmpty());
+        } finally {
+            connection.close();
+        }
+    }
 }
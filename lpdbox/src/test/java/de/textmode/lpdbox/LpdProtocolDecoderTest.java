@@ -0,0 +1,151 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link LpdProtocolDecoder}.
+ */
+public final class LpdProtocolDecoderTest extends TestCase {
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    /**
+     * {@link LpdProtocolListener} that records all events as text.
+     */
+    private static final class RecordingListener implements LpdProtocolListener {
+
+        private final StringBuilder events = new StringBuilder();
+
+        @Override
+        public void command(final int commandCode) {
+            this.events.append("command ").append(commandCode).append('\n');
+        }
+
+        @Override
+        public void queue(final String queueName, final String operands) {
+            this.events.append("queue ").append(queueName).append(" [").append(operands).append("]\n");
+        }
+
+        @Override
+        public void subcommand(final int subcommandCode, final long fileLength, final String fileName) {
+            this.events.append("subcommand ").append(subcommandCode).append(' ')
+                .append(fileLength).append(' ').append(fileName).append('\n');
+        }
+
+        @Override
+        public void payload(final ByteBuffer fragment) {
+            // Consume only a part of the fragment - the decoder must not care...
+            while (fragment.remaining() > 1) {
+                this.events.append((char) fragment.get());
+            }
+            if (fragment.hasRemaining()) {
+                this.events.append((char) fragment.get(fragment.position()));
+            }
+        }
+
+        @Override
+        public void terminator(final boolean isValid) {
+            this.events.append("\nterminator ").append(isValid).append('\n');
+        }
+
+        String getEvents() {
+            return this.events.toString();
+        }
+    }
+
+    /**
+     * Decodes the given data in fragments of the given size and returns the recorded events.
+     */
+    private static String decode(final String data, final int fragmentSize) throws IOException {
+        final RecordingListener listener = new RecordingListener();
+        final LpdProtocolDecoder decoder = new LpdProtocolDecoder(listener);
+
+        final byte[] bytes = data.getBytes(ISO8859);
+        for (int pos = 0; pos < bytes.length; pos += fragmentSize) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes, pos, Math.min(fragmentSize, bytes.length - pos));
+            decoder.decode(buffer);
+            assertFalse(buffer.hasRemaining());
+        }
+
+        assertTrue(decoder.isAtBoundary());
+        return listener.getEvents();
+    }
+
+    /**
+     * Decodes a complete printer job in fragments of all sizes.
+     */
+    public void testReceivePrinterJob() throws Exception {
+        final String data = "\u0002lp\n"
+                + "\u000212 cfA001host\nHhost\nPuser\n\u0000"
+                + "\u00030 dfA001host\n\u0000"
+                + "\u000311 dfB001host\nHello World\u0001"
+                + "\u0001";
+
+        final String expected = "command 2\n"
+                + "queue lp []\n"
+                + "subcommand 2 12 cfA001host\n"
+                + "Hhost\nPuser\n\n"
+                + "terminator true\n"
+                + "subcommand 3 0 dfA001host\n"
+                + "\nterminator true\n"
+                + "subcommand 3 11 dfB001host\n"
+                + "Hello World\n"
+                + "terminator false\n"
+                + "subcommand 1 0 null\n";
+
+        for (int fragmentSize = 1; fragmentSize <= data.length(); ++fragmentSize) {
+            assertEquals(expected, decode(data, fragmentSize));
+        }
+    }
+
+    /**
+     * Decodes the command "Remove jobs".
+     */
+    public void testRemoveJobs() throws Exception {
+        assertEquals("command 5\nqueue lp [root 12 13]\n", decode("\u0005lp root 12 13\n", 3));
+    }
+
+    /**
+     * Passes an invalid subcommand code.
+     */
+    public void testInvalidSubcommand() throws Exception {
+        try {
+            decode("\u0002lp\n\u0004", 1);
+            fail("Invalid subcommand code accepted");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("0x4"));
+        }
+    }
+
+    /**
+     * Passes a zero length control file.
+     */
+    public void testZeroLengthControlFile() throws Exception {
+        try {
+            decode("\u0002lp\n\u00020 cfA001host\n", 100);
+            fail("Zero length control file accepted");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("zero length"));
+        }
+    }
+}
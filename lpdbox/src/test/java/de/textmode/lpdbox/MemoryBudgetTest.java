@@ -0,0 +1,158 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link MemoryBudget}.
+ */
+public final class MemoryBudgetTest extends TestCase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryBudgetTest.class);
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Reservations fail if the budget is exhausted.
+     */
+    public void testReserveAndRelease() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100, 0);
+
+        assertFalse(budget.reserve(101));
+        assertTrue(budget.reserve(60));
+        assertFalse(budget.reserve(41));
+        assertTrue(budget.reserve(40));
+        assertEquals(100, budget.getReserved());
+
+        budget.release(60);
+        assertEquals(40, budget.getReserved());
+        assertTrue(budget.reserve(60));
+    }
+
+    /**
+     * A reservation waits until another connection releases its reservation.
+     */
+    public void testWaitForRelease() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100, 5000);
+        assertTrue(budget.reserve(100));
+
+        final Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                budget.release(50);
+            }
+        });
+        releaser.start();
+
+        assertTrue(budget.reserve(50));
+        assertEquals(100, budget.getReserved());
+        releaser.join();
+    }
+
+    /**
+     * The parser acknowledges a file negatively if the budget is exhausted and releases the
+     * reservations when the printer job has ended.
+     */
+    public void testReceivePrinterJob() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(20, 0);
+        final LinePrinterDaemonStatistics statistics = new LinePrinterDaemonStatistics();
+        final DaemonCommandHandlerStub handler = new DaemonCommandHandlerStub();
+
+        final String data = "lp\n" + "\u000210 cfA001host\n" + "Hhost\nPme\n\u0000" + "\u000320 dfA001host\n";
+        final ByteArrayInputStream is = new ByteArrayInputStream(data.getBytes(ISO8859));
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        new ReceivePrinterJobCommandParser(LOGGER, handler, budget, null, statistics, false, 0).parse(is, os);
+
+        final byte[] acks = os.toByteArray();
+        assertEquals(4, acks.length);
+        assertEquals(0, acks[0]);
+        assertEquals(0, acks[1]);
+        assertEquals(0, acks[2]);
+        assertEquals(1, acks[3]);
+
+        assertTrue(handler.isControlFileComplete());
+        assertTrue(handler.isAborted());
+        assertEquals(1, statistics.getFilesRefusedForMemory());
+        assertEquals(0, budget.getReserved());
+    }
+
+    /**
+     * Sends a printer job with a data file of unknown length to a parser with the given budget and maximum
+     * length of a data file of unknown length. Returns the acknowledgements.
+     */
+    private static byte[] receiveUnknownLength(
+            final MemoryBudget budget,
+            final long maxUnknownLength,
+            final DaemonCommandHandlerStub handler,
+            final String content) throws IOException {
+
+        final String data = "lp\n" + "\u00030 dfA001host\n" + content;
+        final ByteArrayInputStream is = new ByteArrayInputStream(data.getBytes(ISO8859));
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        new ReceivePrinterJobCommandParser(LOGGER, handler, budget, null, null, true, maxUnknownLength).parse(is, os);
+        return os.toByteArray();
+    }
+
+    /**
+     * Data files of unknown length are refused without a maximum length or if the maximum length exceeds
+     * the budget. Receiving fails if the client sends more than the maximum length.
+     */
+    public void testUnknownLength() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100, 0);
+
+        final DaemonCommandHandlerStub withoutMaximum = new DaemonCommandHandlerStub();
+        assertEquals(1, receiveUnknownLength(budget, 0, withoutMaximum, "data")[1]);
+        assertTrue(withoutMaximum.isAborted());
+
+        final DaemonCommandHandlerStub overBudget = new DaemonCommandHandlerStub();
+        assertEquals(1, receiveUnknownLength(budget, 200, overBudget, "data")[1]);
+        assertTrue(overBudget.isAborted());
+        assertEquals(0, budget.getReserved());
+
+        final DaemonCommandHandlerStub withinBudget = new DaemonCommandHandlerStub();
+        assertEquals(0, receiveUnknownLength(budget, 10, withinBudget, "0123456789")[1]);
+        assertTrue(withinBudget.isDataFileComplete());
+        assertFalse(withinBudget.isAborted());
+        assertEquals(0, budget.getReserved());
+
+        final DaemonCommandHandlerStub tooLong = new DaemonCommandHandlerStub();
+        try {
+            receiveUnknownLength(budget, 10, tooLong, "0123456789A");
+            fail();
+        } catch (final IOException e) {
+            assertTrue(tooLong.isAborted());
+            assertFalse(tooLong.isDataFileComplete());
+        }
+        assertEquals(0, budget.getReserved());
+    }
+}
@@ -0,0 +1,182 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link PayloadSink}.
+ */
+public final class PayloadSinkTest extends TestCase {
+
+    private Path tempDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempDirectory = Files.createTempDirectory("lpdbox-payload");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.delete(this.tempDirectory);
+    }
+
+    /**
+     * Returns test data of the given length.
+     */
+    private static byte[] createData(final int length) {
+        final byte[] data = new byte[length];
+        for (int ix = 0; ix < length; ++ix) {
+            data[ix] = (byte) (ix * 31);
+        }
+        return data;
+    }
+
+    /**
+     * Reads the complete {@link Payload}.
+     */
+    private static byte[] readAll(final Payload payload) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (final InputStream is = payload.getInputStream()) {
+            final byte[] buffer = new byte[1000];
+            int read = is.read(buffer);
+            while (read != -1) {
+                os.write(buffer, 0, read);
+                read = is.read(buffer);
+            }
+        }
+        return os.toByteArray();
+    }
+
+    /**
+     * Returns the number of files in the temporary directory.
+     */
+    private long countTempFiles() throws IOException {
+        try (final Stream<Path> files = Files.list(this.tempDirectory)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * Small files are kept in memory, the chunks are reused.
+     */
+    public void testInMemory() throws Exception {
+        final PayloadSink sink = new PayloadSink(100000, 1000000, this.tempDirectory);
+        final byte[] data = createData(20000);
+
+        final Payload payload = sink.receive(new ByteArrayInputStream(data), data.length);
+        assertFalse(payload.isSpilled());
+        assertEquals(data.length, payload.getLength());
+        assertTrue(Arrays.equals(data, readAll(payload)));
+        assertTrue(Arrays.equals(data, readAll(payload)));
+        assertEquals(0, this.countTempFiles());
+        payload.close();
+
+        final Payload empty = sink.receive(new ByteArrayInputStream(data), 0);
+        assertEquals(0, readAll(empty).length);
+        empty.close();
+    }
+
+    /**
+     * Large files are spilled to a temporary file that is deleted when the {@link Payload} is closed.
+     */
+    public void testSpillByDeclaredLength() throws Exception {
+        final PayloadSink sink = new PayloadSink(10000, 1000000, this.tempDirectory);
+        final byte[] data = createData(50000);
+
+        final Payload payload = sink.receive(new ByteArrayInputStream(data), data.length);
+        assertTrue(payload.isSpilled());
+        assertEquals(1, this.countTempFiles());
+        assertTrue(Arrays.equals(data, readAll(payload)));
+
+        payload.close();
+        assertEquals(0, this.countTempFiles());
+    }
+
+    /**
+     * A file is spilled while it is received if the memory is exhausted.
+     */
+    public void testSpillMidStream() throws Exception {
+        final PayloadSink sink = new PayloadSink(100000, 20000, this.tempDirectory);
+        final byte[] data = createData(50000);
+
+        final Payload payload = sink.receive(new ByteArrayInputStream(data), data.length);
+        assertTrue(payload.isSpilled());
+        assertTrue(Arrays.equals(data, readAll(payload)));
+        payload.close();
+
+        // The memory has been returned to the pool...
+        final Payload small = sink.receive(new ByteArrayInputStream(data), 16000);
+        assertFalse(small.isSpilled());
+        assertTrue(Arrays.equals(Arrays.copyOf(data, 16000), readAll(small)));
+        small.close();
+    }
+
+    /**
+     * A file of unknown length is read until the end of the stream and spilled once it exceeds
+     * the spill threshold.
+     */
+    public void testUnknownLength() throws Exception {
+        final PayloadSink sink = new PayloadSink(20000, 1000000, this.tempDirectory);
+
+        final byte[] small = createData(12345);
+        final Payload inMemory = sink.receive(
+                new ByteArrayInputStream(small), DaemonCommandHandler.UNKNOWN_FILE_LENGTH);
+        assertFalse(inMemory.isSpilled());
+        assertEquals(small.length, inMemory.getLength());
+        assertTrue(Arrays.equals(small, readAll(inMemory)));
+        inMemory.close();
+
+        final byte[] large = createData(50000);
+        final Payload spilled = sink.receive(
+                new ByteArrayInputStream(large), DaemonCommandHandler.UNKNOWN_FILE_LENGTH);
+        assertTrue(spilled.isSpilled());
+        assertEquals(large.length, spilled.getLength());
+        assertTrue(Arrays.equals(large, readAll(spilled)));
+        spilled.close();
+        assertEquals(0, this.countTempFiles());
+    }
+
+    /**
+     * A file shorter than declared causes an {@link IOException}.
+     */
+    public void testShortRead() throws Exception {
+        final PayloadSink sink = new PayloadSink(100000, 1000000, this.tempDirectory);
+        try {
+            sink.receive(new ByteArrayInputStream(createData(100)), 200);
+            fail("The stream ended prematurely");
+        } catch (final IOException e) {
+            assertEquals(Util.ERROR_END_OF_STREAM, e.getMessage());
+        }
+
+        try {
+            sink.receive(new ByteArrayInputStream(createData(100)), 200000);
+            fail("The stream ended prematurely");
+        } catch (final IOException e) {
+            assertEquals(0, this.countTempFiles());
+        }
+    }
+}
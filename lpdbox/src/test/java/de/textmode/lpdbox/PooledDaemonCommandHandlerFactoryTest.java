@@ -0,0 +1,215 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link PooledDaemonCommandHandlerFactory} and {@link SharedDaemonCommandHandlerFactory}.
+ */
+public final class PooledDaemonCommandHandlerFactoryTest extends TestCase {
+
+    /**
+     * A {@link ResettableDaemonCommandHandler} that counts the calls of reset() and close().
+     */
+    private static final class ResettableHandler
+            extends ForwardingDaemonCommandHandler
+            implements ResettableDaemonCommandHandler {
+
+        private int resetCount;
+        private volatile int closeCount;
+        private boolean isResetFailing;
+
+        /**
+         * Constructor.
+         */
+        ResettableHandler() {
+            super(new DaemonCommandHandlerStub());
+        }
+
+        @Override
+        public void reset() throws IOException {
+            ++this.resetCount;
+            if (this.isResetFailing) {
+                throw new IOException("reset failed");
+            }
+        }
+
+        @Override
+        public void close() {
+            ++this.closeCount;
+        }
+    }
+
+    /**
+     * Factory that creates and remembers {@link ResettableHandler} objects.
+     */
+    private static final class ResettableHandlerFactory implements DaemonCommandHandlerFactory {
+
+        private final List<ResettableHandler> created = new ArrayList<>();
+
+        @Override
+        public DaemonCommandHandler create() {
+            final ResettableHandler handler = new ResettableHandler();
+            this.created.add(handler);
+            return handler;
+        }
+    }
+
+    /**
+     * Handlers are reset and reused instead of being closed.
+     */
+    public void testReuse() throws Exception {
+        final ResettableHandlerFactory factory = new ResettableHandlerFactory();
+        final PooledDaemonCommandHandlerFactory pool = new PooledDaemonCommandHandlerFactory(factory, 0, 2, 60000);
+
+        final DaemonCommandHandler first = pool.create();
+        first.printJobs("lp");
+        first.close();
+        first.close();
+
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, factory.created.get(0).resetCount);
+        assertEquals(0, factory.created.get(0).closeCount);
+
+        pool.create().close();
+        assertEquals(1, factory.created.size());
+        assertEquals(2, factory.created.get(0).resetCount);
+
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, factory.created.get(0).closeCount);
+    }
+
+    /**
+     * No more than maxIdle handlers are kept, handlers failing to reset are closed.
+     */
+    public void testMaxIdleAndFailingReset() throws Exception {
+        final ResettableHandlerFactory factory = new ResettableHandlerFactory();
+        final PooledDaemonCommandHandlerFactory pool = new PooledDaemonCommandHandlerFactory(factory, 0, 1, 60000);
+
+        final DaemonCommandHandler first = pool.create();
+        final DaemonCommandHandler second = pool.create();
+        final DaemonCommandHandler third = pool.create();
+        assertEquals(3, factory.created.size());
+
+        factory.created.get(2).isResetFailing = true;
+        third.close();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, factory.created.get(2).closeCount);
+
+        first.close();
+        second.close();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, factory.created.get(0).closeCount);
+        assertEquals(1, factory.created.get(1).closeCount);
+
+        pool.close();
+    }
+
+    /**
+     * Idle handlers are evicted after the idle timeout, but minIdle handlers are kept.
+     */
+    public void testIdleEviction() throws Exception {
+        final ResettableHandlerFactory factory = new ResettableHandlerFactory();
+        final PooledDaemonCommandHandlerFactory pool = new PooledDaemonCommandHandlerFactory(factory, 1, 5, 10);
+
+        final DaemonCommandHandler first = pool.create();
+        final DaemonCommandHandler second = pool.create();
+        first.close();
+        second.close();
+        assertEquals(2, pool.getIdleCount());
+
+        Thread.sleep(50);
+        pool.create().close();
+
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, factory.created.get(0).closeCount);
+        assertEquals(0, factory.created.get(1).closeCount);
+
+        pool.close();
+    }
+
+    /**
+     * Idle handlers are evicted after the idle timeout even if no more handlers are acquired.
+     */
+    public void testIdleEvictionWithoutTraffic() throws Exception {
+        final ResettableHandlerFactory factory = new ResettableHandlerFactory();
+        final PooledDaemonCommandHandlerFactory pool = new PooledDaemonCommandHandlerFactory(factory, 0, 5, 20);
+
+        pool.create().close();
+
+        for (int ix = 0; ix < 100 && factory.created.get(0).closeCount == 0; ++ix) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, factory.created.get(0).closeCount);
+
+        pool.close();
+    }
+
+    /**
+     * An idle timeout of 0 or less is rejected.
+     */
+    public void testInvalidIdleTimeout() throws Exception {
+        final DaemonCommandHandlerStubFactory factory = new DaemonCommandHandlerStubFactory();
+        try {
+            new PooledDaemonCommandHandlerFactory(factory, 0, 2, 0);
+            fail("IllegalArgumentException expected");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("Invalid idle timeout: 0", e.getMessage());
+        }
+    }
+
+    /**
+     * Handlers that are not resettable are not pooled.
+     */
+    public void testNotResettable() throws Exception {
+        final DaemonCommandHandlerStubFactory factory = new DaemonCommandHandlerStubFactory();
+        final PooledDaemonCommandHandlerFactory pool = new PooledDaemonCommandHandlerFactory(factory, 0, 2, 60000);
+
+        final DaemonCommandHandler handler = pool.create();
+        assertSame(factory.getStubHandler(), handler);
+        handler.close();
+        assertEquals(0, pool.getIdleCount());
+
+        pool.close();
+    }
+
+    /**
+     * The shared handler is closed by the factory only.
+     */
+    public void testShared() throws Exception {
+        final ResettableHandler shared = new ResettableHandler();
+        final SharedDaemonCommandHandlerFactory factory = new SharedDaemonCommandHandlerFactory(shared);
+
+        final DaemonCommandHandler first = factory.create();
+        final DaemonCommandHandler second = factory.create();
+        assertTrue(first.startPrinterJob("lp"));
+        first.close();
+        second.close();
+        assertEquals(0, shared.closeCount);
+
+        factory.close();
+        assertEquals(1, shared.closeCount);
+    }
+}
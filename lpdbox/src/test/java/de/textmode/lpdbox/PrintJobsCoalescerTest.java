@@ -0,0 +1,174 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link PrintJobsCoalescer}.
+ */
+public final class PrintJobsCoalescerTest extends TestCase {
+
+    private final AtomicInteger runs = new AtomicInteger();
+    private final CountDownLatch firstRunStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseFirstRun = new CountDownLatch(1);
+
+    /**
+     * Creates a {@link DaemonCommandHandler} that counts the calls of <code>printJobs</code>. The first
+     * call blocks until <code>releaseFirstRun</code> is counted down.
+     */
+    private DaemonCommandHandler createHandler() {
+        return (DaemonCommandHandler) Proxy.newProxyInstance(
+                DaemonCommandHandler.class.getClassLoader(),
+                new Class<?>[] {DaemonCommandHandler.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                            throws Throwable {
+
+                        if (method.getName().equals("printJobs")
+                                && PrintJobsCoalescerTest.this.runs.incrementAndGet() == 1) {
+                            PrintJobsCoalescerTest.this.firstRunStarted.countDown();
+                            PrintJobsCoalescerTest.this.releaseFirstRun.await(5, TimeUnit.SECONDS);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Waits until the given number of calls of <code>printJobs</code> have been made.
+     */
+    private void awaitRuns(final int expected) throws InterruptedException {
+        for (int ix = 0; ix < 100 && this.runs.get() < expected; ++ix) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, this.runs.get());
+    }
+
+    /**
+     * Commands within the window are folded, a command while running causes another call.
+     */
+    public void testCoalesce() throws Exception {
+        final PrintJobsCoalescer coalescer = new PrintJobsCoalescer(new DaemonCommandHandlerFactory() {
+            @Override
+            public DaemonCommandHandler create() {
+                return PrintJobsCoalescerTest.this.createHandler();
+            }
+        }, 100);
+
+        try {
+            for (int ix = 0; ix < 50; ++ix) {
+                final DaemonCommandHandler handler = coalescer.create();
+                handler.printJobs("lp");
+                handler.close();
+            }
+
+            // The first call is running (and blocked) - requests now must lead to a second call...
+            assertTrue(this.firstRunStarted.await(5, TimeUnit.SECONDS));
+            coalescer.create().printJobs("lp");
+            coalescer.create().printJobs("lp");
+            this.releaseFirstRun.countDown();
+
+            this.awaitRuns(2);
+            Thread.sleep(300);
+            assertEquals(2, this.runs.get());
+            assertEquals(52, coalescer.getRequestCount());
+            assertEquals(2, coalescer.getRunCount());
+
+            // The queue is idle, so its state has been removed...
+            assertEquals(0, coalescer.getActiveQueueCount());
+            for (int ix = 0; ix < 20; ++ix) {
+                coalescer.create().printJobs("queue" + ix);
+            }
+            this.awaitRuns(22);
+            for (int ix = 0; ix < 100 && coalescer.getActiveQueueCount() > 0; ++ix) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, coalescer.getActiveQueueCount());
+        } finally {
+            coalescer.close();
+        }
+
+        // After closing, requests are dropped...
+        coalescer.create().printJobs("lp");
+        assertEquals(22, this.runs.get());
+        assertEquals(0, coalescer.getActiveQueueCount());
+    }
+
+    /**
+     * A queue with a slow call does not delay the calls for other queues.
+     */
+    public void testQueuesIndependent() throws Exception {
+        final PrintJobsCoalescer coalescer = new PrintJobsCoalescer(new DaemonCommandHandlerFactory() {
+            @Override
+            public DaemonCommandHandler create() {
+                return PrintJobsCoalescerTest.this.createHandler();
+            }
+        }, 50);
+
+        try {
+            coalescer.create().printJobs("slow");
+            assertTrue(this.firstRunStarted.await(5, TimeUnit.SECONDS));
+
+            // The call for "slow" is still blocked...
+            coalescer.create().printJobs("fast");
+            this.awaitRuns(2);
+            assertEquals(1, this.releaseFirstRun.getCount());
+        } finally {
+            this.releaseFirstRun.countDown();
+            coalescer.close();
+        }
+    }
+
+    /**
+     * A background call for which no handler can be created is logged and does not stop later calls.
+     */
+    public void testNoHandler() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final PrintJobsCoalescer coalescer = new PrintJobsCoalescer(new DaemonCommandHandlerFactory() {
+            @Override
+            public DaemonCommandHandler create() {
+                // The first background call gets no handler...
+                return created.incrementAndGet() == 2 ? null : PrintJobsCoalescerTest.this.createHandler();
+            }
+        }, 50);
+
+        try {
+            this.releaseFirstRun.countDown();
+            coalescer.create().printJobs("lp");
+            for (int ix = 0; ix < 100 && coalescer.getRunCount() < 1; ++ix) {
+                Thread.sleep(20);
+            }
+            Thread.sleep(100);
+            assertEquals(0, this.runs.get());
+
+            coalescer.create().printJobs("lp");
+            this.awaitRuns(1);
+            assertEquals(2, coalescer.getRunCount());
+        } finally {
+            coalescer.close();
+        }
+    }
+}
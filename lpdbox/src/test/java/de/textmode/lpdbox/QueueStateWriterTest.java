@@ -0,0 +1,72 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link QueueStateWriter}.
+ */
+public final class QueueStateWriterTest extends TestCase {
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    /**
+     * The characters are converted to ISO-8859-1 and written in chunks while they are appended.
+     */
+    public void testWrite() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final QueueStateWriter writer = new QueueStateWriter(os);
+
+        writer.append("K\u00e4se \u20ac").append('\n');
+        assertEquals(0, os.size());
+        writer.flush();
+        assertEquals("K\u00e4se ?\n", new String(os.toByteArray(), ISO8859));
+
+        os.reset();
+        final StringBuilder line = new StringBuilder();
+        for (int ix = 0; ix < 99; ++ix) {
+            line.append('x');
+        }
+        line.append('\n');
+
+        for (int ix = 0; ix < 1000; ++ix) {
+            writer.append(line, 0, line.length());
+            assertTrue(os.size() <= (ix + 1) * line.length());
+            assertTrue(os.size() > (ix + 1) * line.length() - 8192);
+        }
+
+        writer.flush();
+        assertEquals(100000, os.size());
+    }
+
+    /**
+     * A handler that only implements the {@link String} based methods is still supported.
+     */
+    public void testDefaultMethod() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final QueueStateWriter writer = new QueueStateWriter(os);
+
+        new DaemonCommandHandlerStub().sendQueueStateShort("lp", Collections.<String>emptyList(), writer);
+        writer.flush();
+        assertEquals("this is a short list", new String(os.toByteArray(), ISO8859));
+    }
+}
@@ -19,6 +19,10 @@ package de.textmode.lpdbox;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 
@@ -150,6 +154,68 @@ public final class ReceivePrinterJobCommandParserTest extends TestCase {
         assertNull(handler.getControlFileContent());
     }
 
+    /**
+     * Receive a data file of unknown length that ends when the client closes the connection.
+     */
+    public void testReceiveDataFileOfUnknownLength() throws Exception {
+        final DaemonCommandHandlerStub handler = new DaemonCommandHandlerStub();
+
+        final byte[] data = "my_queue\n\0030 dfA001localhost\nThis is the data to print".getBytes(ISO8859);
+        final ByteArrayInputStream is = new ByteArrayInputStream(data);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        new ReceivePrinterJobCommandParser(LOGGER, handler, null, null, null, true, 0).parse(is, os);
+
+        assertEquals(2, os.toByteArray().length);
+        assertEquals(DaemonCommandHandler.UNKNOWN_FILE_LENGTH, handler.getDataFileLength());
+        assertEquals("dfA001localhost", handler.getDataFileName());
+        assertTrue(Arrays.equals("This is the data to print".getBytes(ISO8859), handler.getDataFileContent()));
+        assertTrue(handler.isEnded());
+
+        // Without opting in, a data file with the length 0 is an empty file...
+        final DaemonCommandHandlerStub other = performTest(
+                3,
+                "my_queue\n",
+                ReceivePrinterJobCommandParser.COMMAND_CODE_RECEIVE_DATA_FILE,
+                "0 dfA001localhost\n\000");
+
+        assertEquals(0, other.getDataFileLength());
+        assertEquals(0, other.getDataFileContent().length);
+    }
+
+    /**
+     * A data file of unknown length the handler has not read to its end aborts the printer job.
+     */
+    public void testDataFileOfUnknownLengthNotReadCompletely() throws Exception {
+        final DaemonCommandHandlerStub stub = new DaemonCommandHandlerStub();
+        final DaemonCommandHandler handler = (DaemonCommandHandler) Proxy.newProxyInstance(
+                DaemonCommandHandler.class.getClassLoader(),
+                new Class<?>[] {DaemonCommandHandler.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                            throws Throwable {
+
+                        if (method.getName().equals("receiveDataFile")) {
+                            // Stops after the first bytes...
+                            ((InputStream) args[0]).read(new byte[4]);
+                            return null;
+                        }
+                        return method.invoke(stub, args);
+                    }
+                });
+
+        final byte[] data = "my_queue\n\0030 dfA001localhost\nThis is the data to print".getBytes(ISO8859);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        new ReceivePrinterJobCommandParser(LOGGER, handler, null, null, null, true, 0)
+                .parse(new ByteArrayInputStream(data), os);
+
+        assertEquals(2, os.toByteArray().length);
+        assertTrue(stub.isAborted());
+        assertFalse(stub.isEnded());
+    }
+
     /**
      * Receive the control and data file.
      */
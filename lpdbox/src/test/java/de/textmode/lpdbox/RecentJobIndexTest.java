@@ -0,0 +1,64 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link RecentJobIndex}.
+ */
+public final class RecentJobIndexTest extends TestCase {
+
+    /**
+     * The key consists of the job number, host name and checksum.
+     */
+    public void testKey() {
+        assertEquals("001localhost:1f", RecentJobIndex.createKey("cfA001localhost", 31));
+    }
+
+    /**
+     * The oldest entries are dropped if the index is full.
+     */
+    public void testBounded() {
+        final RecentJobIndex index = new RecentJobIndex(2, 60000);
+        index.add("a");
+        index.add("b");
+        index.add("c");
+
+        assertEquals(2, index.size());
+        assertFalse(index.contains("a"));
+        assertTrue(index.contains("b"));
+        assertTrue(index.contains("c"));
+        assertEquals(2, index.getDuplicateCount());
+
+        index.remove("b");
+        assertFalse(index.contains("b"));
+    }
+
+    /**
+     * Entries expire after the given time.
+     */
+    public void testExpiry() throws Exception {
+        final RecentJobIndex index = new RecentJobIndex(100, 100);
+        index.add("a");
+        assertTrue(index.contains("a"));
+
+        Thread.sleep(200);
+        assertFalse(index.contains("a"));
+        assertEquals(0, index.size());
+    }
+}
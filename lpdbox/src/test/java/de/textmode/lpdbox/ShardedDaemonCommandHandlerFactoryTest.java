@@ -0,0 +1,401 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link ShardedDaemonCommandHandlerFactory}.
+ */
+public final class ShardedDaemonCommandHandlerFactoryTest extends TestCase {
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    private final Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+    private final List<RecordingHandler> handlers = new CopyOnWriteArrayList<>();
+    private final DaemonCommandHandlerFactory recordingFactory = new DaemonCommandHandlerFactory() {
+        @Override
+        public DaemonCommandHandler create() {
+            final RecordingHandler handler = new RecordingHandler(ShardedDaemonCommandHandlerFactoryTest.this.threads);
+            ShardedDaemonCommandHandlerFactoryTest.this.handlers.add(handler);
+            return handler;
+        }
+    };
+
+    private Path tempDirectory;
+    private PayloadSink sink;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempDirectory = Files.createTempDirectory("lpdbox");
+        this.sink = new PayloadSink(1024, 65536, this.tempDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.delete(this.tempDirectory);
+    }
+
+    /**
+     * All operations on a queue are executed by the same shard, regardless of the connection.
+     */
+    public void testRouting() throws Exception {
+        final ShardedDaemonCommandHandlerFactory factory =
+                new ShardedDaemonCommandHandlerFactory(this.recordingFactory, this.sink, 4);
+        try {
+            for (int ix = 0; ix < 20; ++ix) {
+                final DaemonCommandHandler handler = factory.create();
+                final String queueName = "queue" + (ix % 5);
+
+                assertTrue(handler.startPrinterJob(queueName));
+                handler.endPrinterJob();
+                assertEquals(queueName, handler.sendQueueStateShort(queueName, Collections.<String>emptyList()));
+                handler.close();
+            }
+
+            assertEquals(20, this.handlers.size());
+            assertEquals(5, this.threads.size());
+            for (final Map.Entry<String, Set<String>> entry : this.threads.entrySet()) {
+                assertEquals(1, entry.getValue().size());
+                assertEquals(
+                        "lpdbox-shard-" + factory.getShard(entry.getKey()),
+                        entry.getValue().iterator().next());
+            }
+
+            try {
+                factory.create().removeJobs("queue0", "root", Collections.<String>emptyList());
+                fail("The exception of the handler must be passed on");
+            } catch (final IOException e) {
+                assertEquals("Cannot remove jobs of queue0", e.getMessage());
+            }
+        } finally {
+            factory.close();
+        }
+
+        try {
+            factory.create().printJobs("queue0");
+            fail("The shards have been stopped");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("has been stopped"));
+        }
+    }
+
+    /**
+     * A handler closed after the shards have been stopped closes the wrapped handler by the calling thread.
+     */
+    public void testCloseAfterStop() throws Exception {
+        final ShardedDaemonCommandHandlerFactory factory =
+                new ShardedDaemonCommandHandlerFactory(this.recordingFactory, this.sink, 2);
+
+        final DaemonCommandHandler handler = factory.create();
+        assertTrue(handler.startPrinterJob("queue0"));
+        factory.close();
+
+        handler.close();
+
+        final RecordingHandler recording = this.handlers.get(0);
+        assertEquals(Arrays.asList("start queue0", "close"), recording.events);
+        assertTrue(recording.callingThreads.contains(Thread.currentThread().getName()));
+    }
+
+    /**
+     * Two printer jobs for the same queue are received concurrently. Each connection has its own handler,
+     * all calls (including the files) are executed by the shard of the queue and the end or abort of a
+     * printer job reaches the handler of its connection.
+     */
+    public void testConcurrentJobs() throws Exception {
+        final ShardedDaemonCommandHandlerFactory factory =
+                new ShardedDaemonCommandHandlerFactory(this.recordingFactory, this.sink, 4);
+
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread[] senders = new Thread[2];
+        try {
+            for (int ix = 0; ix < senders.length; ++ix) {
+                final int number = ix + 1;
+                senders[ix] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (final DaemonCommandHandler handler = factory.create()) {
+                            assertTrue(handler.startPrinterJob("queue0"));
+                            barrier.await(10, TimeUnit.SECONDS);
+
+                            final byte[] control = ("Hhost" + number + "\n").getBytes(ISO8859);
+                            assertTrue(handler.isControlFileAcceptable(control.length, "cfA00" + number + "host"));
+                            handler.receiveControlFile(
+                                    new ByteArrayInputStream(control), control.length, "cfA00" + number + "host");
+                            barrier.await(10, TimeUnit.SECONDS);
+
+                            final byte[] data = ("data" + number).getBytes(ISO8859);
+                            assertTrue(handler.isDataFileAcceptable(data.length, "dfA00" + number + "host"));
+                            handler.receiveDataFile(
+                                    new ByteArrayInputStream(data), data.length, "dfA00" + number + "host");
+                            barrier.await(10, TimeUnit.SECONDS);
+
+                            if (number == 1) {
+                                handler.endPrinterJob();
+                            } else {
+                                handler.abortPrinterJob();
+                            }
+                        } catch (final Throwable e) {
+                            failure.compareAndSet(null, e);
+                            barrier.reset();
+                        }
+                    }
+                });
+                senders[ix].start();
+            }
+
+            for (final Thread sender : senders) {
+                sender.join(10000);
+                assertFalse(sender.isAlive());
+            }
+        } finally {
+            factory.close();
+        }
+
+        assertNull(failure.get());
+        assertEquals(2, this.handlers.size());
+
+        final List<List<String>> events = new ArrayList<>();
+        for (final RecordingHandler handler : this.handlers) {
+            assertEquals(
+                    Collections.singleton("lpdbox-shard-" + factory.getShard("queue0")),
+                    handler.callingThreads);
+            events.add(handler.events);
+        }
+
+        assertTrue(events.contains(Arrays.asList(
+                "start queue0", "control cfA001host Hhost1\n", "data dfA001host data1", "end", "close")));
+        assertTrue(events.contains(Arrays.asList(
+                "start queue0", "control cfA002host Hhost2\n", "data dfA002host data2", "abort", "close")));
+    }
+
+    /**
+     * The state of a queue is written to the client by the thread of the connection, so a slow client
+     * does not block the shard.
+     */
+    public void testSlowQueueStateClient() throws Exception {
+        final ShardedDaemonCommandHandlerFactory factory =
+                new ShardedDaemonCommandHandlerFactory(this.recordingFactory, this.sink, 1);
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final StringBuilder received = new StringBuilder();
+        final Appendable slowClient = new Appendable() {
+            @Override
+            public Appendable append(final CharSequence csq) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                received.append(csq);
+                return this;
+            }
+
+            @Override
+            public Appendable append(final CharSequence csq, final int start, final int end) throws IOException {
+                return this.append(csq.subSequence(start, end));
+            }
+
+            @Override
+            public Appendable append(final char c) throws IOException {
+                return this.append(String.valueOf(c));
+            }
+        };
+
+        final DaemonCommandHandler reporter = factory.create();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reporter.sendQueueStateLong("queue0", Collections.<String>emptyList(), slowClient);
+                } catch (final IOException e) {
+                    received.append(e.getMessage());
+                }
+            }
+        });
+
+        try {
+            thread.start();
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            // The shard is free while the client is still being written to...
+            final FutureTask<Boolean> start = new FutureTask<>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    try (final DaemonCommandHandler handler = factory.create()) {
+                        return handler.startPrinterJob("queue0");
+                    }
+                }
+            });
+            new Thread(start).start();
+            assertTrue(start.get(10, TimeUnit.SECONDS));
+
+            release.countDown();
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+            assertEquals("queue0", received.toString());
+        } finally {
+            release.countDown();
+            factory.close();
+        }
+    }
+
+    /**
+     * A {@link DaemonCommandHandler} that records its calls and the threads that execute the operations.
+     */
+    private static final class RecordingHandler implements DaemonCommandHandler {
+
+        private final Map<String, Set<String>> threads;
+        private final Set<String> callingThreads = new CopyOnWriteArraySet<>();
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        /**
+         * Constructor.
+         */
+        RecordingHandler(final Map<String, Set<String>> threads) {
+            this.threads = threads;
+        }
+
+        /**
+         * Records the current thread for the given queue.
+         */
+        private void record(final String queueName) {
+            this.threads.putIfAbsent(queueName, new CopyOnWriteArraySet<String>());
+            this.threads.get(queueName).add(Thread.currentThread().getName());
+        }
+
+        /**
+         * Records the given event and the current thread.
+         */
+        private void event(final String event) {
+            this.events.add(event);
+            this.callingThreads.add(Thread.currentThread().getName());
+        }
+
+        /**
+         * Reads the given {@link InputStream} until its end.
+         */
+        private static String read(final InputStream is) throws IOException {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[256];
+            int read = is.read(buffer);
+            while (read != -1) {
+                os.write(buffer, 0, read);
+                read = is.read(buffer);
+            }
+            return new String(os.toByteArray(), ISO8859);
+        }
+
+        @Override
+        public void printJobs(final String queueName) {
+            this.record(queueName);
+        }
+
+        @Override
+        public boolean startPrinterJob(final String queueName) {
+            this.record(queueName);
+            this.event("start " + queueName);
+            return true;
+        }
+
+        @Override
+        public boolean isControlFileAcceptable(final int fileLength, final String fileName) {
+            this.callingThreads.add(Thread.currentThread().getName());
+            return true;
+        }
+
+        @Override
+        public void receiveControlFile(final InputStream is, final int fileLength, final String fileName)
+                throws IOException {
+
+            this.event("control " + fileName + " " + read(is));
+        }
+
+        @Override
+        public boolean isDataFileAcceptable(final long fileLength, final String fileName) {
+            this.callingThreads.add(Thread.currentThread().getName());
+            return true;
+        }
+
+        @Override
+        public void receiveDataFile(final InputStream is, final long fileLength, final String fileName)
+                throws IOException {
+
+            this.event("data " + fileName + " " + read(is));
+        }
+
+        @Override
+        public void abortPrinterJob() {
+            this.event("abort");
+        }
+
+        @Override
+        public void endPrinterJob() {
+            this.event("end");
+        }
+
+        @Override
+        public void removeJobs(final String queueName, final String agent, final List<String> jobs)
+                throws IOException {
+            throw new IOException("Cannot remove jobs of " + queueName);
+        }
+
+        @Override
+        public String sendQueueStateLong(final String queueName, final List<String> jobs) {
+            return queueName;
+        }
+
+        @Override
+        public String sendQueueStateShort(final String queueName, final List<String> jobs) {
+            this.record(queueName);
+            return queueName;
+        }
+
+        @Override
+        public void close() {
+            this.event("close");
+        }
+    }
+}
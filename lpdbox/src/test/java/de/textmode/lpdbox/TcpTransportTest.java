@@ -0,0 +1,228 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link TcpTransport}.
+ */
+public final class TcpTransportTest extends TestCase {
+
+    private static final int PORT_NUMBER = 1517;
+
+    /**
+     * Starts a {@link LinePrinterDaemon} using the given {@link Transport} in a separate thread.
+     */
+    private static LinePrinterDaemon startDaemon(
+            final DaemonCommandHandlerFactory factory,
+            final Transport transport) throws Exception {
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(factory)
+                .transport(transport)
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        thread.start();
+
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
+        return daemon;
+    }
+
+    /**
+     * Sends the command "print jobs" for the given queue to the given port.
+     */
+    private static void printJobs(final int port, final String queueName) throws IOException {
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final OutputStream os = socket.getOutputStream();
+            os.write(("\u0001" + queueName + "\n").getBytes(Charset.forName("ISO-8859-1")));
+            os.flush();
+
+            final InputStream is = socket.getInputStream();
+            assertEquals(-1, is.read());
+        }
+    }
+
+    /**
+     * The connections accepted on a port bound by the {@link TcpTransport} itself are based on a channel,
+     * so they are read through pooled direct buffers.
+     */
+    public void testAcceptedConnectionHasChannel() throws Exception {
+        final TcpTransport transport = new TcpTransport(PORT_NUMBER);
+        transport.bind();
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), PORT_NUMBER)) {
+            assertTrue(socket.isConnected());
+
+            final TransportConnection connection = transport.accept();
+            assertNotNull(connection);
+            assertNotNull(connection.getChannel());
+            connection.close();
+        } finally {
+            transport.close();
+        }
+        assertFalse(transport.isBound());
+    }
+
+    /**
+     * An already bound {@link ServerSocketChannel} is adopted.
+     */
+    public void testAdoptChannel() throws Exception {
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        channel.configureBlocking(false);
+
+        final TcpTransport transport = new TcpTransport(channel);
+        assertTrue(transport.isBound());
+        assertEquals("port " + channel.socket().getLocalPort(), transport.getDescription());
+
+        final DaemonCommandHandlerStubFactory factory = new DaemonCommandHandlerStubFactory();
+        final LinePrinterDaemon daemon = startDaemon(factory, transport);
+
+        printJobs(channel.socket().getLocalPort(), "adopted");
+        assertEquals("adopted", factory.getStubHandler().getPrinterQueueName());
+
+        assertTrue(daemon.stop(5000));
+        assertFalse(channel.isOpen());
+    }
+
+    /**
+     * The listening socket is handed off to a new {@link LinePrinterDaemon} while the old one drains.
+     */
+    public void testHandOff() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final int port = serverSocket.getLocalPort();
+
+        final DaemonCommandHandlerStubFactory oldFactory = new DaemonCommandHandlerStubFactory();
+        final LinePrinterDaemon oldDaemon = startDaemon(oldFactory, new TcpTransport(serverSocket));
+
+        printJobs(port, "old");
+        assertEquals("old", oldFactory.getStubHandler().getPrinterQueueName());
+
+        final DaemonCommandHandlerStubFactory newFactory = new DaemonCommandHandlerStubFactory();
+        final LinePrinterDaemon newDaemon = startDaemon(newFactory, oldDaemon.handOff());
+
+        assertTrue(oldDaemon.drain(5000));
+        assertFalse(oldDaemon.isRunning());
+        assertFalse(serverSocket.isClosed());
+
+        printJobs(port, "new");
+        assertEquals("new", newFactory.getStubHandler().getPrinterQueueName());
+        assertEquals("old", oldFactory.getStubHandler().getPrinterQueueName());
+
+        assertTrue(newDaemon.stop(5000));
+        assertTrue(serverSocket.isClosed());
+    }
+
+    /**
+     * A {@link Transport} that has been handed off cannot be handed off again.
+     */
+    public void testHandOffTwice() throws Exception {
+        final TcpTransport transport = new TcpTransport(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+        final Transport successor = transport.handOff();
+        try {
+            transport.handOff();
+            fail("The transport has already been handed off");
+        } catch (final IOException e) {
+            assertEquals("The transport does not own a listening socket", e.getMessage());
+        } finally {
+            successor.close();
+        }
+    }
+
+    /**
+     * Waits until the given counter of the {@link LinePrinterDaemonStatistics} reaches the expected value.
+     */
+    private static void awaitCounter(final long expected, final Callable<Long> counter) throws Exception {
+        for (int ix = 0; ix < 100 && counter.call() < expected; ++ix) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, counter.call().longValue());
+    }
+
+    /**
+     * Connections are half-closed and closed by the client, rejected connections are reset.
+     */
+    public void testCloseStrategy() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final int port = serverSocket.getLocalPort();
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(new DaemonCommandHandlerStubFactory())
+                .transport(new TcpTransport(serverSocket))
+                .closeStrategy(CloseStrategy.WAIT_FOR_CLIENT)
+                .closeTimeout(200)
+                .resetRejectedConnections(true)
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
+
+        final LinePrinterDaemonStatistics statistics = daemon.getStatistics();
+        try {
+            // The client closes the connection as soon as it sees the end of the stream...
+            printJobs(port, "lp");
+            awaitCounter(1, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return statistics.getConnectionsClosedByClient();
+                }
+            });
+
+            // The client keeps the connection open...
+            try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                socket.getOutputStream().write(new byte[] {0x01, 'l', 'p', '\n' });
+                assertEquals(-1, socket.getInputStream().read());
+
+                awaitCounter(1, new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return statistics.getConnectionsCloseTimedOut();
+                    }
+                });
+            }
+
+            // An unknown command code is rejected...
+            try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                socket.getOutputStream().write(new byte[] {0x09, 'l', 'p', '\n' });
+                awaitCounter(1, new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return statistics.getConnectionsReset();
+                    }
+                });
+            }
+
+            assertEquals(0, statistics.getConnectionsClosedImmediately());
+        } finally {
+            daemon.stop(5000);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package de.textmode.lpdbox;
+
+/*
+ * Copyright 2017 Michael Knigge
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit-Tests of class {@link UnixDomainSocketTransport}.
+ */
+public final class UnixDomainSocketTransportTest extends TestCase {
+
+    private static final Charset ISO8859 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Opens a client {@link SocketChannel} for Unix domain sockets (requires Java 16+).
+     */
+    private static SocketChannel openClientChannel() throws Exception {
+        return (SocketChannel) SocketChannel.class
+                .getMethod("open", ProtocolFamily.class)
+                .invoke(null, UnixDomainSocketTransport.getUnixProtocolFamily());
+    }
+
+    /**
+     * Sends a "Receive printer job" command over a Unix domain socket.
+     */
+    public void testReceivePrinterJob() throws Exception {
+        if (!UnixDomainSocketTransport.isSupported()) {
+            return;
+        }
+
+        final Path directory = Files.createTempDirectory("lpdbox");
+        final Path socketFile = directory.resolve("lpd.sock");
+
+        final DaemonCommandHandlerStubFactory stubFactory = new DaemonCommandHandlerStubFactory();
+        final DaemonCommandHandlerStub handler = stubFactory.getStubHandler();
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(stubFactory)
+                .transport(new UnixDomainSocketTransport(socketFile))
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        daemon.startup();
+        thread.start();
+
+        try (final SocketChannel channel = openClientChannel()) {
+            channel.connect(UnixDomainSocketTransport.createAddress(socketFile));
+
+            final InputStream is = Channels.newInputStream(channel);
+            final OutputStream os = Channels.newOutputStream(channel);
+
+            os.write("\u0002lp\n".getBytes(ISO8859));
+            assertEquals(0, is.read());
+
+            os.write("\u00026 cfA001host\n".getBytes(ISO8859));
+            assertEquals(0, is.read());
+
+            os.write("Hhost\n\u0000".getBytes(ISO8859));
+            assertEquals(0, is.read());
+
+            assertEquals("lp", handler.getPrinterQueueName());
+            assertEquals("cfA001host", handler.getControlFileName());
+            assertTrue(handler.isControlFileComplete());
+        } finally {
+            daemon.stop(5000);
+        }
+
+        assertFalse(Files.exists(socketFile));
+        Files.delete(directory);
+    }
+
+    /**
+     * Checks that a file that is not a socket is neither deleted nor replaced by the socket file.
+     */
+    public void testBindRefusesRegularFile() throws Exception {
+        if (!UnixDomainSocketTransport.isSupported()) {
+            return;
+        }
+
+        final Path directory = Files.createTempDirectory("lpdbox");
+        final Path file = Files.write(directory.resolve("lpd.sock"), "data".getBytes(ISO8859));
+
+        final UnixDomainSocketTransport transport = new UnixDomainSocketTransport(file);
+        try {
+            transport.bind();
+            fail();
+        } catch (final IOException e) {
+            assertFalse(transport.isBound());
+        }
+
+        assertEquals("data", new String(Files.readAllBytes(file), ISO8859));
+        Files.delete(file);
+        Files.delete(directory);
+    }
+
+    /**
+     * Checks that a left over socket file is replaced on bind and that closing a transport does not
+     * delete the socket file of a successor that has been bound to the same path meanwhile.
+     */
+    public void testCloseKeepsSocketOfSuccessor() throws Exception {
+        if (!UnixDomainSocketTransport.isSupported()) {
+            return;
+        }
+
+        final Path directory = Files.createTempDirectory("lpdbox");
+        final Path socketFile = directory.resolve("lpd.sock");
+
+        final UnixDomainSocketTransport predecessor = new UnixDomainSocketTransport(socketFile);
+        predecessor.bind();
+
+        final UnixDomainSocketTransport successor = new UnixDomainSocketTransport(socketFile);
+        successor.bind();
+
+        predecessor.close();
+        assertTrue(Files.exists(socketFile));
+
+        try (final SocketChannel channel = openClientChannel()) {
+            channel.connect(UnixDomainSocketTransport.createAddress(socketFile));
+            successor.accept().close();
+        }
+
+        successor.close();
+        assertFalse(Files.exists(socketFile));
+        Files.delete(directory);
+    }
+
+    /**
+     * Waits until the given counter of the {@link LinePrinterDaemonStatistics} reaches the expected value.
+     */
+    private static void awaitCounter(final long expected, final Callable<Long> counter) throws Exception {
+        for (int ix = 0; ix < 100 && counter.call() < expected; ++ix) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, counter.call().longValue());
+    }
+
+    /**
+     * Connections are half-closed and closed by the client if the close strategy says so.
+     */
+    public void testCloseStrategy() throws Exception {
+        if (!UnixDomainSocketTransport.isSupported()) {
+            return;
+        }
+
+        final Path directory = Files.createTempDirectory("lpdbox");
+        final Path socketFile = directory.resolve("lpd.sock");
+
+        final LinePrinterDaemon daemon = new LinePrinterDaemonBuilder(new DaemonCommandHandlerStubFactory())
+                .transport(new UnixDomainSocketTransport(socketFile))
+                .closeStrategy(CloseStrategy.WAIT_FOR_CLIENT)
+                .closeTimeout(200)
+                .build();
+
+        final Thread thread = new Thread(daemon);
+        thread.setDaemon(true);
+        thread.start();
+        daemon.getStartupFuture().get(5, TimeUnit.SECONDS);
+
+        final LinePrinterDaemonStatistics statistics = daemon.getStatistics();
+        try {
+            // The client closes the connection as soon as it sees the end of the stream...
+            try (final SocketChannel channel = openClientChannel()) {
+                channel.connect(UnixDomainSocketTransport.createAddress(socketFile));
+                Channels.newOutputStream(channel).write("\u0001lp\n".getBytes(ISO8859));
+                assertEquals(-1, Channels.newInputStream(channel).read());
+            }
+            awaitCounter(1, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return statistics.getConnectionsClosedByClient();
+                }
+            });
+
+            // The client keeps the connection open...
+            try (final SocketChannel channel = openClientChannel()) {
+                channel.connect(UnixDomainSocketTransport.createAddress(socketFile));
+                Channels.newOutputStream(channel).write("\u0001lp\n".getBytes(ISO8859));
+                assertEquals(-1, Channels.newInputStream(channel).read());
+                awaitCounter(1, new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return statistics.getConnectionsCloseTimedOut();
+                    }
+                });
+            }
+
+            assertEquals(1, statistics.getConnectionsClosedByClient());
+            assertEquals(0, statistics.getConnectionsClosedImmediately());
+        } finally {
+            daemon.stop(5000);
+        }
+
+        Files.delete(directory);
+    }
+}